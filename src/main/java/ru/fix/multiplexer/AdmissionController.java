@@ -0,0 +1,196 @@
+package ru.fix.multiplexer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether a message is accepted by {@link MultiplexerWithPriority#send} and whether buffered messages
+ * of a type can be sent now.
+ * <p>
+ * Expected queue wait of a type is estimated by Little's law: buffered messages of the type divided by the measured
+ * drain rate of the type. A message which would expire before the estimated wait passes is rejected at once
+ * if {@link MultiplexerConfig#isAdmissionControlEnabled()}. Drain rate is measured only over intervals
+ * when the type had buffered messages, so idle periods do not make the first burst after them look slow.
+ * <p>
+ * Types can be paused (buffered messages are not sent) or shed (paused and new messages are rejected) manually.
+ * Types from {@link MultiplexerConfig#sheddableTypes()} are shed automatically while the channel is saturated:
+ * estimated wait of some other type exceeds {@link MultiplexerConfig#getSaturationWaitThreshold()}.
+ * Saturation ends when waits of all other types drop below half of the threshold.
+ */
+@Slf4j
+class AdmissionController {
+
+    private static final long RATE_INTERVAL_MS = 500;
+    /**
+     * Weight of the last measured rate in the moving average
+     */
+    private static final double RATE_SMOOTHING_FACTOR = 0.5;
+
+    private final String name;
+    private final MessageTypeStatistics statistics;
+    private final ConcurrentMap<MessageType, TypeState> types = new ConcurrentHashMap<>();
+    private final Set<MessageType> pausedTypes = ConcurrentHashMap.newKeySet();
+    private final Set<MessageType> shedTypes = ConcurrentHashMap.newKeySet();
+
+    private final LongSupplier nanoClock;
+
+    private volatile boolean saturated;
+    private long lastTickNanos;
+
+    AdmissionController(String name, MessageTypeStatistics statistics) {
+        this(name, statistics, System::nanoTime);
+    }
+
+    AdmissionController(String name, MessageTypeStatistics statistics, LongSupplier nanoClock) {
+        this.name = name;
+        this.statistics = statistics;
+        this.nanoClock = nanoClock;
+        this.lastTickNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * @return {@code false} if message must be rejected
+     */
+    public boolean admit(MessageType messageType, ExpirationDate expirationTime, MultiplexerConfig config) {
+        if (shedTypes.contains(messageType) || saturated && config.sheddableTypes().contains(messageType)) {
+            return false;
+        }
+        if (!config.isAdmissionControlEnabled()) {
+            return true;
+        }
+        long estimatedWaitMs = estimatedWaitMs(messageType);
+        return estimatedWaitMs < 0 || estimatedWaitMs <= expirationTime.remainingMs();
+    }
+
+    public void onBuffered(MessageType messageType) {
+        TypeState state = stateOf(messageType);
+        state.buffered.incrementAndGet();
+        if (!state.hadBacklog) {
+            state.hadBacklog = true;
+        }
+    }
+
+    public void onLeftBuffer(MessageType messageType) {
+        stateOf(messageType).buffered.decrementAndGet();
+    }
+
+    /**
+     * Buffered messages of the type must not be sent now
+     */
+    public boolean isPaused(MessageType messageType, MultiplexerConfig config) {
+        return pausedTypes.contains(messageType)
+                || shedTypes.contains(messageType)
+                || saturated && config.sheddableTypes().contains(messageType);
+    }
+
+    public void pause(MessageType messageType) {
+        pausedTypes.add(messageType);
+    }
+
+    public void shed(MessageType messageType) {
+        shedTypes.add(messageType);
+    }
+
+    public void resume(MessageType messageType) {
+        pausedTypes.remove(messageType);
+        shedTypes.remove(messageType);
+    }
+
+    public Set<MessageType> pausedTypes() {
+        Set<MessageType> paused = ConcurrentHashMap.newKeySet();
+        paused.addAll(pausedTypes);
+        paused.addAll(shedTypes);
+        return paused;
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Expected queue wait of a new message of the type in milliseconds or -1 if drain rate is not measured yet
+     */
+    public long estimatedWaitMs(MessageType messageType) {
+        TypeState state = stateOf(messageType);
+        int buffered = state.buffered.get();
+        if (buffered <= 0) {
+            return 0;
+        }
+        double drainRatePerMs = state.drainRatePerMs;
+        return drainRatePerMs > 0 ? (long) (buffered / drainRatePerMs) : -1;
+    }
+
+    /**
+     * Measure drain rates and detect saturation. Called by the multiplexer worker only
+     */
+    public void tickIfDue(MultiplexerConfig config) {
+        long now = nanoClock.getAsLong();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - lastTickNanos);
+        if (elapsedMs < RATE_INTERVAL_MS) {
+            return;
+        }
+        lastTickNanos = now;
+        types.forEach((messageType, state) -> {
+            long dispatched = statistics.dispatched(messageType);
+            long drained = dispatched - state.dispatchedMark;
+            state.dispatchedMark = dispatched;
+            boolean hadBacklog = state.hadBacklog;
+            // messages buffered after this line are accounted in the next interval
+            state.hadBacklog = state.buffered.get() > 0;
+            if (!hadBacklog && drained == 0) {
+                // nothing to drain, the interval says nothing about the rate
+                return;
+            }
+            double rate = (double) drained / elapsedMs;
+            state.drainRatePerMs = state.drainRatePerMs == 0 && rate > 0
+                    ? rate
+                    : RATE_SMOOTHING_FACTOR * rate + (1 - RATE_SMOOTHING_FACTOR) * state.drainRatePerMs;
+        });
+        updateSaturation(config);
+    }
+
+    private void updateSaturation(MultiplexerConfig config) {
+        if (config.sheddableTypes().isEmpty()) {
+            saturated = false;
+            return;
+        }
+        long maxWaitMs = 0;
+        for (MessageType messageType : types.keySet()) {
+            if (!config.sheddableTypes().contains(messageType)) {
+                maxWaitMs = Math.max(maxWaitMs, estimatedWaitMs(messageType));
+            }
+        }
+        long threshold = config.getSaturationWaitThreshold();
+        if (!saturated && maxWaitMs > threshold) {
+            saturated = true;
+            log.warn("Multiplexer '{}' is saturated, estimated wait {} ms. Shedding types {}",
+                    name, maxWaitMs, config.sheddableTypes());
+        } else if (saturated && maxWaitMs < threshold / 2) {
+            saturated = false;
+            log.info("Multiplexer '{}' is not saturated anymore, estimated wait {} ms", name, maxWaitMs);
+        }
+    }
+
+    private TypeState stateOf(MessageType messageType) {
+        return types.computeIfAbsent(messageType, type -> new TypeState());
+    }
+
+    private static class TypeState {
+        final AtomicInteger buffered = new AtomicInteger();
+        volatile double drainRatePerMs;
+        /**
+         * Type had buffered messages since the last tick
+         */
+        volatile boolean hadBacklog;
+        /**
+         * Accessed by the worker only
+         */
+        long dispatchedMark;
+    }
+}
@@ -4,12 +4,13 @@ import lombok.extern.slf4j.Slf4j;
 import ru.fix.commons.profiler.ProfiledCall;
 import ru.fix.commons.profiler.Profiler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Queue;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Collect messages for pending sending
@@ -20,7 +21,7 @@ import java.util.function.Consumer;
 @Slf4j
 class Buffer<MsgType, ReturnType> {
 
-    private final ConcurrentMap<MessageType, Queue<ProfiledMessageContainer<MsgType, ReturnType>>> buffer =
+    private final ConcurrentMap<MessageType, SourceFairQueue<ProfiledMessageContainer<MsgType, ReturnType>>> buffer =
             new ConcurrentHashMap<>();
 
     private final String name;
@@ -35,7 +36,7 @@ class Buffer<MsgType, ReturnType> {
      * Does buffer contain message with type {@code MessageType}
      */
     public boolean hasMessage(MessageType messageType) {
-        Queue<ProfiledMessageContainer<MsgType, ReturnType>> queueForCurrentType = buffer.get(messageType);
+        SourceFairQueue<ProfiledMessageContainer<MsgType, ReturnType>> queueForCurrentType = buffer.get(messageType);
         return queueForCurrentType != null && !queueForCurrentType.isEmpty();
     }
 
@@ -43,7 +44,7 @@ class Buffer<MsgType, ReturnType> {
      * Return {@code true} if buffer is empty and otherwise {@code false}
      */
     public boolean isEmpty() {
-        for (Queue certainMessageTypeQueue : buffer.values()) {
+        for (SourceFairQueue<?> certainMessageTypeQueue : buffer.values()) {
             if (!certainMessageTypeQueue.isEmpty()) {
                 return false;
             }
@@ -51,22 +52,40 @@ class Buffer<MsgType, ReturnType> {
         return true;
     }
 
+    /**
+     * Types of messages which are present in buffer
+     */
+    public List<MessageType> messageTypes() {
+        List<MessageType> messageTypes = new ArrayList<>();
+        buffer.forEach((messageType, queue) -> {
+            if (!queue.isEmpty()) {
+                messageTypes.add(messageType);
+            }
+        });
+        return messageTypes;
+    }
+
     /**
      * Return a buffer size
      */
     public int size() {
         int bufferSize = 0;
-        for (Queue certainMessageTypeQueue : buffer.values()) {
+        for (SourceFairQueue<?> certainMessageTypeQueue : buffer.values()) {
             bufferSize += certainMessageTypeQueue.size();
         }
         return bufferSize;
     }
 
     /**
-     * Add new message to buffer
+     * Add new message to buffer. Messages of one type are polled giving turns to their sources
+     *
+     * @see SendOptions#withSource(Object)
      */
     public void add(MessageContainer<MsgType, ReturnType> msgContainer) {
-        buffer.computeIfAbsent(msgContainer.getMessageType(), messageType -> new ConcurrentLinkedQueue<>()).add(
+        buffer.computeIfAbsent(
+                msgContainer.getMessageType(),
+                messageType -> new SourceFairQueue<>(item -> item.messageContainer.getOptions().getSource())
+        ).add(
                 new ProfiledMessageContainer<>(msgContainer, profiler.start(name))
         );
     }
@@ -75,7 +94,7 @@ class Buffer<MsgType, ReturnType> {
      * Poll next message from buffer. If message with current type is not present return {@code null}
      */
     public MessageContainer<MsgType, ReturnType> pollNext(MessageType byType) {
-        Queue<ProfiledMessageContainer<MsgType, ReturnType>> queue = buffer.get(byType);
+        SourceFairQueue<ProfiledMessageContainer<MsgType, ReturnType>> queue = buffer.get(byType);
         if (queue == null) {
             return null;
         }
@@ -88,19 +107,37 @@ class Buffer<MsgType, ReturnType> {
         return item.messageContainer;
     }
 
+    /**
+     * Poll the first message with current type which can be sent now, messages before it keep their order.
+     * If there is no such message return {@code null}
+     */
+    public MessageContainer<MsgType, ReturnType> pollNext(
+            MessageType byType,
+            Predicate<MessageContainer<MsgType, ReturnType>> canBeSent
+    ) {
+        SourceFairQueue<ProfiledMessageContainer<MsgType, ReturnType>> queue = buffer.get(byType);
+        if (queue == null) {
+            return null;
+        }
+
+        ProfiledMessageContainer<MsgType, ReturnType> item = queue.poll(next -> canBeSent.test(next.messageContainer));
+        if (item == null) {
+            return null;
+        }
+        item.profiledCall.stop();
+        return item.messageContainer;
+    }
+
     public void pollAndProcessAllMessages(Consumer<MessageContainer<MsgType, ReturnType>> processor) {
         buffer.values()
-                .forEach(queue -> {
-                    ProfiledMessageContainer<MsgType, ReturnType> item;
-                    while ((item = queue.poll()) != null) {
-                        item.profiledCall.stop();
-                        try {
-                            processor.accept(item.messageContainer);
-                        } catch (RuntimeException e) {
-                            log.error("Batch processing. Processor failure for message {}", item.messageContainer.getMessage(), e);
-                        }
+                .forEach(queue -> queue.pollAll(item -> {
+                    item.profiledCall.stop();
+                    try {
+                        processor.accept(item.messageContainer);
+                    } catch (RuntimeException e) {
+                        log.error("Batch processing. Processor failure for message {}", item.messageContainer.getMessage(), e);
                     }
-                });
+                }));
     }
 
     @Override
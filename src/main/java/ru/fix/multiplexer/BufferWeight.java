@@ -0,0 +1,72 @@
+package ru.fix.multiplexer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Total and per type weight of messages retained by the multiplexer: buffered, waiting for retry
+ * or sent to the channel and not completed yet. Counters are striped, so producers do not contend on them.
+ * Limits are checked before the weight is added, so concurrent producers can exceed them by weights
+ * of messages sent at the same moment.
+ *
+ * @see MultiplexerConfig#getBufferWeightLimit()
+ * @see MultiplexerConfig#bufferWeightLimits()
+ */
+class BufferWeight {
+
+    private final LongAdder total = new LongAdder();
+    private final ConcurrentMap<MessageType, LongAdder> byType = new ConcurrentHashMap<>();
+
+    /**
+     * Add weight of the message if it fits into limits
+     *
+     * @return {@code false} if message must be rejected
+     */
+    boolean tryAcquire(MessageType messageType, long weight, MultiplexerConfig config) {
+        if (weight == 0) {
+            return true;
+        }
+        Long totalLimit = config.getBufferWeightLimit();
+        if (totalLimit != null && total.sum() + weight > totalLimit) {
+            return false;
+        }
+        Long typeLimit = config.bufferWeightLimits().get(messageType);
+        LongAdder typeWeight = counterOf(messageType);
+        if (typeLimit != null && typeWeight.sum() + weight > typeLimit) {
+            return false;
+        }
+        total.add(weight);
+        typeWeight.add(weight);
+        return true;
+    }
+
+    void release(MessageType messageType, long weight) {
+        change(messageType, -weight);
+    }
+
+    /**
+     * Account changed weight of retained message, e.g. after a merge or building of a lazy message.
+     * The message is already retained, so limits are not checked and only new messages are rejected
+     */
+    void change(MessageType messageType, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        total.add(delta);
+        counterOf(messageType).add(delta);
+    }
+
+    long retained() {
+        return total.sum();
+    }
+
+    long retained(MessageType messageType) {
+        LongAdder typeWeight = byType.get(messageType);
+        return typeWeight == null ? 0 : typeWeight.sum();
+    }
+
+    private LongAdder counterOf(MessageType messageType) {
+        return byType.computeIfAbsent(messageType, type -> new LongAdder());
+    }
+}
@@ -0,0 +1,23 @@
+package ru.fix.multiplexer;
+
+/**
+ * Output channel which pushes notifications about its free capacity.
+ * <p>
+ * Capacity can become free not only when a previously sent message is completed, but also when the connection is
+ * reestablished, quota window is reset and so on. Multiplexer subscribes itself as a listener on start and stops
+ * relying on per-message completion callbacks, so the channel must call
+ * {@link MultiplexerProcessorable#onOutputChannelHasFreeSlot()} every time {@link #hasFreeSlot()} may become
+ * {@code true}.
+ */
+public interface CapacityNotifyingOutputChannel<MsgType, ReturnType> extends MultiplexerOutputChannel<MsgType, ReturnType> {
+
+    /**
+     * Register listener which must be notified when channel gets free capacity
+     */
+    void addCapacityListener(MultiplexerProcessorable listener);
+
+    /**
+     * Remove previously registered listener
+     */
+    void removeCapacityListener(MultiplexerProcessorable listener);
+}
@@ -0,0 +1,94 @@
+package ru.fix.multiplexer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending messages to the output channel after several consecutive failures, so buffered messages
+ * are not burnt as instant failures. After {@link MultiplexerConfig#getCircuitBreakerOpenInterval()}
+ * one probe message is sent: its success closes the breaker, its failure opens it again.
+ * All operations are guarded by the breaker monitor.
+ *
+ * @see MultiplexerConfig#getCircuitBreakerFailureThreshold()
+ */
+@Slf4j
+class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        /**
+         * Probe message is in flight, other messages wait for its result
+         */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(String name, LongSupplier clock) {
+        this.name = name;
+        this.clock = clock;
+    }
+
+    synchronized boolean allowsDispatch(MultiplexerConfig config) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return clock.getAsLong() - openedAt >= config.getCircuitBreakerOpenInterval();
+            default:
+                return false;
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Message is sent to the channel, the first message after open interval becomes the probe
+     */
+    synchronized void onDispatched(MultiplexerConfig config) {
+        if (state == State.OPEN && allowsDispatch(config)) {
+            state = State.HALF_OPEN;
+            log.info("Circuit breaker of multiplexer '{}' sends probe message", name);
+        }
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            log.info("Circuit breaker of multiplexer '{}' is closed", name);
+        }
+    }
+
+    /**
+     * @return {@code true} if the breaker has been opened by this failure
+     */
+    synchronized boolean onFailure(MultiplexerConfig config) {
+        Integer threshold = config.getCircuitBreakerFailureThreshold();
+        if (threshold == null) {
+            return false;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= threshold) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            log.warn("Circuit breaker of multiplexer '{}' is open after {} consecutive failure(s)",
+                    name, consecutiveFailures);
+            return true;
+        }
+        return false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
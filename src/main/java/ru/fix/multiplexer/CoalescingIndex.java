@@ -0,0 +1,121 @@
+package ru.fix.multiplexer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Index of buffered messages by their coalescing keys. A new message with the key of a buffered one
+ * is merged into it in place, so the buffered message keeps its turn and the channel receives one message.
+ * Keys are scoped by message type and tenant. Message leaves the index when it is polled from the buffer,
+ * after that it is not changed anymore. All operations are guarded by the index monitor.
+ *
+ * @see SendOptions#withCoalescingKey(Object)
+ */
+class CoalescingIndex<MsgType, ReturnType> {
+
+    private final Map<Key, MessageContainer<MsgType, ReturnType>> pending = new HashMap<>();
+    private final BufferWeight bufferWeight;
+
+    CoalescingIndex(BufferWeight bufferWeight) {
+        this.bufferWeight = bufferWeight;
+    }
+
+    /**
+     * Merge new message into the buffered one with the same key. Merged message expires at the later
+     * of two expiration dates, its cost and weight are calculated again and the difference of weights is added
+     * to the buffer weight. If any of the messages is lazy, the merge is postponed until the merged message
+     * is built, its cost and weight are calculated after building too
+     *
+     * @param newMessage message which is not buffered
+     * @return buffered message which received the new one or {@code null} if there is no such message
+     */
+    synchronized MessageContainer<MsgType, ReturnType> merge(
+            MessageContainer<MsgType, ReturnType> newMessage,
+            BinaryOperator<MsgType> mergeFunction,
+            ToIntFunction<MsgType> costFunction,
+            ToLongFunction<MsgType> weigher
+    ) {
+        MessageContainer<MsgType, ReturnType> target =
+                pending.get(new Key(newMessage.getMessageType(), newMessage.getOptions()));
+        if (target == null) {
+            return null;
+        }
+        if (target.isBuilt() && newMessage.isBuilt()) {
+            MsgType merged = mergeFunction.apply(target.getMessage(), newMessage.getMessage());
+            target.setMessage(merged);
+            target.setCost(costFunction.applyAsInt(merged));
+            long weight = weigher.applyAsLong(merged);
+            bufferWeight.change(target.getMessageType(), weight - target.getWeight());
+            target.setWeight(weight);
+        } else {
+            Supplier<? extends MsgType> buffered = target.lazyMessage();
+            Supplier<? extends MsgType> newer = newMessage.lazyMessage();
+            target.setMessageSupplier(() -> mergeFunction.apply(buffered.get(), newer.get()));
+            // lazy message takes one unit until it is built
+            target.setCost(1);
+        }
+        ExpirationDate expirationTime = newMessage.getExpirationTime();
+        if (expirationTime.getTime() > target.getExpirationTime().getTime()) {
+            target.setExpirationTime(expirationTime);
+        }
+        return target;
+    }
+
+    /**
+     * Make buffered message a target of merges, previously registered message with the same key is kept
+     */
+    synchronized void register(MessageContainer<MsgType, ReturnType> message) {
+        if (message.getOptions().getCoalescingKey() != null) {
+            pending.putIfAbsent(new Key(message.getMessageType(), message.getOptions()), message);
+        }
+    }
+
+    /**
+     * Message is polled from the buffer and can not be changed anymore
+     */
+    synchronized void remove(MessageContainer<MsgType, ReturnType> message) {
+        if (message.getOptions().getCoalescingKey() != null) {
+            pending.remove(new Key(message.getMessageType(), message.getOptions()), message);
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private static final class Key {
+        final MessageType messageType;
+        final Object tenant;
+        final Object coalescingKey;
+
+        Key(MessageType messageType, SendOptions options) {
+            this.messageType = messageType;
+            this.tenant = options.getTenant();
+            this.coalescingKey = options.getCoalescingKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return messageType.equals(key.messageType)
+                    && Objects.equals(tenant, key.tenant)
+                    && coalescingKey.equals(key.coalescingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(messageType, tenant, coalescingKey);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.fix.multiplexer;
+
+/**
+ * Count of channel units taken by a message, e.g. SMS segments or API credits
+ *
+ * @see MultiplexerWithPriority#setCostFunction(CostFunction)
+ */
+@FunctionalInterface
+public interface CostFunction<MsgType> {
+
+    /**
+     * @return positive count of units
+     */
+    int cost(MsgType message);
+}
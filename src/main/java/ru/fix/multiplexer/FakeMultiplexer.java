@@ -40,6 +40,13 @@ public class FakeMultiplexer<MsgType, ReturnType> implements Multiplexer<MsgType
         return send(msg, messageType, ExpirationDate.expiresOn(expirationDate.toInstant()));
     }
 
+    /**
+     * Сообщения отправляются в канал сразу, настройки приоритетов и лимитов не используются
+     */
+    @Override
+    public void reconfigure(MultiplexerConfig multiplexerConfig) {
+    }
+
     @Override
     public void onOutputChannelHasFreeSlot() {
 
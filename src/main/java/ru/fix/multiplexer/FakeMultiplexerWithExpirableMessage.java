@@ -46,6 +46,13 @@ public class FakeMultiplexerWithExpirableMessage<MsgType, ReturnType>
         return send(msg, messageType, ExpirationDate.expiresOn(expirationDate.toInstant()));
     }
 
+    /**
+     * Сообщения отправляются в канал сразу, настройки приоритетов и лимитов не используются
+     */
+    @Override
+    public void reconfigure(MultiplexerConfig multiplexerConfig) {
+    }
+
     @Override
     public void onOutputChannelHasFreeSlot() {
 
@@ -0,0 +1,246 @@
+package ru.fix.multiplexer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of {@link MultiplexerConfig} values which can be copied with a single changed setting.
+ */
+class ImmutableMultiplexerConfig implements MultiplexerConfig {
+
+    private final Map<MessageType, Integer> registeredMessages;
+    private final Integer sendingWaitingInterval;
+    private final Map<MessageType, Integer> inFlightLimits;
+    private final Map<MessageType, Integer> reservedSlots;
+    private final Integer channelCapacity;
+    private final Map<MessageType, SlaTarget> slaTargets;
+    private final long weightTuningInterval;
+    private final Long shareDecayHorizon;
+    private final long tenantIdleTimeout;
+    private final boolean admissionControlEnabled;
+    private final Set<MessageType> sheddableTypes;
+    private final long saturationWaitThreshold;
+    private final Long bufferWeightLimit;
+    private final Map<MessageType, Long> bufferWeightLimits;
+    private final Map<MessageType, RetryPolicy> retryPolicies;
+    private final Integer circuitBreakerFailureThreshold;
+    private final long circuitBreakerOpenInterval;
+    private final boolean jmxEnabled;
+    private final String name;
+
+    ImmutableMultiplexerConfig(MultiplexerConfig config) {
+        this(config,
+                config.registeredMessages(),
+                config.getSendingWaitingInterval(),
+                config.inFlightLimits(),
+                config.reservedSlots(),
+                config.getChannelCapacity(),
+                config.slaTargets(),
+                config.sheddableTypes(),
+                config.bufferWeightLimits(),
+                config.retryPolicies());
+    }
+
+    /**
+     * Copy of {@code config} with the given settings which can be changed at runtime
+     */
+    private ImmutableMultiplexerConfig(MultiplexerConfig config,
+                                       Map<MessageType, Integer> registeredMessages,
+                                       Integer sendingWaitingInterval,
+                                       Map<MessageType, Integer> inFlightLimits,
+                                       Map<MessageType, Integer> reservedSlots,
+                                       Integer channelCapacity,
+                                       Map<MessageType, SlaTarget> slaTargets,
+                                       Set<MessageType> sheddableTypes,
+                                       Map<MessageType, Long> bufferWeightLimits,
+                                       Map<MessageType, RetryPolicy> retryPolicies) {
+        this.registeredMessages = Collections.unmodifiableMap(new LinkedHashMap<>(registeredMessages));
+        this.sendingWaitingInterval = sendingWaitingInterval;
+        this.inFlightLimits = Collections.unmodifiableMap(new HashMap<>(inFlightLimits));
+        this.reservedSlots = Collections.unmodifiableMap(new HashMap<>(reservedSlots));
+        this.channelCapacity = channelCapacity;
+        this.slaTargets = Collections.unmodifiableMap(new HashMap<>(slaTargets));
+        this.weightTuningInterval = config.getWeightTuningInterval();
+        this.shareDecayHorizon = config.getShareDecayHorizon();
+        this.tenantIdleTimeout = config.getTenantIdleTimeout();
+        this.admissionControlEnabled = config.isAdmissionControlEnabled();
+        this.sheddableTypes = Collections.unmodifiableSet(new HashSet<>(sheddableTypes));
+        this.saturationWaitThreshold = config.getSaturationWaitThreshold();
+        this.bufferWeightLimit = config.getBufferWeightLimit();
+        this.bufferWeightLimits = Collections.unmodifiableMap(new HashMap<>(bufferWeightLimits));
+        this.retryPolicies = Collections.unmodifiableMap(new HashMap<>(retryPolicies));
+        this.circuitBreakerFailureThreshold = config.getCircuitBreakerFailureThreshold();
+        this.circuitBreakerOpenInterval = config.getCircuitBreakerOpenInterval();
+        this.jmxEnabled = config.isJmxEnabled();
+        this.name = config.getName();
+    }
+
+    /**
+     * Register new type or change priority of registered one
+     */
+    ImmutableMultiplexerConfig withWeight(MessageType messageType, int weight) {
+        return new ImmutableMultiplexerConfig(this,
+                with(registeredMessages, messageType, weight), sendingWaitingInterval,
+                inFlightLimits, reservedSlots, channelCapacity,
+                slaTargets, sheddableTypes, bufferWeightLimits, retryPolicies);
+    }
+
+    /**
+     * Unregister the type and drop all its settings
+     */
+    ImmutableMultiplexerConfig withoutMessageType(MessageType messageType) {
+        Set<MessageType> remainingSheddableTypes = new HashSet<>(sheddableTypes);
+        remainingSheddableTypes.remove(messageType);
+        return new ImmutableMultiplexerConfig(this,
+                with(registeredMessages, messageType, null), sendingWaitingInterval,
+                with(inFlightLimits, messageType, null), with(reservedSlots, messageType, null), channelCapacity,
+                with(slaTargets, messageType, null), remainingSheddableTypes,
+                with(bufferWeightLimits, messageType, null), with(retryPolicies, messageType, null));
+    }
+
+    ImmutableMultiplexerConfig withSendingWaitingInterval(Integer sendingWaitingInterval) {
+        return new ImmutableMultiplexerConfig(this,
+                registeredMessages, sendingWaitingInterval,
+                inFlightLimits, reservedSlots, channelCapacity,
+                slaTargets, sheddableTypes, bufferWeightLimits, retryPolicies);
+    }
+
+    /**
+     * @param limit not positive value removes the limit
+     */
+    ImmutableMultiplexerConfig withInFlightLimit(MessageType messageType, int limit) {
+        return new ImmutableMultiplexerConfig(this,
+                registeredMessages, sendingWaitingInterval,
+                with(inFlightLimits, messageType, limit > 0 ? limit : null), reservedSlots, channelCapacity,
+                slaTargets, sheddableTypes, bufferWeightLimits, retryPolicies);
+    }
+
+    /**
+     * @param slots not positive value removes the reservation
+     */
+    ImmutableMultiplexerConfig withReservedSlots(MessageType messageType, int slots) {
+        return new ImmutableMultiplexerConfig(this,
+                registeredMessages, sendingWaitingInterval,
+                inFlightLimits, with(reservedSlots, messageType, slots > 0 ? slots : null), channelCapacity,
+                slaTargets, sheddableTypes, bufferWeightLimits, retryPolicies);
+    }
+
+    ImmutableMultiplexerConfig withChannelCapacity(Integer channelCapacity) {
+        return new ImmutableMultiplexerConfig(this,
+                registeredMessages, sendingWaitingInterval,
+                inFlightLimits, reservedSlots, channelCapacity,
+                slaTargets, sheddableTypes, bufferWeightLimits, retryPolicies);
+    }
+
+    /**
+     * Copy of {@code source} where {@code messageType} is mapped to {@code value} or removed if value is null
+     */
+    private static <T> Map<MessageType, T> with(Map<MessageType, T> source, MessageType messageType, T value) {
+        Map<MessageType, T> result = new LinkedHashMap<>(source);
+        if (value == null) {
+            result.remove(messageType);
+        } else {
+            result.put(messageType, value);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Map<MessageType, Integer> registeredMessages() {
+        return registeredMessages;
+    }
+
+    @Override
+    public Integer getSendingWaitingInterval() {
+        return sendingWaitingInterval;
+    }
+
+    @Override
+    public Map<MessageType, Integer> inFlightLimits() {
+        return inFlightLimits;
+    }
+
+    @Override
+    public Map<MessageType, Integer> reservedSlots() {
+        return reservedSlots;
+    }
+
+    @Override
+    public Integer getChannelCapacity() {
+        return channelCapacity;
+    }
+
+    @Override
+    public Map<MessageType, SlaTarget> slaTargets() {
+        return slaTargets;
+    }
+
+    @Override
+    public long getWeightTuningInterval() {
+        return weightTuningInterval;
+    }
+
+    @Override
+    public Long getShareDecayHorizon() {
+        return shareDecayHorizon;
+    }
+
+    @Override
+    public long getTenantIdleTimeout() {
+        return tenantIdleTimeout;
+    }
+
+    @Override
+    public boolean isAdmissionControlEnabled() {
+        return admissionControlEnabled;
+    }
+
+    @Override
+    public Set<MessageType> sheddableTypes() {
+        return sheddableTypes;
+    }
+
+    @Override
+    public long getSaturationWaitThreshold() {
+        return saturationWaitThreshold;
+    }
+
+    @Override
+    public Long getBufferWeightLimit() {
+        return bufferWeightLimit;
+    }
+
+    @Override
+    public Map<MessageType, Long> bufferWeightLimits() {
+        return bufferWeightLimits;
+    }
+
+    @Override
+    public Map<MessageType, RetryPolicy> retryPolicies() {
+        return retryPolicies;
+    }
+
+    @Override
+    public Integer getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    public long getCircuitBreakerOpenInterval() {
+        return circuitBreakerOpenInterval;
+    }
+
+    @Override
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,130 @@
+package ru.fix.multiplexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts messages sent to the output channel but not completed yet and decides whether a message of some type
+ * can be sent now with respect to {@link MultiplexerConfig#inFlightLimits()},
+ * {@link MultiplexerConfig#reservedSlots()} and {@link MultiplexerConfig#getChannelCapacity()}.
+ * <p>
+ * With {@link CostFunction} messages are counted in channel units. A message is sent while at least one unit
+ * is free, so a message costing more than one unit can exceed the limit until it is completed.
+ */
+class InFlightLimiter {
+
+    private final ConcurrentMap<MessageType, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger totalInFlight = new AtomicInteger();
+
+    private volatile Limits limits;
+
+    InFlightLimiter(MultiplexerConfig config) {
+        this.limits = new Limits(config);
+    }
+
+    /**
+     * Atomically replace limits, counters of messages in flight are preserved
+     */
+    public void reconfigure(MultiplexerConfig config) {
+        this.limits = new Limits(config);
+    }
+
+    /**
+     * Is there any limit, otherwise every message can be sent and it is not required to wait for releases
+     */
+    public boolean isEnabled() {
+        Limits currentLimits = limits;
+        return !currentLimits.inFlightLimits.isEmpty() || currentLimits.channelCapacity != null;
+    }
+
+    /**
+     * Does sending of one more message with type {@code messageType} fit into limits and does not take
+     * slots reserved for another types
+     */
+    public boolean canDispatch(MessageType messageType) {
+        Limits currentLimits = limits;
+        Integer limit = currentLimits.inFlightLimits.get(messageType);
+        if (limit != null && inFlightOf(messageType) >= limit) {
+            return false;
+        }
+        if (currentLimits.channelCapacity == null) {
+            return true;
+        }
+
+        int freeSlots = currentLimits.channelCapacity - totalInFlight.get();
+        for (Map.Entry<MessageType, Integer> reservation : currentLimits.reservedSlots.entrySet()) {
+            if (!reservation.getKey().equals(messageType)) {
+                freeSlots -= Math.max(0, reservation.getValue() - inFlightOf(reservation.getKey()));
+            }
+        }
+        return freeSlots > 0;
+    }
+
+    /**
+     * Message with type {@code messageType} is sent to the channel
+     */
+    public void acquire(MessageType messageType) {
+        acquire(messageType, 1);
+    }
+
+    /**
+     * Message with type {@code messageType} taking {@code units} of the channel is sent
+     */
+    public void acquire(MessageType messageType, int units) {
+        inFlight.computeIfAbsent(messageType, type -> new AtomicInteger()).addAndGet(units);
+        totalInFlight.addAndGet(units);
+    }
+
+    /**
+     * Message with type {@code messageType} is completed by the channel
+     */
+    public void release(MessageType messageType) {
+        release(messageType, 1);
+    }
+
+    public void release(MessageType messageType, int units) {
+        inFlight.get(messageType).addAndGet(-units);
+        totalInFlight.addAndGet(-units);
+    }
+
+    public int inFlightOf(MessageType messageType) {
+        AtomicInteger counter = inFlight.get(messageType);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public int totalInFlight() {
+        return totalInFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        Limits currentLimits = limits;
+        return "InFlightLimiter{" +
+                "inFlight=" + Arrays.toString(inFlight.entrySet().toArray()) +
+                ", inFlightLimits=" + currentLimits.inFlightLimits +
+                ", reservedSlots=" + currentLimits.reservedSlots +
+                ", channelCapacity=" + currentLimits.channelCapacity +
+                '}';
+    }
+
+    private static class Limits {
+        final Map<MessageType, Integer> inFlightLimits;
+        final Map<MessageType, Integer> reservedSlots;
+        final Integer channelCapacity;
+
+        Limits(MultiplexerConfig config) {
+            this.inFlightLimits = new HashMap<>(config.inFlightLimits());
+            this.reservedSlots = new HashMap<>(config.reservedSlots());
+            this.channelCapacity = config.getChannelCapacity();
+
+            if (!reservedSlots.isEmpty() && channelCapacity == null) {
+                throw new IllegalArgumentException("Reserved slots " + reservedSlots
+                        + " require channel capacity to be configured");
+            }
+        }
+    }
+}
@@ -1,36 +1,158 @@
 package ru.fix.multiplexer;
 
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 
+import java.time.Instant;
 import java.util.Date;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
-@ToString
-@Data
+/**
+ * Buffered message with its sending state. Containers are mutable and compared by identity,
+ * so they can be kept in hash based structures while they change
+ */
+@Getter
+@ToString(exclude = "messageSupplier")
 class MessageContainer<MsgType, ReturnType> {
 
     private final Date creationDate;
 
-    private final MsgType message;
+    /**
+     * Changes when another message is merged into this one, see {@link CoalescingIndex}
+     */
+    @Setter
+    private volatile MsgType message;
+
+    /**
+     * Builds the message of lazy sending, {@code null} if the message is built
+     */
+    private volatile Supplier<? extends MsgType> messageSupplier;
 
     private final CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise;
 
     private final MessageType messageType;
 
-    private final ExpirationDate expirationTime;
+    @Setter
+    private volatile ExpirationDate expirationTime;
+
+    private final SendOptions options;
+
+    /**
+     * Channel units taken by the message
+     *
+     * @see CostFunction
+     */
+    @Setter
+    private volatile int cost = 1;
+
+    /**
+     * Weight of the message in {@link BufferWeight}, 0 for lazy message until it is built
+     *
+     * @see Weigher
+     */
+    @Setter
+    private volatile long weight;
+
+    /**
+     * Message is processed by {@link MessagePreparer}
+     */
+    @Setter
+    private volatile boolean prepared;
+
+    /**
+     * How many times the message has been sent to the output channel
+     */
+    private volatile int attempts;
 
     public MessageContainer(
             MsgType message,
             MessageType messageType,
             CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise,
             ExpirationDate expirationTime
+    ) {
+        this(message, messageType, promise, expirationTime, SendOptions.defaults());
+    }
+
+    public MessageContainer(
+            MsgType message,
+            MessageType messageType,
+            CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise,
+            ExpirationDate expirationTime,
+            SendOptions options
     ) {
         this.creationDate = new Date();
         this.message = message;
         this.promise = promise;
         this.messageType = messageType;
         this.expirationTime = expirationTime;
+        this.options = options;
+    }
+
+    /**
+     * Container of the message which is built only when it is going to be sent
+     */
+    static <MsgType, ReturnType> MessageContainer<MsgType, ReturnType> lazy(
+            Supplier<? extends MsgType> messageSupplier,
+            MessageType messageType,
+            CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise,
+            ExpirationDate expirationTime,
+            SendOptions options
+    ) {
+        MessageContainer<MsgType, ReturnType> container =
+                new MessageContainer<>(null, messageType, promise, expirationTime, options);
+        container.messageSupplier = messageSupplier;
+        return container;
+    }
+
+    boolean isBuilt() {
+        return messageSupplier == null;
+    }
+
+    /**
+     * Call the supplier of lazy message, built message is not changed
+     */
+    void build() {
+        Supplier<? extends MsgType> supplier = messageSupplier;
+        if (supplier != null) {
+            message = Objects.requireNonNull(supplier.get(), "Message supplier returned null");
+            messageSupplier = null;
+        }
+    }
+
+    /**
+     * Supplier of the message which does not build lazy message
+     */
+    Supplier<? extends MsgType> lazyMessage() {
+        Supplier<? extends MsgType> supplier = messageSupplier;
+        if (supplier != null) {
+            return supplier;
+        }
+        MsgType built = message;
+        return () -> built;
+    }
+
+    /**
+     * Make the message lazy, e.g. when a lazy message is merged into it
+     */
+    void setMessageSupplier(Supplier<? extends MsgType> messageSupplier) {
+        this.messageSupplier = messageSupplier;
+        this.message = null;
+    }
+
+    int incrementAttempts() {
+        return ++attempts;
+    }
+
+    /**
+     * Since when the message waits in the buffer: delayed message is buffered at its not before time
+     */
+    long getBufferedSinceMs() {
+        long creationMs = creationDate.getTime();
+        Instant notBefore = options.getNotBefore();
+        return notBefore == null ? creationMs : Math.max(creationMs, notBefore.toEpochMilli());
     }
 
     public boolean isExpired() {
@@ -0,0 +1,18 @@
+package ru.fix.multiplexer;
+
+/**
+ * CPU-heavy part of sending a message, e.g. serialization, encoding or signing, which is done
+ * before the output channel receives the message. Called once per message, on the preparation executor
+ * if it is set
+ *
+ * @see MultiplexerWithPriority#setPreparer(MessagePreparer)
+ * @see MultiplexerWithPriority#setPreparationExecutor(java.util.concurrent.Executor, int)
+ */
+@FunctionalInterface
+public interface MessagePreparer<MsgType> {
+
+    /**
+     * @return message which is sent to the channel instead of {@code message}, not {@code null}
+     */
+    MsgType prepare(MsgType message);
+}
@@ -0,0 +1,79 @@
+package ru.fix.multiplexer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts dispatched and expired messages of every type and keeps recent queue waits of dispatched messages
+ */
+class MessageTypeStatistics {
+
+    /**
+     * How many recent queue waits are kept for every type
+     */
+    static final int WAIT_SAMPLES = 1024;
+
+    private final ConcurrentMap<MessageType, TypeCounters> counters = new ConcurrentHashMap<>();
+
+    public void onDispatched(MessageType messageType, long queueWaitMs) {
+        TypeCounters typeCounters = countersOf(messageType);
+        typeCounters.dispatched.increment();
+        long index = typeCounters.recordedWaits.getAndIncrement();
+        typeCounters.waits.set((int) (index % WAIT_SAMPLES), queueWaitMs);
+    }
+
+    public void onExpired(MessageType messageType) {
+        countersOf(messageType).expired.increment();
+    }
+
+    public long dispatched(MessageType messageType) {
+        return countersOf(messageType).dispatched.sum();
+    }
+
+    public long expired(MessageType messageType) {
+        return countersOf(messageType).expired.sum();
+    }
+
+    /**
+     * Count of queue waits recorded since creation, use it as a mark for {@link #waitPercentileSince}
+     */
+    public long recordedWaits(MessageType messageType) {
+        return countersOf(messageType).recordedWaits.get();
+    }
+
+    /**
+     * Percentile of queue waits recorded after {@code mark}, only the last {@link #WAIT_SAMPLES} waits are used
+     *
+     * @return percentile in milliseconds or -1 if there is no recorded wait
+     */
+    public long waitPercentileSince(MessageType messageType, long mark, double percentile) {
+        TypeCounters typeCounters = countersOf(messageType);
+        long recorded = typeCounters.recordedWaits.get();
+        int count = (int) Math.min(recorded - mark, WAIT_SAMPLES);
+        if (count <= 0) {
+            return -1;
+        }
+        long[] samples = new long[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = typeCounters.waits.get((int) ((recorded - 1 - i) % WAIT_SAMPLES));
+        }
+        Arrays.sort(samples);
+        int position = (int) Math.ceil(percentile * count) - 1;
+        return samples[Math.max(0, Math.min(position, count - 1))];
+    }
+
+    private TypeCounters countersOf(MessageType messageType) {
+        return counters.computeIfAbsent(messageType, type -> new TypeCounters());
+    }
+
+    private static class TypeCounters {
+        final LongAdder dispatched = new LongAdder();
+        final LongAdder expired = new LongAdder();
+        final AtomicLong recordedWaits = new AtomicLong();
+        final AtomicLongArray waits = new AtomicLongArray(WAIT_SAMPLES);
+    }
+}
@@ -22,6 +22,13 @@ public class MultiplexedMessageSendingResult<ReceivedResult> {
         return new MultiplexedMessageSendingResult<>(Status.NOT_SENT_SHUTTING_DOWN, null);
     }
 
+    /**
+     * Message was not accepted because it could not be sent before its expiration or its type is shed
+     */
+    public static <T> MultiplexedMessageSendingResult<T> rejected() {
+        return new MultiplexedMessageSendingResult<>(Status.REJECTED, null);
+    }
+
     public ReceivedResult getResult() {
         return result;
     }
@@ -33,6 +40,7 @@ public class MultiplexedMessageSendingResult<ReceivedResult> {
     public enum Status {
         SENT,
         NOT_SENT,
-        NOT_SENT_SHUTTING_DOWN
+        NOT_SENT_SHUTTING_DOWN,
+        REJECTED
     }
 }
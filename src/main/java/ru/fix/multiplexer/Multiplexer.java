@@ -9,6 +9,16 @@ public interface Multiplexer<MsgType, ReturnType> extends
 
     int countMessagesWaitingToProcessing();
 
+    /**
+     * Atomically apply new settings to running multiplexer.
+     * Buffered and in flight messages are preserved, messages of removed types are still sent.
+     *
+     * @throws UnsupportedOperationException if the multiplexer can not be reconfigured
+     */
+    default void reconfigure(MultiplexerConfig multiplexerConfig) {
+        throw new UnsupportedOperationException(getClass().getName() + " can not be reconfigured");
+    }
+
     /**
      * Submit shutdown request. The method doesn't wait multiplexer's shutdown.
      * Previously submitted tasks are executed, but no new tasks will be accepted.
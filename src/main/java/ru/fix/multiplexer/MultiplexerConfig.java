@@ -1,6 +1,8 @@
 package ru.fix.multiplexer;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -20,6 +22,141 @@ public interface MultiplexerConfig {
         return 300;
     }
 
+    /**
+     * Максимальное количество одновременно отправляемых в канал (еще не завершенных каналом) сообщений каждого типа.
+     * Типы, отсутствующие в настройке, не ограничены
+     */
+    default Map<MessageType, Integer> inFlightLimits() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Количество слотов канала, зарезервированных за типом сообщения. Остальные типы не могут занять эти слоты,
+     * даже если они свободны. Например, для резервирования 10% канала емкостью 50 под OTP сообщения
+     * нужно указать 5 слотов. Требует {@link #getChannelCapacity()}
+     */
+    default Map<MessageType, Integer> reservedSlots() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Общее количество сообщений, которое может одновременно находиться в канале.
+     * {@code null} - емкость канала определяется только {@link MultiplexerOutputChannel#hasFreeSlot()}
+     */
+    default Integer getChannelCapacity() {
+        return null;
+    }
+
+    /**
+     * Целевые значения времени ожидания сообщений в буфере. Веса типов с целевыми значениями
+     * будут автоматически подстраиваться в заданных границах
+     */
+    default Map<MessageType, SlaTarget> slaTargets() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Интервал подстройки весов по {@link #slaTargets()} в миллисекундах
+     */
+    default long getWeightTuningInterval() {
+        return 1_000L;
+    }
+
+    /**
+     * Время затухания статистики отправленных сообщений в миллисекундах. Если задано, доли типов считаются
+     * по экспоненциально затухающим счетчикам ({@link ru.fix.multiplexer.priority.DecayingShareRecommender}).
+     * {@code null} - доли считаются по последним отправленным сообщениям в окне размером с сумму весов
+     * ({@link ru.fix.multiplexer.priority.StatisticStorageRecommender})
+     */
+    default Long getShareDecayHorizon() {
+        return null;
+    }
+
+    /**
+     * Отклонять ли сообщения, которые не успеют отправиться до истечения {@link ExpirationDate}.
+     * Ожидаемое время в буфере оценивается по количеству сообщений типа в буфере и скорости их отправки
+     */
+    default boolean isAdmissionControlEnabled() {
+        return false;
+    }
+
+    /**
+     * Низкоприоритетные типы, которые перестают приниматься и отправляться, пока канал перегружен
+     *
+     * @see #getSaturationWaitThreshold()
+     */
+    default Set<MessageType> sheddableTypes() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Канал считается перегруженным, если ожидаемое время в буфере одного из типов, не входящих
+     * в {@link #sheddableTypes()}, больше этого значения в миллисекундах. Перегрузка заканчивается,
+     * когда ожидаемое время всех таких типов становится меньше половины этого значения
+     */
+    default long getSaturationWaitThreshold() {
+        return 1_000L;
+    }
+
+    /**
+     * Максимальный суммарный вес сообщений в мультиплексоре: в буфере, в ожидании повторной отправки
+     * и в канале. Вес считает {@link Weigher}, заданный в {@link MultiplexerWithPriority#setWeigher(Weigher)}.
+     * Сообщения сверх лимита отклоняются. {@code null} - вес не ограничен
+     */
+    default Long getBufferWeightLimit() {
+        return null;
+    }
+
+    /**
+     * Максимальный суммарный вес сообщений каждого типа, аналогично {@link #getBufferWeightLimit()}.
+     * Типы, отсутствующие в настройке, не ограничены
+     */
+    default Map<MessageType, Long> bufferWeightLimits() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Политики повторной отправки сообщений, которые канал завершил с ошибкой.
+     * Сообщения типов, отсутствующих в настройке, не отправляются повторно
+     */
+    default Map<MessageType, RetryPolicy> retryPolicies() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Количество ошибок канала подряд, после которого сообщения перестают отправляться в канал
+     * на {@link #getCircuitBreakerOpenInterval()}. {@code null} - отправка не прекращается
+     */
+    default Integer getCircuitBreakerFailureThreshold() {
+        return null;
+    }
+
+    /**
+     * Через сколько миллисекунд после срабатывания {@link #getCircuitBreakerFailureThreshold()} в канал
+     * отправляется пробное сообщение. Если оно отправлено успешно, отправка возобновляется
+     */
+    default long getCircuitBreakerOpenInterval() {
+        return 5_000L;
+    }
+
+    /**
+     * Через сколько миллисекунд без сообщений в буфере удаляется состояние тенанта
+     *
+     * @see SendOptions#withTenant(Object)
+     */
+    default long getTenantIdleTimeout() {
+        return 60_000L;
+    }
+
+    /**
+     * Регистрировать ли JMX MBean для изменения настроек мультиплексора во время работы
+     *
+     * @see MultiplexerControlMBean
+     */
+    default boolean isJmxEnabled() {
+        return false;
+    }
+
     default String getName() {
         return "multiplexer " + UUID.randomUUID();
     }
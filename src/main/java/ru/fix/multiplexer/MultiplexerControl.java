@@ -0,0 +1,115 @@
+package ru.fix.multiplexer;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * JMX MBean which changes settings of {@link MultiplexerWithPriority}
+ */
+public class MultiplexerControl implements MultiplexerControlMBean {
+
+    private final MultiplexerWithPriority<?, ?> multiplexer;
+
+    public MultiplexerControl(MultiplexerWithPriority<?, ?> multiplexer) {
+        this.multiplexer = multiplexer;
+    }
+
+    @Override
+    public String getRegisteredMessages() {
+        return config().registeredMessages().toString();
+    }
+
+    @Override
+    public void setWeight(String messageType, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive, but was " + weight);
+        }
+        update(config -> config.withWeight(new MessageType(messageType), weight));
+    }
+
+    @Override
+    public void removeMessageType(String messageType) {
+        update(config -> config.withoutMessageType(new MessageType(messageType)));
+    }
+
+    @Override
+    public int getSendingWaitingInterval() {
+        return config().getSendingWaitingInterval();
+    }
+
+    @Override
+    public void setSendingWaitingInterval(int sendingWaitingInterval) {
+        if (sendingWaitingInterval <= 0) {
+            throw new IllegalArgumentException("Waiting interval must be positive, but was " + sendingWaitingInterval);
+        }
+        update(config -> config.withSendingWaitingInterval(sendingWaitingInterval));
+    }
+
+    @Override
+    public String getInFlightLimits() {
+        return config().inFlightLimits().toString();
+    }
+
+    @Override
+    public void setInFlightLimit(String messageType, int limit) {
+        update(config -> config.withInFlightLimit(new MessageType(messageType), limit));
+    }
+
+    @Override
+    public String getReservedSlots() {
+        return config().reservedSlots().toString();
+    }
+
+    @Override
+    public void setReservedSlots(String messageType, int slots) {
+        update(config -> config.withReservedSlots(new MessageType(messageType), slots));
+    }
+
+    @Override
+    public int getChannelCapacity() {
+        Integer channelCapacity = config().getChannelCapacity();
+        return channelCapacity == null ? -1 : channelCapacity;
+    }
+
+    @Override
+    public void setChannelCapacity(int channelCapacity) {
+        update(config -> config.withChannelCapacity(channelCapacity > 0 ? channelCapacity : null));
+    }
+
+    @Override
+    public int getBufferSize() {
+        return multiplexer.countMessagesWaitingToProcessing();
+    }
+
+    @Override
+    public void pauseMessageType(String messageType) {
+        multiplexer.pauseMessageType(new MessageType(messageType));
+    }
+
+    @Override
+    public void shedMessageType(String messageType) {
+        multiplexer.shedMessageType(new MessageType(messageType));
+    }
+
+    @Override
+    public void resumeMessageType(String messageType) {
+        multiplexer.resumeMessageType(new MessageType(messageType));
+    }
+
+    @Override
+    public String getPausedMessageTypes() {
+        return multiplexer.getPausedMessageTypes().toString();
+    }
+
+    @Override
+    public long getCollapsedRequests() {
+        return multiplexer.getCollapsedRequestCount();
+    }
+
+    private ImmutableMultiplexerConfig config() {
+        return new ImmutableMultiplexerConfig(multiplexer.getMultiplexerConfig());
+    }
+
+    private void update(UnaryOperator<ImmutableMultiplexerConfig> change) {
+        multiplexer.updateConfig(config -> change.apply(new ImmutableMultiplexerConfig(config)), true);
+    }
+}
@@ -0,0 +1,77 @@
+package ru.fix.multiplexer;
+
+/**
+ * JMX interface for changing settings of running multiplexer.
+ * Every change is applied atomically, buffered and in flight messages are preserved.
+ *
+ * @see MultiplexerConfig#isJmxEnabled()
+ */
+public interface MultiplexerControlMBean {
+
+    /**
+     * Registered types with their priorities, e.g. {@code {otp=10, bulk=1}}
+     */
+    String getRegisteredMessages();
+
+    /**
+     * Register new type or change priority of registered one
+     */
+    void setWeight(String messageType, int weight);
+
+    /**
+     * Stop accepting messages of the type, already buffered messages will be sent
+     */
+    void removeMessageType(String messageType);
+
+    int getSendingWaitingInterval();
+
+    void setSendingWaitingInterval(int sendingWaitingInterval);
+
+    String getInFlightLimits();
+
+    /**
+     * @param limit not positive value removes the limit
+     */
+    void setInFlightLimit(String messageType, int limit);
+
+    String getReservedSlots();
+
+    /**
+     * @param slots not positive value removes the reservation
+     */
+    void setReservedSlots(String messageType, int slots);
+
+    /**
+     * @return channel capacity or -1 if it is not limited
+     */
+    int getChannelCapacity();
+
+    /**
+     * @param channelCapacity not positive value removes the limit
+     */
+    void setChannelCapacity(int channelCapacity);
+
+    int getBufferSize();
+
+    /**
+     * Stop sending messages of the type, new messages are buffered
+     */
+    void pauseMessageType(String messageType);
+
+    /**
+     * Stop sending messages of the type and reject new ones
+     */
+    void shedMessageType(String messageType);
+
+    void resumeMessageType(String messageType);
+
+    /**
+     * Types paused or shed manually
+     */
+    String getPausedMessageTypes();
+
+    /**
+     * How many messages have been attached to identical requests instead of being sent
+     */
+    long getCollapsedRequests();
+}
@@ -2,6 +2,7 @@ package ru.fix.multiplexer;
 
 import java.util.Date;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * Input Multiplexer Channel. Allows to send some messages to OutputChannel
@@ -21,4 +22,38 @@ public interface MultiplexerInput<MsgType, ReturnType> {
             MessageType messageType,
             Date expirationDate
     );
+
+    /**
+     * Send message with additional {@link SendOptions}.
+     * Implementations which do not support options send the message as is.
+     */
+    default CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            MsgType msg,
+            MessageType messageType,
+            ExpirationDate expirationDate,
+            SendOptions options
+    ) {
+        return send(msg, messageType, expirationDate);
+    }
+
+    /**
+     * Send message which is built by {@code msgSupplier} only when it is going to be sent.
+     * Implementations which do not support lazy messages build the message at once.
+     */
+    default CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            Supplier<? extends MsgType> msgSupplier,
+            MessageType messageType,
+            ExpirationDate expirationDate
+    ) {
+        return send(msgSupplier, messageType, expirationDate, SendOptions.defaults());
+    }
+
+    default CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            Supplier<? extends MsgType> msgSupplier,
+            MessageType messageType,
+            ExpirationDate expirationDate,
+            SendOptions options
+    ) {
+        return send(msgSupplier.get(), messageType, expirationDate, options);
+    }
 }
@@ -2,16 +2,35 @@ package ru.fix.multiplexer;
 
 import lombok.extern.slf4j.Slf4j;
 import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.capture.CapturedMessage;
+import ru.fix.multiplexer.capture.TrafficCapture;
 import ru.fix.multiplexer.exception.MessageSendingException;
+import ru.fix.multiplexer.priority.DecayingShareRecommender;
+import ru.fix.multiplexer.priority.Recommender;
 import ru.fix.multiplexer.priority.StatisticStorageRecommender;
+import ru.fix.multiplexer.routing.RoutingConfig;
+import ru.fix.multiplexer.routing.RoutingOutputChannel;
 import ru.fix.commons.profiler.Profiler;
 import ru.fix.stdlib.concurrency.threads.NamedExecutors;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Предназначение MultiplexerWithPriority'а - в случае ограничения ширины исходящего канала буферезировать входящие
@@ -24,10 +43,53 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer<MsgType, ReturnType> {
 
     private static final long SHUTDOWN_MAX_AWAITING_TIME = 60_000L;
+    /**
+     * Decay horizon of unit counters if {@link MultiplexerConfig#getShareDecayHorizon()} is not set
+     */
+    private static final long COST_DECAY_HORIZON_MS = 10_000L;
 
     private final MultiplexerOutputChannel<MsgType, ReturnType> outputChannel;
-    private final Buffer<MsgType, ReturnType> buffer;
-    private final StatisticStorageRecommender recommender;
+    /**
+     * Same as {@link #outputChannel} if it pushes capacity notifications, otherwise {@code null}
+     */
+    private final CapacityNotifyingOutputChannel<MsgType, ReturnType> capacityNotifyingChannel;
+    private final TenantScheduler<MsgType, ReturnType> buffer;
+    private final InFlightLimiter inFlightLimiter;
+    private final MessageTypeStatistics statistics = new MessageTypeStatistics();
+    private final SlaWeightController weightController;
+    private final AdmissionController admissionController;
+    private final CircuitBreaker circuitBreaker;
+    /**
+     * Failed messages waiting for backoff before the next attempt
+     */
+    private final ParkedMessages<MsgType, ReturnType> retries = new ParkedMessages<>();
+    /**
+     * Messages waiting for {@link SendOptions#getNotBefore()}
+     */
+    private final ParkedMessages<MsgType, ReturnType> delayed = new ParkedMessages<>();
+    /**
+     * Messages attached to identical requests in flight, due at their expiration time
+     */
+    private final ParkedMessages<MsgType, ReturnType> followers = new ParkedMessages<>();
+    private final Random retryJitter = new Random();
+    /**
+     * Ordering keys of messages sent to the channel and not completed yet
+     */
+    private final Set<Object> orderingKeysInFlight = ConcurrentHashMap.newKeySet();
+    private volatile TrafficCapture<? super MsgType> trafficCapture;
+    private final BufferWeight bufferWeight = new BufferWeight();
+    private volatile Weigher<? super MsgType> weigher;
+    private volatile CostFunction<? super MsgType> costFunction;
+    private final CoalescingIndex<MsgType, ReturnType> coalescing = new CoalescingIndex<>(bufferWeight);
+    private final SingleFlight<ReturnType> singleFlight = new SingleFlight<>();
+    private final ConcurrentMap<MessageType, BinaryOperator<MsgType>> mergeFunctions = new ConcurrentHashMap<>();
+    private volatile MessagePreparer<MsgType> preparer;
+    private volatile Executor preparationExecutor;
+    private volatile int maxPreparing;
+    /**
+     * Dispatched messages which are prepared on {@link #preparationExecutor} and wait for the channel
+     */
+    private final PrefetchWindow<MsgType, ReturnType> window = new PrefetchWindow<>();
 
     /**
      * Нормальное название класса поможет в отладке нам
@@ -35,13 +97,36 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
     private static final class Lock {}
 
     private final Lock workerNotifyFlag = new Lock();
+    /**
+     * Notification was received while worker was busy. Guarded by {@link #workerNotifyFlag}
+     */
+    private boolean workerNotified;
+    /**
+     * Worker is about to wait for a notification, so buffered message must wake it up
+     */
+    private volatile boolean workerWaiting;
     private final ExecutorService worker;
-    private final MultiplexerConfig multiplexerConfig;
+    /**
+     * Settings are replaced and the worker sends every message under this lock,
+     * so each message is sent either with old or with new settings
+     */
+    private final Lock configurationLock = new Lock();
+    private volatile MultiplexerConfig multiplexerConfig;
+    private ObjectName mBeanName;
 
     private final String name;
     private final Profiler profiler;
 
     private volatile State state = State.ACTIVE;
+    /**
+     * {@link System#nanoTime()} until which buffered messages are sent in {@link State#SHUTDOWN} state,
+     * {@code null} if the worker stops as soon as the channel is full
+     */
+    private volatile Long drainDeadlineNanos;
+    /**
+     * Receives new messages and messages left after the drain, see {@link #handOff}
+     */
+    private volatile MultiplexerInput<MsgType, ReturnType> successor;
 
     public static <MsgType, ReturnType> Multiplexer<MsgType, ReturnType> createInstance(
             final String name,
@@ -56,6 +141,24 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
         return multiplexer;
     }
 
+    /**
+     * Создание мультиплексера, который распределяет сообщения между несколькими взаимозаменяемыми каналами
+     * с общим буфером приоритетов
+     *
+     * @see RoutingOutputChannel
+     */
+    public static <MsgType, ReturnType> Multiplexer<MsgType, ReturnType> createInstance(
+            final String name,
+            final List<? extends MultiplexerOutputChannel<MsgType, ReturnType>> outputChannels,
+            final RoutingConfig routingConfig,
+            final MultiplexerConfig multiplexerConfig,
+            final Profiler profiler
+    ) {
+        return createInstance(
+                name, new RoutingOutputChannel<>(outputChannels, routingConfig), multiplexerConfig, profiler
+        );
+    }
+
     public static <MsgType, ReturnType> Multiplexer<MsgType, ReturnType> createInstance(
             final String name,
             final MultiplexerOutputChannel<MsgType, ReturnType> outputChannel,
@@ -90,11 +193,19 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
         }
         this.multiplexerConfig = multiplexerConfig;
 
-        buffer = new Buffer<>(name + ".buffer", profiler);
+        buffer = new TenantScheduler<>(
+                name + ".buffer", profiler, multiplexerConfig, this::createRecommender, System::currentTimeMillis
+        );
 
         this.name = name;
         this.outputChannel = outputChannel;
-        this.recommender = new StatisticStorageRecommender(multiplexerConfig.registeredMessages());
+        this.capacityNotifyingChannel = outputChannel instanceof CapacityNotifyingOutputChannel
+                ? (CapacityNotifyingOutputChannel<MsgType, ReturnType>) outputChannel
+                : null;
+        this.inFlightLimiter = new InFlightLimiter(multiplexerConfig);
+        this.weightController = new SlaWeightController(name, profiler, statistics, this);
+        this.admissionController = new AdmissionController(name, statistics);
+        this.circuitBreaker = new CircuitBreaker(name, System::currentTimeMillis);
         log.info("Multiplexer '{}' has been created. Registered types are: {}",
                 name,
                 Arrays.toString(multiplexerConfig.registeredMessages().entrySet().toArray())
@@ -103,13 +214,130 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
         //attach profilerMultiplexer has been created
         this.profiler = profiler;
         this.profiler.attachIndicator(name + ".buffer_size", () -> (long) countMessagesWaitingToProcessing());
+        this.profiler.attachIndicator(name + ".retained_weight", bufferWeight::retained);
 
         // create thread sending messages to channel
         worker = NamedExecutors.newSingleThreadPool(name, profiler);
     }
 
+    private Recommender createRecommender(Map<MessageType, Integer> registeredMessages) {
+        Long shareDecayHorizon = multiplexerConfig.getShareDecayHorizon();
+        if (shareDecayHorizon == null && costFunction == null) {
+            return new StatisticStorageRecommender(registeredMessages);
+        }
+        // window recommender counts messages, so costs require counters of units
+        return new DecayingShareRecommender(
+                registeredMessages, shareDecayHorizon != null ? shareDecayHorizon : COST_DECAY_HORIZON_MS
+        );
+    }
+
+    /**
+     * Record every completed message, {@code null} disables the capture
+     *
+     * @see ru.fix.multiplexer.capture.MappedTrafficCapture
+     */
+    public void setTrafficCapture(TrafficCapture<? super MsgType> trafficCapture) {
+        this.trafficCapture = trafficCapture;
+    }
+
+    /**
+     * Weigh every new message to enforce {@link MultiplexerConfig#getBufferWeightLimit()} and
+     * {@link MultiplexerConfig#bufferWeightLimits()}, {@code null} makes all messages weightless.
+     * Merged message is weighed again. Lazy message is weighed when it is built: it is not rejected itself,
+     * but its weight counts against the limits for new messages
+     */
+    public void setWeigher(Weigher<? super MsgType> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * Account messages in channel units: weights of types become shares of channel capacity and
+     * {@link MultiplexerConfig#inFlightLimits()}, {@link MultiplexerConfig#reservedSlots()} and
+     * {@link MultiplexerConfig#getChannelCapacity()} count units instead of messages.
+     * The cost is taken when a message is sent, so a new function applies to messages sent after it.
+     * Shares are counted by {@link DecayingShareRecommender}, with {@link MultiplexerConfig#getShareDecayHorizon()}
+     * if it is set. Recommenders of existing tenants are replaced, so their statistics start again
+     */
+    public void setCostFunction(CostFunction<? super MsgType> costFunction) {
+        synchronized (configurationLock) {
+            this.costFunction = costFunction;
+            buffer.replaceRecommenders();
+        }
+    }
+
+    /**
+     * Merge message with a coalescing key into the buffered message of the type with the same key,
+     * {@code null} restores the default: the new message replaces the buffered one
+     *
+     * @param mergeFunction receives buffered and new messages and returns the merged one
+     * @see SendOptions#withCoalescingKey(Object)
+     */
+    public void setMergeFunction(MessageType messageType, BinaryOperator<MsgType> mergeFunction) {
+        if (mergeFunction == null) {
+            mergeFunctions.remove(messageType);
+        } else {
+            mergeFunctions.put(messageType, mergeFunction);
+        }
+    }
+
+    /**
+     * Process every message before it is sent to the channel, {@code null} sends messages as they are
+     *
+     * @see #setPreparationExecutor(Executor, int)
+     */
+    public void setPreparer(MessagePreparer<MsgType> preparer) {
+        this.preparer = preparer;
+    }
+
+    /**
+     * Pipeline sending: the worker chooses next messages ahead of the channel, {@code executor} builds lazy messages
+     * and applies {@link MessagePreparer} to them in parallel, and the worker only sends prepared messages
+     * to the channel in the order they were chosen. Chosen messages take in flight limits and ordering keys,
+     * messages expired before sending are not prepared and not sent.
+     * {@code null} makes the worker prepare every message right before sending it
+     *
+     * @param maxPreparing how many chosen messages may be being prepared or wait for the channel at once.
+     *                     When there are that many, the worker chooses the next message only after one of them
+     *                     is sent
+     * @see #send(Supplier, MessageType, ExpirationDate, SendOptions)
+     */
+    public void setPreparationExecutor(Executor executor, int maxPreparing) {
+        if (executor != null && maxPreparing <= 0) {
+            throw new IllegalArgumentException("Max preparing messages must be positive, but was " + maxPreparing);
+        }
+        this.maxPreparing = maxPreparing;
+        this.preparationExecutor = executor;
+        onOutputChannelHasFreeSlot();
+    }
+
+    /**
+     * How many messages have been attached to identical requests instead of being sent
+     *
+     * @see SendOptions#withRequestKey(Object)
+     */
+    public long getCollapsedRequestCount() {
+        return singleFlight.getCollapsedCount();
+    }
+
+    /**
+     * Weight of messages which are buffered, wait for retry or are sent to the channel and not completed yet
+     */
+    public long getRetainedWeight() {
+        return bufferWeight.retained();
+    }
+
+    public long getRetainedWeight(MessageType messageType) {
+        return bufferWeight.retained(messageType);
+    }
+
     public void start() {
-        worker.submit(new Worker(multiplexerConfig.getSendingWaitingInterval()));
+        if (capacityNotifyingChannel != null) {
+            capacityNotifyingChannel.addCapacityListener(this);
+        }
+        if (multiplexerConfig.isJmxEnabled()) {
+            registerMBean();
+        }
+        worker.submit(new Worker());
         worker.shutdown(); // when main loop is terminated we can shutdown it
     }
 
@@ -126,30 +354,89 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
     @Override
     public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
             MsgType msg, MessageType messageType, ExpirationDate expirationTime
+    ) {
+        return send(msg, messageType, expirationTime, SendOptions.defaults());
+    }
+
+    /**
+     * Send some message with additional options to multiplexed channel
+     *
+     * @see SendOptions
+     */
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            MsgType msg, MessageType messageType, ExpirationDate expirationTime, SendOptions options
     ) {
         Objects.requireNonNull(msg, "Message must be present");
+        return submit(new MessageContainer<>(msg, messageType, new CompletableFuture<>(), expirationTime, options));
+    }
+
+    /**
+     * Send message which is built by {@code msgSupplier} only when it is going to be sent to the channel,
+     * so messages expired in the buffer never pay for building.
+     * Supplier is called once on the worker or on the preparation executor, see {@link #setPreparationExecutor}.
+     * Its failure completes the promise exceptionally.
+     * Lazy message is weighed by {@link Weigher} and its cost is calculated after building
+     */
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            Supplier<? extends MsgType> msgSupplier, MessageType messageType, ExpirationDate expirationTime
+    ) {
+        return send(msgSupplier, messageType, expirationTime, SendOptions.defaults());
+    }
+
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            Supplier<? extends MsgType> msgSupplier,
+            MessageType messageType,
+            ExpirationDate expirationTime,
+            SendOptions options
+    ) {
+        Objects.requireNonNull(msgSupplier, "Message supplier must be present");
+        return submit(MessageContainer.lazy(msgSupplier, messageType, new CompletableFuture<>(), expirationTime, options));
+    }
+
+    private CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> submit(
+            MessageContainer<MsgType, ReturnType> message
+    ) {
+        MessageType messageType = message.getMessageType();
         Objects.requireNonNull(messageType, "MessageType must be presented");
-        if (!recommender.typeIsRegistered(messageType)) {
+        Objects.requireNonNull(message.getOptions(), "SendOptions must be presented");
+        MultiplexerInput<MsgType, ReturnType> currentSuccessor = successor;
+        if (currentSuccessor != null) {
+            return forward(message, currentSuccessor);
+        }
+        Map<MessageType, Integer> registeredMessages = multiplexerConfig.registeredMessages();
+        if (!registeredMessages.containsKey(messageType)) {
             throw new IllegalArgumentException(String.format("Sent message with type %s does not registered. " +
-                    "Registered types are %s", messageType, recommender));
+                    "Registered types are %s", messageType, registeredMessages));
         }
 
         CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise;
         State curState = state;
         switch (curState) {
             case ACTIVE:
-                promise = new CompletableFuture<>();
-                buffer.add(new MessageContainer<>(msg, messageType, promise, expirationTime));
-
-                // we do not need to await it
-                promise.thenRun(this::onOutputChannelHasFreeSlot);
+                promise = accept(message);
                 break;
             case SHUTDOWN:
+                currentSuccessor = successor;
+                if (currentSuccessor != null) {
+                    // hand off started after the first check
+                    return forward(message, currentSuccessor);
+                }
+                if (drainDeadlineNanos != null) {
+                    // producers are expected to keep sending until the drain is over
+                    log.debug("submitting send task while multiplexer drains buffered messages");
+                } else {
+                    log.warn("submitting send task while multiplexer in '{}' state," +
+                            " check shutdown order", curState);
+                }
+                promise = rejectShuttingDown(message);
+                break;
             case FORCE_SHUTDOWN:
                 log.warn("submitting send task while multiplexer in '{}' state," +
                         " check shutdown order", curState);
-                // rejecting new tasks
-                promise = CompletableFuture.completedFuture(MultiplexedMessageSendingResult.notSentShuttingDown());
+                promise = rejectShuttingDown(message);
                 break;
             default:
                 log.error("submitting send task, but unknown multiplexer state '{}'", curState);
@@ -159,6 +446,101 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
         return promise;
     }
 
+    /**
+     * Reject new message after shutdown
+     */
+    private CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> rejectShuttingDown(
+            MessageContainer<MsgType, ReturnType> message
+    ) {
+        capture(message, -1, CapturedMessage.Outcome.NOT_SENT_SHUTTING_DOWN);
+        return CompletableFuture.completedFuture(MultiplexedMessageSendingResult.notSentShuttingDown());
+    }
+
+    /**
+     * Collapse, merge or buffer message in {@link State#ACTIVE} state
+     */
+    private CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> accept(
+            MessageContainer<MsgType, ReturnType> message
+    ) {
+        CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise = message.getPromise();
+        MessageType messageType = message.getMessageType();
+        SendOptions options = message.getOptions();
+        if (options.getRequestKey() != null) {
+            CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> leader =
+                    singleFlight.join(messageType, options, promise);
+            if (leader != null) {
+                log.trace("Message {} is attached to the request with key {}", message, options.getRequestKey());
+                profiler.call(name + ".request_collapsed");
+                capture(message, -1, CapturedMessage.Outcome.MERGED);
+                leader.whenComplete(completeWith(promise));
+                // follower may expire before the request it is attached to
+                followers.park(message, message.getExpirationTime().getTime());
+                // worker waits until the nearest follower expires
+                onOutputChannelHasFreeSlot();
+                return promise;
+            }
+        }
+        long notBeforeMs = options.getNotBefore() == null ? 0 : options.getNotBefore().toEpochMilli();
+        boolean isDelayed = notBeforeMs > System.currentTimeMillis();
+        if (isDelayed && message.getExpirationTime().getTime() <= notBeforeMs) {
+            // expires before it can be sent
+            completeExpired(message);
+            return promise;
+        }
+        if (options.getCoalescingKey() != null && !isDelayed) {
+            MessageContainer<MsgType, ReturnType> target = coalescing.merge(
+                    message,
+                    mergeFunctions.getOrDefault(messageType, (buffered, newer) -> newer),
+                    this::cost,
+                    this::weigh
+            );
+            if (target != null) {
+                log.trace("Message {} is merged into buffered message with coalescing key {}",
+                        message, options.getCoalescingKey());
+                profiler.call(name + ".message_coalesced");
+                capture(message, -1, CapturedMessage.Outcome.MERGED);
+                target.getPromise().whenComplete(completeWith(promise));
+                return promise;
+            }
+        }
+        if (!admissionController.admit(messageType, message.getExpirationTime(), multiplexerConfig)) {
+            log.trace("Message {} is rejected, estimated wait {} ms",
+                    message, admissionController.estimatedWaitMs(messageType));
+            profiler.call(name + ".message_rejected");
+            capture(message, -1, CapturedMessage.Outcome.REJECTED);
+            promise.complete(MultiplexedMessageSendingResult.rejected());
+            return promise;
+        }
+        // lazy message takes one unit until it is built
+        int cost = message.isBuilt() ? cost(message.getMessage()) : 1;
+        long weight = message.isBuilt() ? weigh(message.getMessage()) : 0;
+        if (!bufferWeight.tryAcquire(messageType, weight, multiplexerConfig)) {
+            log.trace("Message {} with weight {} is rejected, retained weight {}",
+                    message, weight, bufferWeight.retained());
+            profiler.call(name + ".message_rejected_by_weight");
+            capture(message, -1, CapturedMessage.Outcome.REJECTED);
+            promise.complete(MultiplexedMessageSendingResult.rejected());
+            return promise;
+        }
+        message.setWeight(weight);
+        // weight changes while the message is merged or built
+        promise.whenComplete((result, error) -> bufferWeight.release(messageType, message.getWeight()));
+        message.setCost(cost);
+        if (isDelayed) {
+            delayed.park(message, notBeforeMs);
+            // worker waits until the nearest parked message is due
+            onOutputChannelHasFreeSlot();
+        } else {
+            enqueue(message);
+        }
+
+        if (capacityNotifyingChannel == null) {
+            // we do not need to await it
+            promise.thenRun(this::onOutputChannelHasFreeSlot);
+        }
+        return promise;
+    }
+
     @Override
     public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
             MsgType msg, MessageType messageType, Date expirationDate
@@ -166,38 +548,314 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
         return send(msg, messageType, ExpirationDate.expiresOn(expirationDate.toInstant()));
     }
 
+    private void enqueue(MessageContainer<MsgType, ReturnType> message) {
+        admissionController.onBuffered(message.getMessageType());
+        // registered before the worker can poll it, so merges never change a sent message
+        coalescing.register(message);
+        buffer.add(message);
+        if (workerWaiting) {
+            // otherwise short living message may expire while the worker waits for the channel
+            onOutputChannelHasFreeSlot();
+        }
+    }
+
+    private static <T> BiConsumer<T, Throwable> completeWith(CompletableFuture<T> promise) {
+        return (result, error) -> {
+            if (error != null) {
+                promise.completeExceptionally(error);
+            } else {
+                promise.complete(result);
+            }
+        };
+    }
+
+    private void onLeftBuffer(MessageContainer<MsgType, ReturnType> message) {
+        admissionController.onLeftBuffer(message.getMessageType());
+        coalescing.remove(message);
+    }
+
+    private int cost(MsgType msg) {
+        CostFunction<? super MsgType> currentCostFunction = costFunction;
+        if (currentCostFunction == null) {
+            return 1;
+        }
+        int cost = currentCostFunction.cost(msg);
+        if (cost <= 0) {
+            throw new IllegalArgumentException("Cost of message " + msg + " must be positive, but was " + cost);
+        }
+        return cost;
+    }
+
+    private long weigh(MsgType msg) {
+        Weigher<? super MsgType> currentWeigher = weigher;
+        if (currentWeigher == null) {
+            return 0;
+        }
+        long weight = currentWeigher.weigh(msg);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight of message " + msg + " must not be negative, but was " + weight);
+        }
+        return weight;
+    }
+
+    /**
+     * Stop sending buffered messages of the type, new messages are still accepted
+     */
+    public void pauseMessageType(MessageType messageType) {
+        admissionController.pause(messageType);
+        log.info("Multiplexer '{}' paused type {}", name, messageType);
+    }
+
+    /**
+     * Stop sending buffered messages of the type and reject new ones
+     */
+    public void shedMessageType(MessageType messageType) {
+        admissionController.shed(messageType);
+        log.info("Multiplexer '{}' sheds type {}", name, messageType);
+    }
+
+    /**
+     * Cancel {@link #pauseMessageType} and {@link #shedMessageType}. Automatic shedding of
+     * {@link MultiplexerConfig#sheddableTypes()} is not affected
+     */
+    public void resumeMessageType(MessageType messageType) {
+        admissionController.resume(messageType);
+        log.info("Multiplexer '{}' resumed type {}", name, messageType);
+        onOutputChannelHasFreeSlot();
+    }
+
+    /**
+     * Types paused or shed manually
+     */
+    public Set<MessageType> getPausedMessageTypes() {
+        return admissionController.pausedTypes();
+    }
+
+    /**
+     * Expected queue wait of a new message of the type in milliseconds or -1 if it is not known yet
+     */
+    public long estimatedWaitMs(MessageType messageType) {
+        return admissionController.estimatedWaitMs(messageType);
+    }
+
+    public MultiplexerConfig getMultiplexerConfig() {
+        return multiplexerConfig;
+    }
+
+    /**
+     * Atomically replace priorities, limits and waiting interval.
+     * Messages of types removed from registered ones stay in buffer and are sent after registered types.
+     */
+    @Override
+    public void reconfigure(MultiplexerConfig newConfig) {
+        updateConfig(currentConfig -> newConfig, true);
+    }
+
+    /**
+     * Calculate new settings from the current ones and apply them, concurrent updates are not lost
+     */
+    void updateConfig(UnaryOperator<MultiplexerConfig> change, boolean logChange) {
+        synchronized (configurationLock) {
+            MultiplexerConfig newConfig = change.apply(multiplexerConfig);
+            Objects.requireNonNull(newConfig, "Registered messages must be presented");
+            if (newConfig.registeredMessages().isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Required at least one registered message. Now Registered messages are empty"
+                );
+            }
+            inFlightLimiter.reconfigure(newConfig);
+            buffer.reconfigure(newConfig);
+            multiplexerConfig = newConfig;
+        }
+        if (logChange) {
+            log.info("Multiplexer '{}' has been reconfigured. Registered types are: {}",
+                    name,
+                    Arrays.toString(multiplexerConfig.registeredMessages().entrySet().toArray())
+            );
+        }
+        onOutputChannelHasFreeSlot();
+    }
+
     /**
      * Notify multiplexer output channel can receive some messages
      */
     @Override
     public void onOutputChannelHasFreeSlot() {
         synchronized (workerNotifyFlag) {
+            workerNotified = true;
             workerNotifyFlag.notifyAll();
         }
     }
 
-    private void sendStoredNotificationToChannel() {
+    /**
+     * Send next message from buffer to the channel
+     *
+     * @return {@code false} if buffer contains no message that can be sent now
+     */
+    private boolean sendStoredNotificationToChannel() {
+        synchronized (configurationLock) {
+            return sendStoredNotificationToChannelWithCurrentConfig();
+        }
+    }
+
+    private boolean sendStoredNotificationToChannelWithCurrentConfig() {
+        if (window.hasReady() && outputChannel.hasFreeSlot() && circuitBreaker.allowsDispatch(multiplexerConfig)) {
+            MessageContainer<MsgType, ReturnType> prefetchedMessage = window.pollReady();
+            if (prefetchedMessage.isExpired()) {
+                releaseInFlight(prefetchedMessage, true);
+                completeExpired(prefetchedMessage);
+            } else {
+                sendToChannel(prefetchedMessage);
+            }
+            return true;
+        }
+        Executor executor = preparationExecutor;
+        if (executor != null && !canPrefetch()) {
+            log.trace("Prefetch window is full");
+            return false;
+        }
         if (buffer.isEmpty()) {
             log.trace("MultiplexerWithPriority sending process has finished cause buffer is empty");
-            return;
+            return false;
         }
 
         final MessageContainer<MsgType, ReturnType> currentMessage;
 
-        currentMessage = findMessageForProcessing(recommender.makeRecommendation());
+        currentMessage = buffer.poll(this::findMessageForProcessing);
+        if (currentMessage == null) {
+            log.trace("Buffered messages can not be sent due to in flight limits {} or ordering keys {}",
+                    inFlightLimiter, orderingKeysInFlight);
+            return false;
+        }
+        onLeftBuffer(currentMessage);
 
         if (currentMessage.isExpired()) {
-            profiler.call(name + ".message_expired");
-            log.warn("Expired message {} will not be sent", currentMessage);
-            currentMessage.getPromise().complete(MultiplexedMessageSendingResult.notSent());
-            return;
+            if (currentMessage.getAttempts() > 0) {
+                releaseOrderingKey(currentMessage);
+            }
+            completeExpired(currentMessage);
+            return true;
         }
 
         log.trace("Starting to sending message {}", currentMessage);
+        statistics.onDispatched(
+                currentMessage.getMessageType(),
+                System.currentTimeMillis() - currentMessage.getBufferedSinceMs()
+        );
+        // accounted before the next choice, so the prefetch window follows weights of types too
+        buffer.onDispatched(currentMessage);
 
-        recommender.add(currentMessage.getMessageType());
+        currentMessage.incrementAttempts();
+        inFlightLimiter.acquire(currentMessage.getMessageType(), currentMessage.getCost());
+        Object orderingKey = currentMessage.getOptions().getOrderingKey();
+        if (orderingKey != null) {
+            orderingKeysInFlight.add(orderingKey);
+        }
 
+        if (executor != null) {
+            prefetch(currentMessage, executor);
+        } else if (prepare(currentMessage)) {
+            sendToChannel(currentMessage);
+        }
+        return true;
+    }
 
+    private boolean canPrefetch() {
+        if (window.size() >= maxPreparing) {
+            return false;
+        }
+        // open breaker lets a single message through, so only it is prefetched and becomes the probe
+        return circuitBreaker.isClosed()
+                || window.isEmpty() && circuitBreaker.allowsDispatch(multiplexerConfig);
+    }
+
+    private void completeExpired(MessageContainer<MsgType, ReturnType> message) {
+        statistics.onExpired(message.getMessageType());
+        profiler.call(name + ".message_expired");
+        log.warn("Expired message {} will not be sent", message);
+        capture(message, -1, CapturedMessage.Outcome.EXPIRED);
+        message.getPromise().complete(MultiplexedMessageSendingResult.notSent());
+    }
+
+    private boolean requiresPreparation(MessageContainer<MsgType, ReturnType> message) {
+        return !message.isBuilt() || preparer != null && !message.isPrepared();
+    }
+
+    /**
+     * Put dispatched message into the prefetch window and prepare it on the preparation executor
+     */
+    private void prefetch(MessageContainer<MsgType, ReturnType> message, Executor executor) {
+        if (!requiresPreparation(message)) {
+            window.add(message, true);
+            return;
+        }
+        window.add(message, false);
+        try {
+            executor.execute(() -> {
+                // expired message is completed by the worker without preparation
+                if (message.isExpired() || prepare(message)) {
+                    window.onPrepared(message);
+                } else {
+                    window.remove(message);
+                }
+                onOutputChannelHasFreeSlot();
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Preparation executor rejected message {}, it is prepared by the worker", message);
+            if (prepare(message)) {
+                window.onPrepared(message);
+            } else {
+                window.remove(message);
+            }
+        }
+    }
+
+    /**
+     * Build dispatched lazy message, take channel units of its cost and add its weight,
+     * then apply {@link MessagePreparer}. Failure completes the message
+     *
+     * @return {@code false} if the message can not be prepared
+     */
+    private boolean prepare(MessageContainer<MsgType, ReturnType> message) {
+        try {
+            if (!message.isBuilt()) {
+                message.build();
+                int cost = cost(message.getMessage());
+                if (cost != message.getCost()) {
+                    inFlightLimiter.acquire(message.getMessageType(), cost - message.getCost());
+                    message.setCost(cost);
+                }
+                long weight = weigh(message.getMessage());
+                bufferWeight.change(message.getMessageType(), weight - message.getWeight());
+                message.setWeight(weight);
+            }
+            MessagePreparer<MsgType> currentPreparer = preparer;
+            if (currentPreparer != null && !message.isPrepared()) {
+                message.setMessage(Objects.requireNonNull(
+                        currentPreparer.prepare(message.getMessage()), "Preparer returned null message"
+                ));
+                message.setPrepared(true);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to prepare message {}", message, e);
+            profiler.call(name + ".message_preparation_failed");
+            releaseInFlight(message, true);
+            capture(message, -1, CapturedMessage.Outcome.FAILED);
+            message.getPromise().completeExceptionally(
+                    new MessageSendingException("There is exception occurred when message was prepared", e)
+            );
+            return false;
+        }
+    }
+
+    /**
+     * Send dispatched and built message to the channel
+     */
+    private void sendToChannel(MessageContainer<MsgType, ReturnType> currentMessage) {
+        circuitBreaker.onDispatched(multiplexerConfig);
+
+        long sentNanos = System.nanoTime();
         CompletableFuture<ReturnType> promiseFromChannel;
         try {
             promiseFromChannel = profiler.profileFuture(
@@ -206,44 +864,306 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
             );
         } catch (Exception e) {
             log.error("There is exception occurred when message send to channel", e);
-            profiler.call(name + ".message_sent_failed");
-
-            currentMessage.getPromise().completeExceptionally(
-                    new MessageSendingException("There is exception occurred when message send to channel", e)
-            );
+            capture(currentMessage, -1, CapturedMessage.Outcome.FAILED);
+            onSendingFailed(currentMessage, e);
             return;
         }
 
         log.trace("Message {} sent to channel", currentMessage);
 
         promiseFromChannel.handleAsync((result, ex) -> {
+            capture(
+                    currentMessage,
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos),
+                    ex == null ? CapturedMessage.Outcome.SENT : CapturedMessage.Outcome.FAILED
+            );
             if (ex == null) {
+                releaseInFlight(currentMessage, true);
+                circuitBreaker.onSuccess();
                 currentMessage.getPromise().complete(MultiplexedMessageSendingResult.sent(result));
                 profiler.call(name + ".message_sent_success");
             } else {
-                currentMessage.getPromise().completeExceptionally(
-                        new MessageSendingException("There is exception occurred when message send to channel", ex)
-                );
-                profiler.call(name + ".message_sent_failed");
+                onSendingFailed(currentMessage, ex);
             }
             return currentMessage;
         });
     }
 
-    private MessageContainer<MsgType, ReturnType> findMessageForProcessing(List<MessageType> recomendations) {
-        Iterator<MessageType> recommendations = recomendations.iterator();
+    /**
+     * Retry the message if its policy allows, otherwise complete it with the failure
+     */
+    private void onSendingFailed(MessageContainer<MsgType, ReturnType> message, Throwable failure) {
+        profiler.call(name + ".message_sent_failed");
+        if (circuitBreaker.onFailure(multiplexerConfig)) {
+            profiler.call(name + ".circuit_opened");
+        }
+        long backoffMs = retryBackoffMs(message, failure);
+        // retried message keeps its ordering key, so next messages with the key wait for the retry
+        releaseInFlight(message, backoffMs < 0);
+        if (backoffMs < 0) {
+            message.getPromise().completeExceptionally(
+                    new MessageSendingException("There is exception occurred when message send to channel", failure)
+            );
+            return;
+        }
+        log.debug("Message {} failed on attempt {}, retry in {} ms", message, message.getAttempts(), backoffMs);
+        profiler.call(name + ".message_retried");
+        retries.park(message, System.currentTimeMillis() + backoffMs);
+        onOutputChannelHasFreeSlot();
+    }
+
+    /**
+     * @return backoff before the next attempt or -1 if the message must not be retried
+     */
+    private long retryBackoffMs(MessageContainer<MsgType, ReturnType> message, Throwable failure) {
+        RetryPolicy policy = multiplexerConfig.retryPolicies().get(message.getMessageType());
+        if (policy == null || state != State.ACTIVE) {
+            return -1;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+        if (!policy.canRetry(message.getAttempts(), cause)) {
+            return -1;
+        }
+        long backoffMs = policy.backoffMs(message.getAttempts(), retryJitter);
+        return backoffMs < message.getExpirationTime().remainingMs() ? backoffMs : -1;
+    }
+
+    /**
+     * Move retries with passed backoff back to the buffer
+     */
+    private void returnDueRetries() {
+        retries.pollDue(System.currentTimeMillis(), message -> {
+            admissionController.onBuffered(message.getMessageType());
+            buffer.add(message);
+        });
+    }
+
+    /**
+     * Move delayed messages which are due to the buffer
+     */
+    private void bufferDueMessages() {
+        delayed.pollDue(System.currentTimeMillis(), this::enqueue);
+    }
+
+    /**
+     * Complete attached messages which expired before their requests with {@code notSent}
+     */
+    private void expireFollowers() {
+        followers.pollDue(System.currentTimeMillis(), follower -> {
+            if (follower.getPromise().complete(MultiplexedMessageSendingResult.notSent())) {
+                log.warn("Expired message {} will not receive the result of the request it is attached to", follower);
+                statistics.onExpired(follower.getMessageType());
+                profiler.call(name + ".message_expired");
+            }
+        });
+    }
+
+    /**
+     * Delayed messages are not waited for on shutdown
+     */
+    private void completeDelayedMessages(Consumer<MessageContainer<MsgType, ReturnType>> completion) {
+        delayed.pollAll(completion);
+    }
+
+    /**
+     * How long the worker can wait for notifications before the next parked message is due
+     */
+    private long nextDueInMs() {
+        long nowMs = System.currentTimeMillis();
+        return Math.min(
+                Math.min(retries.nextDueInMs(nowMs), delayed.nextDueInMs(nowMs)),
+                followers.nextDueInMs(nowMs)
+        );
+    }
+
+    private void releaseInFlight(MessageContainer<MsgType, ReturnType> message, boolean releaseOrderingKey) {
+        inFlightLimiter.release(message.getMessageType(), message.getCost());
+        Object orderingKey = message.getOptions().getOrderingKey();
+        if (releaseOrderingKey) {
+            releaseOrderingKey(message);
+        }
+        if (inFlightLimiter.isEnabled() || orderingKey != null) {
+            onOutputChannelHasFreeSlot();
+        }
+    }
+
+    private void releaseOrderingKey(MessageContainer<MsgType, ReturnType> message) {
+        Object orderingKey = message.getOptions().getOrderingKey();
+        if (orderingKey != null) {
+            orderingKeysInFlight.remove(orderingKey);
+        }
+    }
+
+    private void completeMessagesLeftAfterDrain() {
+        MultiplexerInput<MsgType, ReturnType> currentSuccessor = successor;
+        AtomicInteger left = new AtomicInteger();
+        Consumer<MessageContainer<MsgType, ReturnType>> completion = container -> {
+            left.incrementAndGet();
+            if (currentSuccessor != null) {
+                profiler.call(name + ".handed_off");
+                handOffMessage(container, currentSuccessor);
+            } else {
+                completeShuttingDown(container);
+            }
+        };
+        buffer.pollAndProcessAllMessages(container -> {
+            onLeftBuffer(container);
+            completion.accept(container);
+        });
+        retries.pollAll(completion);
+        pollPrefetched(completion);
+        if (currentSuccessor != null) {
+            log.info("Handed off after drain deadline: {} task(s)", left.get());
+        } else {
+            log.info("Completed after drain deadline: {} task(s)", left.get());
+        }
+    }
+
+    /**
+     * Pass prepared messages of the prefetch window to {@code consumer},
+     * they do not hold in flight limits and ordering keys anymore
+     */
+    private void pollPrefetched(Consumer<MessageContainer<MsgType, ReturnType>> consumer) {
+        window.pollAllReady(message -> {
+            releaseInFlight(message, true);
+            consumer.accept(message);
+        });
+    }
+
+    private void handOffMessage(MessageContainer<MsgType, ReturnType> message,
+                                MultiplexerInput<MsgType, ReturnType> currentSuccessor) {
+        CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise = message.getPromise();
+        try {
+            forward(message, currentSuccessor).whenComplete(completeWith(promise));
+        } catch (RuntimeException e) {
+            log.error("Failed to hand off message {}", message, e);
+            promise.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Send message to the successor, lazy message stays lazy
+     */
+    private CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> forward(
+            MessageContainer<MsgType, ReturnType> message,
+            MultiplexerInput<MsgType, ReturnType> currentSuccessor
+    ) {
+        capture(message, -1, CapturedMessage.Outcome.HANDED_OFF);
+        Supplier<? extends MsgType> messageSupplier = message.getMessageSupplier();
+        if (messageSupplier != null) {
+            return currentSuccessor.send(
+                    messageSupplier, message.getMessageType(), message.getExpirationTime(), message.getOptions()
+            );
+        }
+        return currentSuccessor.send(
+                message.getMessage(), message.getMessageType(), message.getExpirationTime(), message.getOptions()
+        );
+    }
+
+    private void completeShuttingDown(MessageContainer<MsgType, ReturnType> message) {
+        capture(message, -1, CapturedMessage.Outcome.NOT_SENT_SHUTTING_DOWN);
+        message.getPromise().complete(MultiplexedMessageSendingResult.notSentShuttingDown());
+    }
+
+    /**
+     * Wait until messages of the prefetch window are prepared
+     */
+    private void awaitPreparation() {
+        synchronized (workerNotifyFlag) {
+            while (window.isPreparing()) {
+                try {
+                    workerNotifyFlag.wait(multiplexerConfig.getSendingWaitingInterval());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MessageSendingException("Multiplexer daemon has an error", e);
+                }
+            }
+        }
+    }
+
+    private void tickControllers() {
+        weightController.tickIfDue();
+        admissionController.tickIfDue(multiplexerConfig);
+        returnDueRetries();
+        bufferDueMessages();
+        expireFollowers();
+    }
+
+    private void capture(MessageContainer<MsgType, ReturnType> message,
+                         long channelLatencyMicros,
+                         CapturedMessage.Outcome outcome) {
+        TrafficCapture<? super MsgType> capture = trafficCapture;
+        if (capture == null) {
+            return;
+        }
+        try {
+            capture.record(
+                    message.getMessage(),
+                    message.getMessageType(),
+                    message.getCreationDate().getTime(),
+                    message.getExpirationTime().getTime(),
+                    channelLatencyMicros,
+                    outcome
+            );
+        } catch (RuntimeException e) {
+            log.error("Traffic capture failed to record message {}", message, e);
+        }
+    }
+
+    /**
+     * Retried message holds its ordering key between attempts, so the key is free for it
+     */
+    private boolean orderingKeyIsFree(MessageContainer<MsgType, ReturnType> message) {
+        Object orderingKey = message.getOptions().getOrderingKey();
+        return orderingKey == null || message.getAttempts() > 0 || !orderingKeysInFlight.contains(orderingKey);
+    }
+
+    /**
+     * @return next message of the tenant for sending or {@code null} if all messages of the tenant are restricted
+     * by in flight limits or wait for completion of previous messages with the same ordering key
+     */
+    private MessageContainer<MsgType, ReturnType> findMessageForProcessing(
+            Buffer<MsgType, ReturnType> tenantBuffer,
+            Recommender recommender
+    ) {
+        Iterator<MessageType> recommendations = recommender.makeRecommendation().iterator();
         log.trace("Recommendations was received: {}", recommendations);
 
         MessageContainer<MsgType, ReturnType> currentMessage = null;
+        boolean restrictedByLimits = false;
         while (null == currentMessage && recommendations.hasNext()) {
-            currentMessage = buffer.pollNext(recommendations.next());
+            MessageType messageType = recommendations.next();
+            if (!inFlightLimiter.canDispatch(messageType) || admissionController.isPaused(messageType, multiplexerConfig)) {
+                restrictedByLimits |= tenantBuffer.hasMessage(messageType);
+                continue;
+            }
+            currentMessage = tenantBuffer.pollNext(messageType, this::orderingKeyIsFree);
+            restrictedByLimits |= currentMessage == null && tenantBuffer.hasMessage(messageType);
         }
 
         if (null == currentMessage) {
+            // types removed by reconfiguration are sent after registered ones
+            Iterator<MessageType> bufferedTypes = tenantBuffer.messageTypes().iterator();
+            while (null == currentMessage && bufferedTypes.hasNext()) {
+                MessageType messageType = bufferedTypes.next();
+                if (recommender.typeIsRegistered(messageType)) {
+                    continue;
+                }
+                if (inFlightLimiter.canDispatch(messageType)
+                        && !admissionController.isPaused(messageType, multiplexerConfig)) {
+                    currentMessage = tenantBuffer.pollNext(messageType, this::orderingKeyIsFree);
+                }
+                restrictedByLimits |= currentMessage == null;
+            }
+        }
+
+        if (null == currentMessage && !restrictedByLimits) {
             throw new IllegalStateException(
                     String.format("Can`t find any message for polling from buffer. " +
                                     "But buffer is not empty Buffer size is %s, Buffer contains: %s. Registered types are: %s",
-                            buffer.size(), buffer, recommender));
+                            tenantBuffer.size(), tenantBuffer, recommender));
         }
 
         return currentMessage;
@@ -251,26 +1171,71 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
 
     @Override
     public int countMessagesWaitingToProcessing() {
-        return buffer.size();
+        return buffer.size() + retries.size() + delayed.size() + window.size();
     }
 
     private boolean hasMessageAndPossibleToSendToChannel() {
-        return !buffer.isEmpty() && outputChannel.hasFreeSlot();
+        if (preparationExecutor != null && !buffer.isEmpty() && canPrefetch()) {
+            // messages are prefetched while the channel is busy
+            return true;
+        }
+        return (window.hasReady() || !buffer.isEmpty())
+                && circuitBreaker.allowsDispatch(multiplexerConfig)
+                && outputChannel.hasFreeSlot();
     }
 
     @Override
     public void shutdown() {
         state = State.SHUTDOWN;
         synchronized (workerNotifyFlag) {
+            workerNotified = true;
             workerNotifyFlag.notifyAll();
         }
         log.info("multiplexer entering shutdown state, buffer size {}", buffer.size());
     }
 
+    /**
+     * Stop accepting new messages and send buffered ones until the buffer is empty or {@code drainTimeoutMs} passes.
+     * Unlike {@link #shutdown()} the drain does not end when the channel is full.
+     * Messages left after the timeout are completed with {@link MultiplexedMessageSendingResult.Status#NOT_SENT_SHUTTING_DOWN}
+     *
+     * @see #awaitTermination(long)
+     */
+    public void shutdown(long drainTimeoutMs) {
+        drainDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+        shutdown();
+    }
+
+    /**
+     * Pass the traffic to {@code successor}, e.g. a multiplexer with a new output channel.
+     * New messages are sent to the successor at once, buffered ones are sent to the current channel
+     * during {@code drainTimeoutMs}. Messages left after the timeout are sent to the successor,
+     * their promises are completed with results of the successor.
+     * Order of messages with equal ordering keys is not kept between the multiplexers.
+     *
+     * @see #awaitTermination(long)
+     */
+    public void handOff(MultiplexerInput<MsgType, ReturnType> successor, long drainTimeoutMs) {
+        Objects.requireNonNull(successor, "Successor must be present");
+        log.info("multiplexer '{}' hands off to {} after {} ms of drain", name, successor, drainTimeoutMs);
+        this.successor = successor;
+        shutdown(drainTimeoutMs);
+    }
+
+    /**
+     * Wait until the worker sends or hands off buffered messages after shutdown
+     *
+     * @return {@code false} if the timeout passed before
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return worker.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void shutdownNow() {
         state = State.FORCE_SHUTDOWN;
         synchronized (workerNotifyFlag) {
+            workerNotified = true;
             workerNotifyFlag.notifyAll();
         }
         log.info("multiplexer entering force_shutdown state, buffer size {}", buffer.size());
@@ -292,7 +1257,33 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
                 worker.shutdownNow();
             }
         }
+        if (capacityNotifyingChannel != null) {
+            capacityNotifyingChannel.removeCapacityListener(this);
+        }
+        if (mBeanName != null) {
+            unregisterMBean();
+        }
+        weightController.close();
         profiler.detachIndicator(name + ".buffer_size");
+        profiler.detachIndicator(name + ".retained_weight");
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName objectName = new ObjectName("ru.fix.multiplexer:type=Multiplexer,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MultiplexerControl(this), objectName);
+            mBeanName = objectName;
+        } catch (JMException e) {
+            log.error("Failed to register JMX MBean for multiplexer '{}'", name, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        } catch (JMException e) {
+            log.error("Failed to unregister JMX MBean {}", mBeanName, e);
+        }
     }
 
     public enum State {
@@ -312,12 +1303,6 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
 
     private class Worker implements Runnable {
 
-        private Integer sendingWaitingInterval;
-
-        public Worker(Integer sendingWaitingInterval) {
-            this.sendingWaitingInterval = sendingWaitingInterval;
-        }
-
         @Override
         public void run() {
             boolean nextLoop = true;
@@ -326,9 +1311,12 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
                 switch (curState) {
                     case ACTIVE:
                         log.trace("MultiplexerWithPriority sending process running");
+                        boolean restrictedByLimits = false;
                         try {
-                            while (hasMessageAndPossibleToSendToChannel()) {
-                                sendStoredNotificationToChannel();
+                            tickControllers();
+                            while (!restrictedByLimits && hasMessageAndPossibleToSendToChannel()) {
+                                restrictedByLimits = !sendStoredNotificationToChannel();
+                                tickControllers();
                             }
                         } catch (Exception e) {
                             log.error("Failed sending message to channel", e); // show must go on
@@ -339,35 +1327,102 @@ public class MultiplexerWithPriority<MsgType, ReturnType> implements Multiplexer
                         }
                         // state is still ACTIVE, time to wait a little
                         synchronized (workerNotifyFlag) {
-                            // check if can send data
-                            if (hasMessageAndPossibleToSendToChannel()) {
-                                continue;
-                            }
+                            // set before the check, so a message buffered after the check notifies the worker
+                            workerWaiting = true;
                             try {
-                                workerNotifyFlag.wait(sendingWaitingInterval);
+                                // check if can send data or something was changed while sending
+                                if (workerNotified
+                                        || !restrictedByLimits && hasMessageAndPossibleToSendToChannel()) {
+                                    workerNotified = false;
+                                    continue;
+                                }
+                                workerNotifyFlag.wait(Math.max(1, Math.min(
+                                        multiplexerConfig.getSendingWaitingInterval(),
+                                        nextDueInMs()
+                                )));
                             } catch (InterruptedException e) {
                                 Thread.currentThread().interrupt();
                                 throw new MessageSendingException("Multiplexer daemon has an error", e);
+                            } finally {
+                                workerWaiting = false;
                             }
                         }
                         break;
                     case SHUTDOWN:
+                        returnDueRetries();
+                        MultiplexerInput<MsgType, ReturnType> currentSuccessor = successor;
+                        completeDelayedMessages(container -> {
+                            if (currentSuccessor != null) {
+                                profiler.call(name + ".handed_off");
+                                handOffMessage(container, currentSuccessor);
+                            } else {
+                                completeShuttingDown(container);
+                            }
+                        });
                         try {
-                            while (hasMessageAndPossibleToSendToChannel()) {
-                                sendStoredNotificationToChannel();
+                            boolean sent = true;
+                            while (sent && hasMessageAndPossibleToSendToChannel()) {
+                                sent = sendStoredNotificationToChannel();
                             }
                         } catch (Exception e) {
                             log.error("Failed sending message to channel", e); // show must go on
                             continue;
                         }
-                        nextLoop = false;
+                        Long deadline = drainDeadlineNanos;
+                        // prefetched messages must be prepared before the worker stops
+                        boolean preparationDone = !window.isPreparing();
+                        if (preparationDone && retries.isEmpty()
+                                && (deadline == null || buffer.isEmpty() && window.isEmpty())) {
+                            // the channel has no slot for the rest of prefetched messages
+                            pollPrefetched(MultiplexerWithPriority.this::completeShuttingDown);
+                            nextLoop = false;
+                            break;
+                        }
+                        long waitMs = Math.min(
+                                multiplexerConfig.getSendingWaitingInterval(),
+                                retries.nextDueInMs(System.currentTimeMillis())
+                        );
+                        if (deadline != null) {
+                            long remainingNanos = deadline - System.nanoTime();
+                            if (remainingNanos <= 0) {
+                                // messages being built are completed by the next loop
+                                preparationDone = !window.isPreparing();
+                                completeMessagesLeftAfterDrain();
+                                if (preparationDone) {
+                                    nextLoop = false;
+                                    break;
+                                }
+                            }
+                            waitMs = Math.min(waitMs, TimeUnit.NANOSECONDS.toMillis(Math.max(0, remainingNanos)) + 1);
+                        }
+                        // channel is full or retries wait for backoff
+                        synchronized (workerNotifyFlag) {
+                            if (workerNotified) {
+                                workerNotified = false;
+                                continue;
+                            }
+                            try {
+                                workerNotifyFlag.wait(Math.max(1, waitMs));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new MessageSendingException("Multiplexer daemon has an error", e);
+                            }
+                        }
                         break;
                     case FORCE_SHUTDOWN:
                         AtomicInteger forceCompleted = new AtomicInteger();
+                        Consumer<MessageContainer<MsgType, ReturnType>> forceCompletion = container -> {
+                            completeShuttingDown(container);
+                            forceCompleted.incrementAndGet();
+                        };
+                        retries.pollAll(forceCompletion);
+                        completeDelayedMessages(forceCompletion);
+                        awaitPreparation();
+                        pollPrefetched(forceCompletion);
                         do {
                             buffer.pollAndProcessAllMessages(container -> {
-                                container.getPromise().complete(MultiplexedMessageSendingResult.notSentShuttingDown());
-                                forceCompleted.incrementAndGet();
+                                onLeftBuffer(container);
+                                forceCompletion.accept(container);
                             });
                             if (buffer.isEmpty()) {
                                 log.info("Force completed on FORCE_SHUTDOWN: {} task(s)", forceCompleted.get());
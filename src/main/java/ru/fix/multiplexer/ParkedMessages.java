@@ -0,0 +1,66 @@
+package ru.fix.multiplexer;
+
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Messages which return to the buffer not earlier than their due time, e.g. retries waiting for backoff.
+ * All operations are guarded by the monitor, consumers are called without holding it.
+ */
+class ParkedMessages<MsgType, ReturnType> {
+
+    private final PriorityQueue<Parked<MsgType, ReturnType>> queue =
+            new PriorityQueue<>((first, second) -> Long.compare(first.dueMs, second.dueMs));
+
+    synchronized void park(MessageContainer<MsgType, ReturnType> message, long dueMs) {
+        queue.add(new Parked<>(message, dueMs));
+    }
+
+    /**
+     * Pass messages due at {@code nowMs} to {@code consumer} in order of their due time
+     */
+    void pollDue(long nowMs, Consumer<MessageContainer<MsgType, ReturnType>> consumer) {
+        MessageContainer<MsgType, ReturnType> message;
+        while ((message = pollIfDue(nowMs)) != null) {
+            consumer.accept(message);
+        }
+    }
+
+    void pollAll(Consumer<MessageContainer<MsgType, ReturnType>> consumer) {
+        pollDue(Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * @return milliseconds until the nearest message is due or {@link Long#MAX_VALUE} if there are no messages
+     */
+    synchronized long nextDueInMs(long nowMs) {
+        Parked<MsgType, ReturnType> first = queue.peek();
+        return first == null ? Long.MAX_VALUE : Math.max(0, first.dueMs - nowMs);
+    }
+
+    synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    synchronized int size() {
+        return queue.size();
+    }
+
+    private synchronized MessageContainer<MsgType, ReturnType> pollIfDue(long nowMs) {
+        Parked<MsgType, ReturnType> first = queue.peek();
+        if (first == null || first.dueMs > nowMs) {
+            return null;
+        }
+        return queue.poll().message;
+    }
+
+    private static final class Parked<MsgType, ReturnType> {
+        final MessageContainer<MsgType, ReturnType> message;
+        final long dueMs;
+
+        Parked(MessageContainer<MsgType, ReturnType> message, long dueMs) {
+            this.message = message;
+            this.dueMs = dueMs;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ru.fix.multiplexer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Messages chosen by the scheduler ahead of the output channel and prepared in parallel.
+ * Messages leave the window in the order they were chosen, so a message prepared faster does not overtake
+ * a message of higher priority. All operations are guarded by the window monitor, consumers are called
+ * without holding it.
+ */
+class PrefetchWindow<MsgType, ReturnType> {
+
+    private final ArrayDeque<Entry<MsgType, ReturnType>> entries = new ArrayDeque<>();
+
+    /**
+     * @param ready {@code true} if the message does not require preparation
+     */
+    synchronized void add(MessageContainer<MsgType, ReturnType> message, boolean ready) {
+        entries.addLast(new Entry<>(message, ready));
+    }
+
+    /**
+     * Message is prepared and can be sent
+     */
+    synchronized void onPrepared(MessageContainer<MsgType, ReturnType> message) {
+        for (Entry<MsgType, ReturnType> entry : entries) {
+            if (entry.message == message) {
+                entry.ready = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Message failed to be prepared and is completed already
+     */
+    synchronized void remove(MessageContainer<MsgType, ReturnType> message) {
+        entries.removeIf(entry -> entry.message == message);
+    }
+
+    /**
+     * @return the earliest chosen message if it is prepared, otherwise {@code null}
+     */
+    synchronized MessageContainer<MsgType, ReturnType> pollReady() {
+        Entry<MsgType, ReturnType> first = entries.peekFirst();
+        if (first == null || !first.ready) {
+            return null;
+        }
+        return entries.pollFirst().message;
+    }
+
+    synchronized boolean hasReady() {
+        Entry<MsgType, ReturnType> first = entries.peekFirst();
+        return first != null && first.ready;
+    }
+
+    /**
+     * Pass all prepared messages to {@code consumer} in order they were chosen, messages being prepared stay
+     */
+    void pollAllReady(Consumer<MessageContainer<MsgType, ReturnType>> consumer) {
+        ArrayDeque<MessageContainer<MsgType, ReturnType>> ready = new ArrayDeque<>();
+        synchronized (this) {
+            Iterator<Entry<MsgType, ReturnType>> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                Entry<MsgType, ReturnType> entry = iterator.next();
+                if (entry.ready) {
+                    ready.add(entry.message);
+                    iterator.remove();
+                }
+            }
+        }
+        ready.forEach(consumer);
+    }
+
+    synchronized boolean isPreparing() {
+        for (Entry<MsgType, ReturnType> entry : entries) {
+            if (!entry.ready) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<MsgType, ReturnType> {
+        final MessageContainer<MsgType, ReturnType> message;
+        boolean ready;
+
+        Entry(MessageContainer<MsgType, ReturnType> message, boolean ready) {
+            this.message = message;
+            this.ready = ready;
+        }
+    }
+}
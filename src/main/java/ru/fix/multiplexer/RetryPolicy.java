@@ -0,0 +1,98 @@
+package ru.fix.multiplexer;
+
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * How messages of a type are sent again after the output channel failed them.
+ * The next attempt waits exponentially growing backoff with jitter. Message is not retried
+ * if it would expire before the backoff passes.
+ *
+ * @see MultiplexerConfig#retryPolicies()
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final Predicate<Throwable> retryable;
+
+    /**
+     * Policy which retries any failure
+     *
+     * @see #RetryPolicy(int, long, long, Predicate)
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMs, long maxBackoffMs) {
+        this(maxAttempts, initialBackoffMs, maxBackoffMs, failure -> true);
+    }
+
+    /**
+     * @param maxAttempts      how many times message can be sent to the channel including the first attempt
+     * @param initialBackoffMs backoff before the second attempt, every next backoff is twice longer
+     * @param maxBackoffMs     backoff does not grow above this value
+     * @param retryable        accepts failures of the channel which are worth to retry,
+     *                         {@link java.util.concurrent.CompletionException} is unwrapped before the check
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMs, long maxBackoffMs, Predicate<Throwable> retryable) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must be positive, but was " + maxAttempts);
+        }
+        if (initialBackoffMs < 0 || initialBackoffMs > maxBackoffMs) {
+            throw new IllegalArgumentException(
+                    "Backoff must not be negative and initial must not exceed max, but was "
+                            + initialBackoffMs + ".." + maxBackoffMs
+            );
+        }
+        if (retryable == null) {
+            throw new IllegalArgumentException("Retryable predicate must be present");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @param attempts how many times the message has been sent already
+     */
+    public boolean canRetry(int attempts, Throwable failure) {
+        return attempts < maxAttempts && retryable.test(failure);
+    }
+
+    /**
+     * Backoff before the next attempt: half of the exponential value is fixed, the other half is random,
+     * so failed messages do not return to the channel all at once
+     *
+     * @param attempts how many times the message has been sent already
+     */
+    public long backoffMs(int attempts, Random random) {
+        long backoff = initialBackoffMs;
+        for (int i = 1; i < attempts && backoff < maxBackoffMs; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffMs);
+        long fixedPart = backoff / 2;
+        return fixedPart + (long) (random.nextDouble() * (backoff - fixedPart));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMs=" + initialBackoffMs +
+                ", maxBackoffMs=" + maxBackoffMs +
+                '}';
+    }
+}
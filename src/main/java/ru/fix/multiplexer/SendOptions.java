@@ -0,0 +1,134 @@
+package ru.fix.multiplexer;
+
+import java.time.Instant;
+
+/**
+ * Optional attributes of a message sent through {@link MultiplexerInput}.
+ * Options are immutable, every {@code with} method returns a new instance.
+ */
+public final class SendOptions {
+
+    private static final SendOptions DEFAULT = new SendOptions(null, null, null, null, null, null);
+
+    private final Object orderingKey;
+    private final Object tenant;
+    private final Object source;
+    private final Object coalescingKey;
+    private final Object requestKey;
+    private final Instant notBefore;
+
+    private SendOptions(Object orderingKey,
+                        Object tenant,
+                        Object source,
+                        Object coalescingKey,
+                        Object requestKey,
+                        Instant notBefore) {
+        this.orderingKey = orderingKey;
+        this.tenant = tenant;
+        this.source = source;
+        this.coalescingKey = coalescingKey;
+        this.requestKey = requestKey;
+        this.notBefore = notBefore;
+    }
+
+    public static SendOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * Messages with equal ordering keys are sent to the output channel one by one:
+     * the next message is sent only after the channel completed the previous one.
+     * Order of sending is kept among messages of the same type, {@link #withTenant tenant} and
+     * {@link #withSource source}. Messages with equal keys and different types, tenants or sources
+     * take turns as messages without the key, so a later one may be sent first.
+     * Messages with different keys are sent in parallel.
+     */
+    public SendOptions withOrderingKey(Object orderingKey) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    /**
+     * Tenants with buffered messages share the channel equally, a tenant with heavy traffic does not take
+     * the share of others. Weights of message types split the share of each tenant.
+     * Messages without tenant share the channel as one tenant.
+     */
+    public SendOptions withTenant(Object tenant) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    /**
+     * Producer of the message, e.g. name of the service. Messages of one type are sent giving turns to their
+     * sources one by one, so a source which submitted many messages at once does not delay others.
+     * Weights of types do not change. Messages without source share one turn.
+     * Ordering keys keep order of messages from the same source.
+     */
+    public SendOptions withSource(Object source) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    /**
+     * Message supersedes a buffered message of the same type and tenant with equal coalescing key, e.g. the next
+     * status update of the same order. It is merged into the buffered message, which keeps its turn, by
+     * {@link MultiplexerWithPriority#setMergeFunction} or replaces it by default. Both promises are completed
+     * with the result of the merged message. Messages already sent to the channel are not merged.
+     */
+    public SendOptions withCoalescingKey(Object coalescingKey) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    /**
+     * Message is an idempotent request, e.g. a tariff lookup. While a request of the same type with equal key
+     * is buffered or sent to the channel and not completed, the message is not sent again: its promise is
+     * completed with the result of that request.
+     */
+    public SendOptions withRequestKey(Object requestKey) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    /**
+     * Message is not sent before the moment, e.g. after quiet hours. Until then it waits outside of the buffer
+     * and does not take part in scheduling, at the moment it is buffered after messages buffered earlier.
+     * Message expiring before the moment is completed with {@link MultiplexedMessageSendingResult#notSent()} at once.
+     * Coalescing key of the message is taken into account only since the moment. On shutdown the message
+     * is not waited for: it is handed off to the successor with the same options or completed
+     */
+    public SendOptions withNotBefore(Instant notBefore) {
+        return new SendOptions(orderingKey, tenant, source, coalescingKey, requestKey, notBefore);
+    }
+
+    public Object getOrderingKey() {
+        return orderingKey;
+    }
+
+    public Object getTenant() {
+        return tenant;
+    }
+
+    public Object getSource() {
+        return source;
+    }
+
+    public Object getCoalescingKey() {
+        return coalescingKey;
+    }
+
+    public Object getRequestKey() {
+        return requestKey;
+    }
+
+    public Instant getNotBefore() {
+        return notBefore;
+    }
+
+    @Override
+    public String toString() {
+        return "SendOptions{" +
+                "orderingKey=" + orderingKey +
+                ", tenant=" + tenant +
+                ", source=" + source +
+                ", coalescingKey=" + coalescingKey +
+                ", requestKey=" + requestKey +
+                ", notBefore=" + notBefore +
+                '}';
+    }
+}
@@ -0,0 +1,80 @@
+package ru.fix.multiplexer;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Promises of requests which are buffered or sent to the channel and not completed yet, by type, tenant
+ * and request key. Identical requests are attached to the first one instead of taking channel slots,
+ * requests of different tenants are never attached to each other.
+ *
+ * @see SendOptions#withRequestKey(Object)
+ */
+class SingleFlight<ReturnType> {
+
+    private final ConcurrentMap<Key, CompletableFuture<MultiplexedMessageSendingResult<ReturnType>>> requests =
+            new ConcurrentHashMap<>();
+    private final LongAdder collapsed = new LongAdder();
+
+    /**
+     * Register {@code promise} as the request with the key unless an identical request is not completed yet
+     *
+     * @return promise of the identical request or {@code null} if {@code promise} is registered
+     */
+    CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> join(
+            MessageType messageType,
+            SendOptions options,
+            CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise
+    ) {
+        Key key = new Key(messageType, options);
+        CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> leader = requests.putIfAbsent(key, promise);
+        if (leader != null) {
+            collapsed.increment();
+            return leader;
+        }
+        promise.whenComplete((result, error) -> requests.remove(key, promise));
+        return null;
+    }
+
+    long getCollapsedCount() {
+        return collapsed.sum();
+    }
+
+    int size() {
+        return requests.size();
+    }
+
+    private static final class Key {
+        final MessageType messageType;
+        final Object tenant;
+        final Object requestKey;
+
+        Key(MessageType messageType, SendOptions options) {
+            this.messageType = messageType;
+            this.tenant = options.getTenant();
+            this.requestKey = options.getRequestKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return messageType.equals(key.messageType)
+                    && Objects.equals(tenant, key.tenant)
+                    && requestKey.equals(key.requestKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(messageType, tenant, requestKey);
+        }
+    }
+}
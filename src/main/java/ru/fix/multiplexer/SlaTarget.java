@@ -0,0 +1,64 @@
+package ru.fix.multiplexer;
+
+/**
+ * Latency target of a message type for automatic weight tuning
+ *
+ * @see MultiplexerConfig#slaTargets()
+ */
+public final class SlaTarget {
+
+    private final long queueWaitTargetMs;
+    private final double percentile;
+    private final int minWeight;
+    private final int maxWeight;
+
+    /**
+     * @param queueWaitTargetMs how long messages can wait in buffer before they are sent to the channel
+     * @param percentile        share of messages which should meet the target, between 0 and 1, e.g. 0.95
+     * @param minWeight         weight of the type will not be decreased below this value
+     * @param maxWeight         weight of the type will not be increased above this value
+     */
+    public SlaTarget(long queueWaitTargetMs, double percentile, int minWeight, int maxWeight) {
+        if (queueWaitTargetMs <= 0) {
+            throw new IllegalArgumentException("Queue wait target must be positive, but was " + queueWaitTargetMs);
+        }
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be in (0, 1], but was " + percentile);
+        }
+        if (minWeight <= 0 || minWeight > maxWeight) {
+            throw new IllegalArgumentException(
+                    "Weight bounds must be positive and min must not exceed max, but were " + minWeight + ".." + maxWeight
+            );
+        }
+        this.queueWaitTargetMs = queueWaitTargetMs;
+        this.percentile = percentile;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+    }
+
+    public long getQueueWaitTargetMs() {
+        return queueWaitTargetMs;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public int getMinWeight() {
+        return minWeight;
+    }
+
+    public int getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "SlaTarget{" +
+                "queueWaitTargetMs=" + queueWaitTargetMs +
+                ", percentile=" + percentile +
+                ", minWeight=" + minWeight +
+                ", maxWeight=" + maxWeight +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+package ru.fix.multiplexer;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.commons.profiler.Profiler;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts weights of message types with {@link SlaTarget} to meet their queue wait targets.
+ * <p>
+ * Every {@link MultiplexerConfig#getWeightTuningInterval()} the percentile of queue waits and count of expired
+ * messages of the last interval are compared with the target. Weight of a type which misses the target or loses
+ * messages by expiration is increased, weight of a type which is far below the target is decreased.
+ * Decisions are published as profiler indicators {@code <name>.weight.<type>} and
+ * {@code <name>.queue_wait_percentile.<type>}.
+ * <p>
+ * Not thread safe, is called by the multiplexer worker only.
+ */
+@Slf4j
+class SlaWeightController {
+
+    private static final double INCREASE_FACTOR = 1.25;
+    private static final double DECREASE_FACTOR = 0.9;
+    /**
+     * Weight is decreased when the percentile is lower than this share of the target
+     */
+    private static final double DECREASE_THRESHOLD = 0.5;
+
+    private final String name;
+    private final Profiler profiler;
+    private final MessageTypeStatistics statistics;
+    private final MultiplexerWithPriority<?, ?> multiplexer;
+
+    private final Map<MessageType, Long> waitMarks = new HashMap<>();
+    private final Map<MessageType, Long> expiredMarks = new HashMap<>();
+    private final ConcurrentMap<MessageType, Long> lastWaitPercentiles = new ConcurrentHashMap<>();
+    private final Set<String> attachedIndicators = ConcurrentHashMap.newKeySet();
+
+    private long nextTickNanos = System.nanoTime();
+
+    SlaWeightController(
+            String name,
+            Profiler profiler,
+            MessageTypeStatistics statistics,
+            MultiplexerWithPriority<?, ?> multiplexer
+    ) {
+        this.name = name;
+        this.profiler = profiler;
+        this.statistics = statistics;
+        this.multiplexer = multiplexer;
+    }
+
+    public void tickIfDue() {
+        MultiplexerConfig config = multiplexer.getMultiplexerConfig();
+        if (config.slaTargets().isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - nextTickNanos < 0) {
+            return;
+        }
+        nextTickNanos = now + TimeUnit.MILLISECONDS.toNanos(config.getWeightTuningInterval());
+        tick(config);
+    }
+
+    void tick(MultiplexerConfig config) {
+        Map<MessageType, Integer> newWeights = new LinkedHashMap<>();
+        config.slaTargets().forEach((messageType, target) -> {
+            Integer weight = config.registeredMessages().get(messageType);
+            if (weight == null) {
+                return;
+            }
+            attachIndicators(messageType);
+
+            long waitMark = waitMarks.getOrDefault(messageType, 0L);
+            waitMarks.put(messageType, statistics.recordedWaits(messageType));
+            long waitPercentile = statistics.waitPercentileSince(messageType, waitMark, target.getPercentile());
+
+            long expired = statistics.expired(messageType);
+            long expiredInInterval = expired - expiredMarks.getOrDefault(messageType, expired);
+            expiredMarks.put(messageType, expired);
+
+            if (waitPercentile >= 0) {
+                lastWaitPercentiles.put(messageType, waitPercentile);
+            }
+
+            int newWeight = weight;
+            if (expiredInInterval > 0 || waitPercentile > target.getQueueWaitTargetMs()) {
+                newWeight = Math.min(target.getMaxWeight(), Math.max(weight + 1, (int) (weight * INCREASE_FACTOR)));
+            } else if (waitPercentile >= 0 && waitPercentile < target.getQueueWaitTargetMs() * DECREASE_THRESHOLD) {
+                newWeight = Math.max(target.getMinWeight(), Math.min(weight - 1, (int) (weight * DECREASE_FACTOR)));
+            }
+            newWeight = Math.max(target.getMinWeight(), Math.min(target.getMaxWeight(), newWeight));
+
+            if (newWeight != weight) {
+                log.debug("Multiplexer '{}' changes weight of {} from {} to {}: wait percentile {} ms, expired {}, {}",
+                        name, messageType, weight, newWeight, waitPercentile, expiredInInterval, target);
+                profiler.call(name + (newWeight > weight ? ".weight_increased" : ".weight_decreased"));
+                newWeights.put(messageType, newWeight);
+            }
+        });
+
+        if (!newWeights.isEmpty()) {
+            multiplexer.updateConfig(currentConfig -> {
+                ImmutableMultiplexerConfig newConfig = new ImmutableMultiplexerConfig(currentConfig);
+                for (Map.Entry<MessageType, Integer> newWeight : newWeights.entrySet()) {
+                    if (currentConfig.registeredMessages().containsKey(newWeight.getKey())) {
+                        newConfig = newConfig.withWeight(newWeight.getKey(), newWeight.getValue());
+                    }
+                }
+                return newConfig;
+            }, false);
+        }
+    }
+
+    /**
+     * Queue wait percentile of the type measured at the last tick in milliseconds or -1 if it was not measured
+     */
+    public long lastWaitPercentile(MessageType messageType) {
+        return lastWaitPercentiles.getOrDefault(messageType, -1L);
+    }
+
+    public void close() {
+        attachedIndicators.forEach(profiler::detachIndicator);
+        attachedIndicators.clear();
+    }
+
+    private void attachIndicators(MessageType messageType) {
+        String weightIndicator = name + ".weight." + messageType;
+        if (attachedIndicators.add(weightIndicator)) {
+            profiler.attachIndicator(weightIndicator, () -> {
+                Integer weight = multiplexer.getMultiplexerConfig().registeredMessages().get(messageType);
+                return weight == null ? 0L : weight.longValue();
+            });
+        }
+        String percentileIndicator = name + ".queue_wait_percentile." + messageType;
+        if (attachedIndicators.add(percentileIndicator)) {
+            profiler.attachIndicator(percentileIndicator, () -> lastWaitPercentile(messageType));
+        }
+    }
+}
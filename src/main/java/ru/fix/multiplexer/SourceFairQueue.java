@@ -0,0 +1,116 @@
+package ru.fix.multiplexer;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Queue of one message type which gives turns to sources of messages one by one.
+ * Every source has its own FIFO sub-queue, so a source which submitted many messages at once
+ * does not delay messages of other sources. Elements without source share one sub-queue.
+ * All operations are guarded by the queue monitor.
+ *
+ * @see SendOptions#withSource(Object)
+ */
+class SourceFairQueue<E> {
+
+    private final Function<E, Object> sourceOf;
+    private final Map<Object, SourceQueue<E>> sources = new HashMap<>();
+    /**
+     * Sources with elements in order of their turns
+     */
+    private final ArrayDeque<SourceQueue<E>> activeSources = new ArrayDeque<>();
+    private int size;
+
+    SourceFairQueue(Function<E, Object> sourceOf) {
+        this.sourceOf = sourceOf;
+    }
+
+    synchronized void add(E element) {
+        Object source = sourceOf.apply(element);
+        SourceQueue<E> sourceQueue = sources.get(source);
+        if (sourceQueue == null) {
+            sourceQueue = new SourceQueue<>(source);
+            sources.put(source, sourceQueue);
+            activeSources.addLast(sourceQueue);
+        }
+        sourceQueue.elements.addLast(element);
+        size++;
+    }
+
+    /**
+     * Poll the first element of the source in turn, the source moves to the end of the line
+     */
+    synchronized E poll() {
+        SourceQueue<E> sourceQueue = activeSources.pollFirst();
+        if (sourceQueue == null) {
+            return null;
+        }
+        E element = sourceQueue.elements.pollFirst();
+        afterPoll(sourceQueue);
+        return element;
+    }
+
+    /**
+     * Poll the first element accepted by {@code predicate} giving turns to sources one by one,
+     * elements before it keep their order. If there is no such element return {@code null}
+     */
+    synchronized E poll(Predicate<E> predicate) {
+        Iterator<SourceQueue<E>> activeIterator = activeSources.iterator();
+        while (activeIterator.hasNext()) {
+            SourceQueue<E> sourceQueue = activeIterator.next();
+            Iterator<E> elements = sourceQueue.elements.iterator();
+            while (elements.hasNext()) {
+                E element = elements.next();
+                if (predicate.test(element)) {
+                    elements.remove();
+                    activeIterator.remove();
+                    afterPoll(sourceQueue);
+                    return element;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Poll elements one by one, {@code consumer} is called without holding the queue monitor
+     */
+    void pollAll(Consumer<E> consumer) {
+        E element;
+        while ((element = poll()) != null) {
+            consumer.accept(element);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int sourceCount() {
+        return sources.size();
+    }
+
+    private void afterPoll(SourceQueue<E> sourceQueue) {
+        size--;
+        if (sourceQueue.elements.isEmpty()) {
+            sources.remove(sourceQueue.source);
+        } else {
+            activeSources.addLast(sourceQueue);
+        }
+    }
+
+    private static final class SourceQueue<E> {
+        final Object source;
+        final ArrayDeque<E> elements = new ArrayDeque<>();
+
+        SourceQueue(Object source) {
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package ru.fix.multiplexer;
+
+import ru.fix.commons.profiler.Profiler;
+import ru.fix.multiplexer.priority.Recommender;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Two level scheduling: tenants with buffered messages get turns one by one,
+ * inside the tenant the type of message is chosen by its own {@link Recommender}.
+ * <p>
+ * Tenant is created on its first message and is removed after it has no buffered messages
+ * for the idle timeout. Messages without tenant belong to the default tenant, so without tenants
+ * the multiplexer behaves exactly as with a single buffer.
+ * A decision costs O(1) in tenant count while the next tenant in turn has a message which can be sent now.
+ * <p>
+ * Producers do not take the scheduler monitor held by the worker during a decision: a message is added to
+ * the buffer of its tenant, and a tenant which had no messages is handed to the worker through a lock-free
+ * queue of activations. Turns, idle tenants and recommenders are used only under the monitor.
+ *
+ * @see SendOptions#withTenant(Object)
+ */
+class TenantScheduler<MsgType, ReturnType> {
+
+    private static final Object DEFAULT_TENANT = new Object() {
+        @Override
+        public String toString() {
+            return "default tenant";
+        }
+    };
+
+    private final String bufferName;
+    private final Profiler profiler;
+    private final Function<Map<MessageType, Integer>, Recommender> recommenderFactory;
+    private final LongSupplier clock;
+
+    /**
+     * Messages are added and idle tenants are removed only inside {@code compute} of the tenant key
+     */
+    private final ConcurrentMap<Object, Tenant> tenants = new ConcurrentHashMap<>();
+    /**
+     * Tenants activated by producers and not taken into turns yet
+     */
+    private final Queue<Tenant> activations = new ConcurrentLinkedQueue<>();
+    /**
+     * Tenants with buffered messages in order of their turns. Guarded by this
+     */
+    private final ArrayDeque<Tenant> activeTenants = new ArrayDeque<>();
+    /**
+     * Tenants without buffered messages in order they became idle. Guarded by this
+     */
+    private final LinkedHashMap<Object, Tenant> idleTenants = new LinkedHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile Map<MessageType, Integer> registeredMessages;
+    private volatile long idleTimeoutMs;
+
+    TenantScheduler(String bufferName,
+                    Profiler profiler,
+                    MultiplexerConfig config,
+                    Function<Map<MessageType, Integer>, Recommender> recommenderFactory,
+                    LongSupplier clock) {
+        this.bufferName = bufferName;
+        this.profiler = profiler;
+        this.recommenderFactory = recommenderFactory;
+        this.clock = clock;
+        this.registeredMessages = config.registeredMessages();
+        this.idleTimeoutMs = config.getTenantIdleTimeout();
+    }
+
+    void add(MessageContainer<MsgType, ReturnType> message) {
+        Tenant tenant = tenants.compute(tenantKey(message), (key, current) -> {
+            Tenant target = current != null ? current : new Tenant(key);
+            // counted before the message is visible, so the worker never sees negative size
+            size.incrementAndGet();
+            target.buffer.add(message);
+            return target;
+        });
+        if (tenant.active.compareAndSet(false, true)) {
+            activations.add(tenant);
+        }
+    }
+
+    /**
+     * Give turns to tenants with buffered messages until {@code finder} finds a message which can be sent now.
+     * The tenant which gave the message moves to the end of the line.
+     *
+     * @param finder chooses the message from the tenant buffer by tenant recommendations,
+     *               returns {@code null} if no message of the tenant can be sent now
+     * @return {@code null} if no message can be sent now
+     */
+    synchronized MessageContainer<MsgType, ReturnType> poll(
+            BiFunction<Buffer<MsgType, ReturnType>, Recommender, MessageContainer<MsgType, ReturnType>> finder
+    ) {
+        reclaimIdleTenants();
+        takeActivations();
+        for (int turns = activeTenants.size(); turns > 0; turns--) {
+            Tenant tenant = activeTenants.pollFirst();
+            MessageContainer<MsgType, ReturnType> message = null;
+            try {
+                if (!tenant.buffer.isEmpty()) {
+                    message = finder.apply(tenant.buffer, tenant.recommender());
+                }
+            } finally {
+                if (message != null) {
+                    size.decrementAndGet();
+                }
+                if (tenant.buffer.isEmpty()) {
+                    deactivate(tenant);
+                } else {
+                    activeTenants.addLast(tenant);
+                }
+            }
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Account message which has been chosen for sending by its tenant recommender
+     */
+    synchronized void onDispatched(MessageContainer<MsgType, ReturnType> message) {
+        Tenant tenant = tenants.get(tenantKey(message));
+        if (tenant != null) {
+            tenant.recommender().add(message.getMessageType(), message.getCost());
+        }
+    }
+
+    synchronized void reconfigure(MultiplexerConfig config) {
+        registeredMessages = config.registeredMessages();
+        idleTimeoutMs = config.getTenantIdleTimeout();
+        tenants.values().forEach(tenant -> {
+            if (tenant.recommender != null && !tenant.recommender.reconfigure(registeredMessages)) {
+                tenant.recommender = recommenderFactory.apply(registeredMessages);
+            }
+        });
+    }
+
+    /**
+     * Create recommenders of all tenants again, e.g. when the factory chooses another kind of recommender
+     */
+    synchronized void replaceRecommenders() {
+        tenants.values().forEach(tenant -> {
+            if (tenant.recommender != null) {
+                tenant.recommender = recommenderFactory.apply(registeredMessages);
+            }
+        });
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    int tenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * Poll messages of all tenants one by one, {@code processor} is called without holding the scheduler monitor
+     */
+    void pollAndProcessAllMessages(Consumer<MessageContainer<MsgType, ReturnType>> processor) {
+        tenants.values().forEach(tenant -> tenant.buffer.pollAndProcessAllMessages(message -> {
+            size.decrementAndGet();
+            processor.accept(message);
+        }));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TenantScheduler{" +
+                "tenants=" + tenants.size() +
+                ", activeTenants=" + activeTenants +
+                '}';
+    }
+
+    private void takeActivations() {
+        Tenant tenant;
+        while ((tenant = activations.poll()) != null) {
+            idleTenants.remove(tenant.key, tenant);
+            activeTenants.addLast(tenant);
+        }
+    }
+
+    /**
+     * Tenant leaves the line, unless a producer has added a message after the buffer was found empty
+     */
+    private void deactivate(Tenant tenant) {
+        tenant.active.set(false);
+        if (!tenant.buffer.isEmpty() && tenant.active.compareAndSet(false, true)) {
+            activeTenants.addLast(tenant);
+            return;
+        }
+        tenant.idleSince = clock.getAsLong();
+        idleTenants.put(tenant.key, tenant);
+    }
+
+    private void reclaimIdleTenants() {
+        if (idleTenants.isEmpty()) {
+            return;
+        }
+        long idleBefore = clock.getAsLong() - idleTimeoutMs;
+        Iterator<Tenant> iterator = idleTenants.values().iterator();
+        while (iterator.hasNext()) {
+            Tenant tenant = iterator.next();
+            if (tenant.idleSince > idleBefore) {
+                return;
+            }
+            iterator.remove();
+            // a producer may be adding a message right now, such tenant stays
+            tenants.computeIfPresent(tenant.key, (key, current) ->
+                    current == tenant && !current.active.get() && current.buffer.isEmpty() ? null : current
+            );
+        }
+    }
+
+    private Object tenantKey(MessageContainer<MsgType, ReturnType> message) {
+        Object tenant = message.getOptions().getTenant();
+        return tenant != null ? tenant : DEFAULT_TENANT;
+    }
+
+    private final class Tenant {
+        final Object key;
+        final Buffer<MsgType, ReturnType> buffer;
+        /**
+         * Tenant is in turns or in activations
+         */
+        final AtomicBoolean active = new AtomicBoolean();
+        /**
+         * Created by the worker on the first decision. Guarded by the scheduler monitor
+         */
+        Recommender recommender;
+        /**
+         * Guarded by the scheduler monitor
+         */
+        long idleSince;
+
+        Tenant(Object key) {
+            this.key = key;
+            this.buffer = new Buffer<>(bufferName, profiler);
+        }
+
+        Recommender recommender() {
+            if (recommender == null) {
+                recommender = recommenderFactory.apply(registeredMessages);
+            }
+            return recommender;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + buffer;
+        }
+    }
+}
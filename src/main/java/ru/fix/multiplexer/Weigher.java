@@ -0,0 +1,16 @@
+package ru.fix.multiplexer;
+
+/**
+ * Estimates memory retained by a message, e.g. size of its serialized payload in bytes
+ *
+ * @see MultiplexerWithPriority#setWeigher(Weigher)
+ * @see MultiplexerConfig#getBufferWeightLimit()
+ */
+@FunctionalInterface
+public interface Weigher<MsgType> {
+
+    /**
+     * @return not negative weight of the message
+     */
+    long weigh(MsgType message);
+}
@@ -0,0 +1,101 @@
+package ru.fix.multiplexer.capture;
+
+import ru.fix.multiplexer.MessageType;
+
+/**
+ * Message read from a traffic capture
+ */
+public final class CapturedMessage {
+
+    private final MessageType messageType;
+    private final long arrivalMs;
+    private final long expirationMs;
+    private final int payloadSize;
+    private final long channelLatencyMicros;
+    private final Outcome outcome;
+
+    public CapturedMessage(MessageType messageType,
+                           long arrivalMs,
+                           long expirationMs,
+                           int payloadSize,
+                           long channelLatencyMicros,
+                           Outcome outcome) {
+        this.messageType = messageType;
+        this.arrivalMs = arrivalMs;
+        this.expirationMs = expirationMs;
+        this.payloadSize = payloadSize;
+        this.channelLatencyMicros = channelLatencyMicros;
+        this.outcome = outcome;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
+    }
+
+    public long getArrivalMs() {
+        return arrivalMs;
+    }
+
+    public long getExpirationMs() {
+        return expirationMs;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * -1 if message was not sent to channel
+     */
+    public long getChannelLatencyMicros() {
+        return channelLatencyMicros;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    @Override
+    public String toString() {
+        return "CapturedMessage{" +
+                "messageType=" + messageType +
+                ", arrivalMs=" + arrivalMs +
+                ", expirationMs=" + expirationMs +
+                ", payloadSize=" + payloadSize +
+                ", channelLatencyMicros=" + channelLatencyMicros +
+                ", outcome=" + outcome +
+                '}';
+    }
+
+    public enum Outcome {
+        /**
+         * Channel completed message successfully
+         */
+        SENT,
+        /**
+         * Channel failed to send message
+         */
+        FAILED,
+        /**
+         * Message expired in buffer and was not sent to channel
+         */
+        EXPIRED,
+        /**
+         * Message was discarded on force shutdown or arrived after shutdown
+         */
+        NOT_SENT_SHUTTING_DOWN,
+        /**
+         * Message was not accepted by admission control or buffer weight limits
+         */
+        REJECTED,
+        /**
+         * Message was merged into a buffered message with the same coalescing key or attached to the request
+         * with the same request key, it completes with the result of that message
+         */
+        MERGED,
+        /**
+         * Message was passed to the successor multiplexer
+         */
+        HANDED_OFF
+    }
+}
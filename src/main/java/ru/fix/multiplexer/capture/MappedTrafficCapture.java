@@ -0,0 +1,168 @@
+package ru.fix.multiplexer.capture;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.multiplexer.MessageType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Writes captured traffic into a memory mapped file.
+ * <p>
+ * File starts with {@link #MAGIC} int and {@link #VERSION} short, followed by records:
+ * <ul>
+ * <li>{@link #TYPE_RECORD} byte, type id int, name length short, UTF-8 name - defines id of a message type
+ * before its first message</li>
+ * <li>{@link #MESSAGE_RECORD} byte, type id int, arrival epoch millis long, TTL millis int, payload size int,
+ * channel latency micros int, {@link CapturedMessage.Outcome} ordinal byte - 26 bytes per message</li>
+ * <li>{@link #END_OF_DATA} byte or end of file</li>
+ * </ul>
+ * The file grows by mapped regions of {@code regionSize} bytes. On close all regions are forced to the storage
+ * and the file is truncated to written data.
+ */
+@Slf4j
+public class MappedTrafficCapture<MsgType> implements TrafficCapture<MsgType>, Closeable {
+
+    static final int MAGIC = 0x4D584350;
+    static final short VERSION = 1;
+    static final byte END_OF_DATA = 0;
+    static final byte TYPE_RECORD = 1;
+    static final byte MESSAGE_RECORD = 2;
+
+    private static final int MESSAGE_RECORD_SIZE = 1 + 4 + 8 + 4 + 4 + 4 + 1;
+    private static final long DEFAULT_REGION_SIZE = 16L * 1024 * 1024;
+    /**
+     * fits the longest type record
+     */
+    private static final long MIN_REGION_SIZE = 64 * 1024;
+
+    private final ToIntFunction<? super MsgType> payloadSize;
+    private final long regionSize;
+    private final FileChannel file;
+    /**
+     * Guarded by this
+     */
+    private final Map<MessageType, Integer> typeIds = new HashMap<>();
+    /**
+     * Filled regions which are forced to the file on close. Guarded by this
+     */
+    private final List<MappedByteBuffer> filledRegions = new ArrayList<>();
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean closed;
+
+    public MappedTrafficCapture(Path path, ToIntFunction<? super MsgType> payloadSize) throws IOException {
+        this(path, payloadSize, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param payloadSize size of message payload in bytes
+     * @param regionSize  how many bytes are mapped at once
+     */
+    public MappedTrafficCapture(Path path,
+                                ToIntFunction<? super MsgType> payloadSize,
+                                long regionSize) throws IOException {
+        if (regionSize < MIN_REGION_SIZE) {
+            throw new IllegalArgumentException(
+                    "Region size must be at least " + MIN_REGION_SIZE + " bytes, but was " + regionSize
+            );
+        }
+        this.payloadSize = payloadSize;
+        this.regionSize = regionSize;
+        this.file = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        this.region = file.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+        region.putInt(MAGIC).putShort(VERSION);
+    }
+
+    @Override
+    public void record(MsgType message,
+                       MessageType messageType,
+                       long arrivalMs,
+                       long expirationMs,
+                       long channelLatencyMicros,
+                       CapturedMessage.Outcome outcome) {
+        int size = message == null ? 0 : payloadSize.applyAsInt(message);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Integer typeId = typeIds.get(messageType);
+            if (typeId == null) {
+                typeId = typeIds.size();
+                typeIds.put(messageType, typeId);
+                byte[] name = messageType.toString().getBytes(StandardCharsets.UTF_8);
+                ensureRemaining(1 + 4 + 2 + name.length);
+                region.put(TYPE_RECORD).putInt(typeId).putShort((short) name.length).put(name);
+            }
+            ensureRemaining(MESSAGE_RECORD_SIZE);
+            region.put(MESSAGE_RECORD)
+                    .putInt(typeId)
+                    .putLong(arrivalMs)
+                    .putInt(clampToInt(expirationMs - arrivalMs))
+                    .putInt(size)
+                    .putInt(clampToInt(channelLatencyMicros))
+                    .put((byte) outcome.ordinal());
+        }
+    }
+
+    /**
+     * Count of bytes written to the file
+     */
+    public synchronized long size() {
+        return regionStart + region.position();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long size = size();
+        try {
+            filledRegions.forEach(MappedByteBuffer::force);
+            filledRegions.clear();
+            region.force();
+            try {
+                file.truncate(size);
+            } catch (IOException e) {
+                log.warn("Failed to truncate traffic capture to {} bytes, the rest of file is zero filled", size, e);
+            }
+            file.force(true);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (region.remaining() > bytes) {
+            // keep at least one zero byte after data as the end marker
+            return;
+        }
+        try {
+            regionStart += region.position();
+            filledRegions.add(region);
+            region = file.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map next region of traffic capture", e);
+        }
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+}
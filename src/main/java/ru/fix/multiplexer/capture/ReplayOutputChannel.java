@@ -0,0 +1,66 @@
+package ru.fix.multiplexer.capture;
+
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MultiplexerOutputChannel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stub channel for {@link TrafficReplay}. Completes every message after its captured channel latency,
+ * messages which failed in the capture fail again.
+ */
+public class ReplayOutputChannel implements MultiplexerOutputChannel<CapturedMessage, CapturedMessage>, AutoCloseable {
+
+    private final int capacity;
+    private final double speedup;
+    private final long defaultLatencyMicros;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final ScheduledExecutorService completions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replay-output-channel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param capacity             how many messages channel processes at once
+     * @param speedup              latencies are divided by this value, should be the same as in {@link TrafficReplay}
+     * @param defaultLatencyMicros latency of messages which were not sent to channel in the capture
+     */
+    public ReplayOutputChannel(int capacity, double speedup, long defaultLatencyMicros) {
+        this.capacity = capacity;
+        this.speedup = speedup;
+        this.defaultLatencyMicros = defaultLatencyMicros;
+    }
+
+    @Override
+    public CompletableFuture<CapturedMessage> send(CapturedMessage message, ExpirationDate expirationTime) {
+        CompletableFuture<CapturedMessage> promise = new CompletableFuture<>();
+        outstanding.incrementAndGet();
+        long latencyMicros = message.getChannelLatencyMicros() >= 0
+                ? message.getChannelLatencyMicros()
+                : defaultLatencyMicros;
+        completions.schedule(() -> {
+            outstanding.decrementAndGet();
+            if (message.getOutcome() == CapturedMessage.Outcome.FAILED) {
+                promise.completeExceptionally(new IllegalStateException("Message failed in capture: " + message));
+            } else {
+                promise.complete(message);
+            }
+        }, (long) (latencyMicros / speedup), TimeUnit.MICROSECONDS);
+        return promise;
+    }
+
+    @Override
+    public boolean hasFreeSlot() {
+        return outstanding.get() < capacity;
+    }
+
+    @Override
+    public void close() {
+        completions.shutdownNow();
+    }
+}
@@ -0,0 +1,27 @@
+package ru.fix.multiplexer.capture;
+
+import ru.fix.multiplexer.MessageType;
+
+/**
+ * Hook which receives every message arrived to the multiplexer once it is completed, rejected, merged into another
+ * message or handed off, so captured traffic keeps the whole load including the part the multiplexer did not send.
+ * Called from the multiplexer worker and from threads completing channel promises, so it must be thread safe
+ * and must not block.
+ *
+ * @see ru.fix.multiplexer.MultiplexerWithPriority#setTrafficCapture(TrafficCapture)
+ */
+public interface TrafficCapture<MsgType> {
+
+    /**
+     * @param message              {@code null} if the message was sent lazily and has not been built
+     * @param arrivalMs            when message was submitted to multiplexer, epoch millis
+     * @param expirationMs         expiration date of message, epoch millis
+     * @param channelLatencyMicros how long channel processed message, -1 if message was not sent to channel
+     */
+    void record(MsgType message,
+                MessageType messageType,
+                long arrivalMs,
+                long expirationMs,
+                long channelLatencyMicros,
+                CapturedMessage.Outcome outcome);
+}
@@ -0,0 +1,77 @@
+package ru.fix.multiplexer.capture;
+
+import ru.fix.multiplexer.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads files written by {@link MappedTrafficCapture}
+ */
+public final class TrafficCaptureReader {
+
+    private static final CapturedMessage.Outcome[] OUTCOMES = CapturedMessage.Outcome.values();
+
+    private TrafficCaptureReader() {
+    }
+
+    /**
+     * Captured messages in the order they were completed
+     */
+    public static List<CapturedMessage> readAll(Path path) throws IOException {
+        List<CapturedMessage> messages = new ArrayList<>();
+        Map<Integer, MessageType> types = new HashMap<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int magic = input.readInt();
+            short version = input.readShort();
+            if (magic != MappedTrafficCapture.MAGIC || version != MappedTrafficCapture.VERSION) {
+                throw new IOException(String.format(
+                        "%s is not a traffic capture of version %s", path, MappedTrafficCapture.VERSION
+                ));
+            }
+            while (true) {
+                byte recordType;
+                try {
+                    recordType = input.readByte();
+                } catch (EOFException e) {
+                    return messages;
+                }
+                switch (recordType) {
+                    case MappedTrafficCapture.END_OF_DATA:
+                        return messages;
+                    case MappedTrafficCapture.TYPE_RECORD:
+                        int typeId = input.readInt();
+                        byte[] name = new byte[input.readShort()];
+                        input.readFully(name);
+                        types.put(typeId, new MessageType(new String(name, StandardCharsets.UTF_8)));
+                        break;
+                    case MappedTrafficCapture.MESSAGE_RECORD:
+                        MessageType messageType = types.get(input.readInt());
+                        long arrivalMs = input.readLong();
+                        long expirationMs = arrivalMs + input.readInt();
+                        int payloadSize = input.readInt();
+                        long channelLatencyMicros = input.readInt();
+                        CapturedMessage.Outcome outcome = OUTCOMES[input.readByte()];
+                        if (messageType == null) {
+                            throw new IOException("Message of undefined type in " + path);
+                        }
+                        messages.add(new CapturedMessage(
+                                messageType, arrivalMs, expirationMs, payloadSize, channelLatencyMicros, outcome
+                        ));
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + recordType + " in " + path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.fix.multiplexer.capture;
+
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.MultiplexerInput;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds captured traffic into a multiplexer keeping the original intervals between arrivals, TTLs of messages
+ * and their types. Messages are the captured records themselves, so {@link ReplayOutputChannel} can reproduce
+ * the captured channel latency and outcome of each of them.
+ */
+public class TrafficReplay {
+
+    private final List<CapturedMessage> messages;
+    private final double speedup;
+
+    /**
+     * @param speedup how many times faster than captured traffic messages are sent, 1 - real speed.
+     *                Intervals between arrivals and TTLs are divided by this value
+     */
+    public TrafficReplay(List<CapturedMessage> messages, double speedup) {
+        if (!(speedup > 0) || Double.isInfinite(speedup)) {
+            throw new IllegalArgumentException("Speedup must be positive and finite, but was " + speedup);
+        }
+        this.messages = new ArrayList<>(messages);
+        this.messages.sort(Comparator.comparingLong(CapturedMessage::getArrivalMs));
+        this.speedup = speedup;
+    }
+
+    /**
+     * Send all messages blocking the caller until the last one is submitted
+     *
+     * @return promises of messages in the order of arrival
+     */
+    public <ReturnType> List<CompletableFuture<MultiplexedMessageSendingResult<ReturnType>>> replay(
+            MultiplexerInput<CapturedMessage, ReturnType> multiplexer
+    ) throws InterruptedException {
+        List<CompletableFuture<MultiplexedMessageSendingResult<ReturnType>>> promises = new ArrayList<>();
+        if (messages.isEmpty()) {
+            return promises;
+        }
+        long firstArrivalMs = messages.get(0).getArrivalMs();
+        long startNanos = System.nanoTime();
+        for (CapturedMessage message : messages) {
+            long dueNanos = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(message.getArrivalMs() - firstArrivalMs)
+                    / speedup);
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            long ttlMs = (long) ((message.getExpirationMs() - message.getArrivalMs()) / speedup);
+            promises.add(multiplexer.send(message, message.getMessageType(), ExpirationDate.expiresIn(ttlMs)));
+        }
+        return promises;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.fix.multiplexer.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory mapped file shared by one producer process and the host ingress.
+ * <p>
+ * File starts with {@link #MAGIC} int, {@link #VERSION} short and ring size int in a header of
+ * {@link #HEADER_BYTES} bytes, followed by the request ring written by the producer and the response ring
+ * written by the host, see {@link SharedRing}.
+ * <ul>
+ * <li>request payload: request id long, expiration epoch millis long, type name length short,
+ * UTF-8 type name, message bytes</li>
+ * <li>response payload: request id long, status byte - ordinal of
+ * {@link ru.fix.multiplexer.MultiplexedMessageSendingResult.Status} or {@link #FAILED}</li>
+ * </ul>
+ */
+class SharedMemoryChannel {
+
+    static final int MAGIC = 0x4D584950;
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RESPONSE_BYTES = 8 + 1;
+    /**
+     * Channel completed the message exceptionally or the host failed to submit it
+     */
+    static final byte FAILED = -1;
+
+    private final Path path;
+    private final SharedRing requests;
+    private final SharedRing responses;
+
+    private SharedMemoryChannel(Path path, MappedByteBuffer file, int ringBytes) {
+        this.path = path;
+        this.requests = new SharedRing(region(file, HEADER_BYTES, ringBytes));
+        this.responses = new SharedRing(region(file, HEADER_BYTES + ringBytes, ringBytes));
+    }
+
+    /**
+     * Create the file with empty rings, existing file is truncated
+     *
+     * @param dataBytes size of the data area of every ring, rounded up to a multiple of 8
+     */
+    static SharedMemoryChannel create(Path path, int dataBytes) throws IOException {
+        if (dataBytes <= 0) {
+            throw new IllegalArgumentException("Ring size must be positive, but was " + dataBytes);
+        }
+        int ringBytes = SharedRing.CONTROL_BYTES + SharedRing.align(dataBytes);
+        try (FileChannel file = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapping = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 2L * ringBytes);
+            mapping.putShort(4, VERSION).putInt(6, ringBytes);
+            // the host accepts the file only after the header is complete
+            mapping.putInt(0, MAGIC);
+            return new SharedMemoryChannel(path, mapping, ringBytes);
+        }
+    }
+
+    static SharedMemoryChannel open(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = file.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+                throw new IOException("File " + path + " is not a shared memory channel of version " + VERSION);
+            }
+            int ringBytes = header.getInt(6);
+            MappedByteBuffer mapping = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 2L * ringBytes);
+            return new SharedMemoryChannel(path, mapping, ringBytes);
+        }
+    }
+
+    private static ByteBuffer region(MappedByteBuffer file, int offset, int length) {
+        ByteBuffer region = file.duplicate();
+        region.position(offset);
+        region.limit(offset + length);
+        return region.slice();
+    }
+
+    SharedRing getRequests() {
+        return requests;
+    }
+
+    SharedRing getResponses() {
+        return responses;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryChannel{" + path + '}';
+    }
+}
@@ -0,0 +1,222 @@
+package ru.fix.multiplexer.ipc;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.commons.profiler.Profiler;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.MultiplexerInput;
+import ru.fix.stdlib.concurrency.threads.NamedExecutors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Host level entry of messages from producer processes on the same host, so one multiplexer sees
+ * priorities of all of them. Every producer has its own memory mapped file with a request ring and a response
+ * ring, see {@link SharedMemoryProducer}.
+ * <p>
+ * Multiplexer receives read-only views of the request ring without copying, space of a request is returned
+ * to the producer when its promise and promises of all older requests of the producer are completed,
+ * so the output channel must not use the view after its future is completed. Responses are written in order
+ * of requests of the producer. Rings are read and written only by the thread calling {@link #poll()},
+ * promises hand their results to it through a queue.
+ */
+@Slf4j
+public class SharedMemoryIngress implements AutoCloseable {
+
+    /**
+     * How long the polling thread sleeps when there are no requests and responses
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String name;
+    private final MultiplexerInput<ByteBuffer, ?> multiplexer;
+    private final Profiler profiler;
+    private final List<Producer> producers = new CopyOnWriteArrayList<>();
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+    /**
+     * Used only by the polling thread
+     */
+    private final Map<String, MessageType> messageTypes = new HashMap<>();
+    private volatile ExecutorService poller;
+
+    public SharedMemoryIngress(String name, MultiplexerInput<ByteBuffer, ?> multiplexer, Profiler profiler) {
+        this.name = name;
+        this.multiplexer = multiplexer;
+        this.profiler = profiler;
+    }
+
+    /**
+     * Receive messages of the producer which created the file by {@link SharedMemoryProducer#create(Path, int)}
+     */
+    public void attach(Path path) throws IOException {
+        SharedMemoryChannel channel = SharedMemoryChannel.open(path);
+        producers.add(new Producer(channel));
+        log.info("Ingress '{}' attached {}", name, channel);
+    }
+
+    /**
+     * Poll all producers on a separate thread until {@link #close()}
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            throw new IllegalStateException("Ingress '" + name + "' is already started");
+        }
+        poller = NamedExecutors.newSingleThreadPool(name, profiler);
+        poller.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (poll() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        });
+        poller.shutdown();
+    }
+
+    /**
+     * Submit new requests of all producers to the multiplexer and write responses of completed ones.
+     * Must not be called concurrently
+     *
+     * @return count of processed requests and responses
+     */
+    public int poll() {
+        int processed = 0;
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            completion.request.status = completion.status;
+            processed++;
+        }
+        for (Producer producer : producers) {
+            processed += producer.writeResponses();
+            processed += producer.submitRequests();
+        }
+        return processed;
+    }
+
+    @Override
+    public void close() {
+        ExecutorService currentPoller = poller;
+        if (currentPoller != null) {
+            currentPoller.shutdownNow();
+        }
+    }
+
+    private MessageType messageType(String typeName) {
+        return messageTypes.computeIfAbsent(typeName, MessageType::new);
+    }
+
+    private static byte status(MultiplexedMessageSendingResult<?> result, Throwable error) {
+        return error != null || result == null
+                ? SharedMemoryChannel.FAILED
+                : (byte) result.getStatus().ordinal();
+    }
+
+    private final class Producer {
+        private final SharedMemoryChannel channel;
+        /**
+         * Requests in order of the request ring, completed requests at its head are released
+         */
+        private final ArrayDeque<Request> requests = new ArrayDeque<>();
+
+        Producer(SharedMemoryChannel channel) {
+            this.channel = channel;
+        }
+
+        int submitRequests() {
+            int submitted = 0;
+            SharedRing.Record record;
+            while ((record = channel.getRequests().poll()) != null) {
+                ByteBuffer payload = record.getPayload();
+                Request request = new Request(payload.getLong(), record.getEnd());
+                ExpirationDate expirationDate = ExpirationDate.expiresOn(Instant.ofEpochMilli(payload.getLong()));
+                byte[] type = new byte[payload.getShort()];
+                payload.get(type);
+                requests.addLast(request);
+                submitted++;
+                CompletableFuture<? extends MultiplexedMessageSendingResult<?>> promise;
+                try {
+                    promise = multiplexer.send(
+                            payload.slice(), messageType(new String(type, StandardCharsets.UTF_8)), expirationDate
+                    );
+                } catch (RuntimeException e) {
+                    log.error("Ingress '{}' failed to submit request {} of {}", name, request.id, channel, e);
+                    request.status = SharedMemoryChannel.FAILED;
+                    continue;
+                }
+                promise.whenComplete(
+                        (result, error) -> completions.add(new Completion(request, status(result, error)))
+                );
+            }
+            if (submitted > 0) {
+                profiler.call(name + ".ipc_requests");
+            }
+            return submitted;
+        }
+
+        /**
+         * Write responses of completed requests at the head and release their space in the request ring,
+         * response ring which is full is written by the next poll
+         */
+        int writeResponses() {
+            int written = 0;
+            long releasedEnd = -1;
+            Request request;
+            while ((request = requests.peekFirst()) != null && request.status != null) {
+                Request completed = request;
+                boolean offered = channel.getResponses().offer(
+                        SharedMemoryChannel.RESPONSE_BYTES,
+                        response -> response.putLong(completed.id).put(completed.status)
+                );
+                if (!offered) {
+                    break;
+                }
+                requests.pollFirst();
+                releasedEnd = completed.end;
+                written++;
+            }
+            if (releasedEnd >= 0) {
+                channel.getRequests().release(releasedEnd);
+            }
+            return written;
+        }
+    }
+
+    private static final class Request {
+        final long id;
+        final long end;
+        /**
+         * Used only by the polling thread, {@code null} until the request is completed
+         */
+        Byte status;
+
+        Request(long id, long end) {
+            this.id = id;
+            this.end = end;
+        }
+    }
+
+    private static final class Completion {
+        final Request request;
+        final byte status;
+
+        Completion(Request request, byte status) {
+            this.request = request;
+            this.status = status;
+        }
+    }
+}
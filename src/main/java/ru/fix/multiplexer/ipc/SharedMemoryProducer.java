@@ -0,0 +1,130 @@
+package ru.fix.multiplexer.ipc;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.exception.MessageSendingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Producer process side of {@link SharedMemoryIngress}: submits messages to the multiplexer of another process
+ * on the same host through a memory mapped file.
+ * <p>
+ * Sending threads of the process are serialized by the producer monitor, there are no locks between processes.
+ * Results are received by {@link #pollResponses()}, channel results are not transferred, so promises of sent
+ * messages are completed with {@code null} result. Message which does not fit into the request ring is completed
+ * with {@link MultiplexedMessageSendingResult#rejected()}.
+ */
+@Slf4j
+public class SharedMemoryProducer {
+
+    private final SharedMemoryChannel channel;
+    private final Map<Long, CompletableFuture<MultiplexedMessageSendingResult<Void>>> pending =
+            new ConcurrentHashMap<>();
+    /**
+     * Guarded by the producer monitor
+     */
+    private long nextRequestId;
+    private final Object responsesLock = new Object();
+
+    private SharedMemoryProducer(SharedMemoryChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Create the channel file, the host starts to receive messages after {@link SharedMemoryIngress#attach(Path)}
+     *
+     * @param ringBytes size of the request ring and of the response ring
+     */
+    public static SharedMemoryProducer create(Path path, int ringBytes) throws IOException {
+        return new SharedMemoryProducer(SharedMemoryChannel.create(path, ringBytes));
+    }
+
+    /**
+     * Copy remaining bytes of {@code msg} to the request ring, position of {@code msg} does not change
+     */
+    public CompletableFuture<MultiplexedMessageSendingResult<Void>> send(
+            ByteBuffer msg, MessageType messageType, ExpirationDate expirationDate
+    ) {
+        Objects.requireNonNull(msg, "Message must be present");
+        Objects.requireNonNull(messageType, "MessageType must be presented");
+        byte[] type = messageType.toString().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 2 + type.length + msg.remaining();
+        CompletableFuture<MultiplexedMessageSendingResult<Void>> promise = new CompletableFuture<>();
+        synchronized (this) {
+            long requestId = nextRequestId++;
+            pending.put(requestId, promise);
+            boolean offered = channel.getRequests().offer(length, request -> request
+                    .putLong(requestId)
+                    .putLong(expirationDate.getTime())
+                    .putShort((short) type.length)
+                    .put(type)
+                    .put(msg.duplicate())
+            );
+            if (!offered) {
+                pending.remove(requestId);
+                log.trace("Request ring of {} is full", channel);
+                promise.complete(MultiplexedMessageSendingResult.rejected());
+            }
+        }
+        return promise;
+    }
+
+    /**
+     * Complete promises of messages processed by the host
+     *
+     * @return count of received responses
+     */
+    public int pollResponses() {
+        synchronized (responsesLock) {
+            SharedRing responses = channel.getResponses();
+            int received = 0;
+            SharedRing.Record record;
+            while ((record = responses.poll()) != null) {
+                ByteBuffer response = record.getPayload();
+                long requestId = response.getLong();
+                byte status = response.get();
+                responses.release(record.getEnd());
+                received++;
+                CompletableFuture<MultiplexedMessageSendingResult<Void>> promise = pending.remove(requestId);
+                if (promise == null) {
+                    log.warn("Response to unknown request {} is received from {}", requestId, channel);
+                } else if (status == SharedMemoryChannel.FAILED) {
+                    promise.completeExceptionally(new MessageSendingException("Host failed to send message", null));
+                } else {
+                    promise.complete(result(MultiplexedMessageSendingResult.Status.values()[status]));
+                }
+            }
+            return received;
+        }
+    }
+
+    /**
+     * Messages which are written to the request ring and have no response yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private static MultiplexedMessageSendingResult<Void> result(MultiplexedMessageSendingResult.Status status) {
+        switch (status) {
+            case SENT:
+                return MultiplexedMessageSendingResult.sent(null);
+            case NOT_SENT:
+                return MultiplexedMessageSendingResult.notSent();
+            case NOT_SENT_SHUTTING_DOWN:
+                return MultiplexedMessageSendingResult.notSentShuttingDown();
+            default:
+                return MultiplexedMessageSendingResult.rejected();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ru.fix.multiplexer.ipc;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Single producer single consumer ring of variable length records in memory shared between processes.
+ * <p>
+ * Region starts with two control lines: position after the last published record and position after
+ * the last released record. Both positions grow monotonically and are written only by their owner, so the ring
+ * needs no locks or atomic updates between processes. Records are aligned to 8 bytes and start with
+ * their payload length int, {@link #PADDING} length skips the rest of the data area before wrapping.
+ * <p>
+ * Positions are accessed through {@link Unsafe} at the address of the mapped region in native byte order:
+ * the owner publishes a position by an ordered write, so writes of a record can not move after it, and the
+ * other side reads it by a volatile read, so reads of a record can not move before it. Region must be a direct
+ * buffer with control lines aligned to 8 bytes.
+ */
+class SharedRing {
+
+    static final int CONTROL_BYTES = 128;
+    static final int RECORD_HEADER_BYTES = 8;
+    private static final int WRITE_POSITION = 0;
+    /**
+     * In a separate cache line, so the producer and the consumer do not invalidate each other
+     */
+    private static final int READ_POSITION = 64;
+    private static final int PADDING = -1;
+    private static final Unsafe UNSAFE;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Field unsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            unsafe.setAccessible(true);
+            UNSAFE = (Unsafe) unsafe.get(null);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ByteBuffer region;
+    /**
+     * Address of the region start in memory
+     */
+    private final long address;
+    private final int capacity;
+    /**
+     * Position after the last polled record, owned by the consumer
+     */
+    private long pollPosition;
+
+    /**
+     * @param region control lines and data area, data area size must be a multiple of 8
+     */
+    SharedRing(ByteBuffer region) {
+        if (!region.isDirect()) {
+            throw new IllegalArgumentException("Region must be a direct buffer");
+        }
+        this.region = region;
+        this.address = UNSAFE.getLong(region, ADDRESS_OFFSET);
+        if (address % 8 != 0) {
+            throw new IllegalArgumentException("Region must be aligned to 8 bytes, but starts at " + address);
+        }
+        this.capacity = region.capacity() - CONTROL_BYTES;
+        if (capacity <= 0 || capacity % 8 != 0) {
+            throw new IllegalArgumentException("Data area must be a positive multiple of 8, but was " + capacity);
+        }
+        this.pollPosition = acquire(READ_POSITION);
+    }
+
+    /**
+     * Bytes taken by the record with {@code length} bytes of payload
+     */
+    static int recordBytes(int length) {
+        return align(RECORD_HEADER_BYTES + length);
+    }
+
+    static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * Write the record and publish it to the consumer, called only by the producer
+     *
+     * @param writer fills the view of exactly {@code length} bytes
+     * @return {@code false} if the ring has no space for the record now
+     */
+    boolean offer(int length, Consumer<ByteBuffer> writer) {
+        int recordBytes = recordBytes(length);
+        if (recordBytes > capacity) {
+            throw new IllegalArgumentException(
+                    "Record of " + length + " bytes does not fit into the ring of " + capacity + " bytes"
+            );
+        }
+        long writePosition = acquire(WRITE_POSITION);
+        long free = capacity - (writePosition - acquire(READ_POSITION));
+        int index = (int) (writePosition % capacity);
+        int tail = capacity - index;
+        int padding = tail < recordBytes ? tail : 0;
+        if (free < padding + recordBytes) {
+            return false;
+        }
+        if (padding > 0) {
+            region.putInt(CONTROL_BYTES + index, PADDING);
+            index = 0;
+        }
+        region.putInt(CONTROL_BYTES + index, length);
+        writer.accept(view(index + RECORD_HEADER_BYTES, length));
+        release(WRITE_POSITION, writePosition + padding + recordBytes);
+        return true;
+    }
+
+    /**
+     * Next published record, called only by the consumer. The record stays in the ring until it is
+     * {@link #release released}
+     *
+     * @return read-only view of the record payload or {@code null} if there is no new record
+     */
+    Record poll() {
+        if (pollPosition == acquire(WRITE_POSITION)) {
+            return null;
+        }
+        int index = (int) (pollPosition % capacity);
+        int length = region.getInt(CONTROL_BYTES + index);
+        if (length == PADDING) {
+            pollPosition += capacity - index;
+            index = 0;
+            length = region.getInt(CONTROL_BYTES);
+        }
+        pollPosition += recordBytes(length);
+        return new Record(view(index + RECORD_HEADER_BYTES, length).asReadOnlyBuffer(), pollPosition);
+    }
+
+    /**
+     * Return space of all records before {@code end} to the producer, called only by the consumer
+     *
+     * @param end {@link Record#getEnd()} of the last record which is not used anymore
+     */
+    void release(long end) {
+        release(READ_POSITION, end);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private ByteBuffer view(int index, int length) {
+        ByteBuffer view = region.duplicate();
+        view.position(CONTROL_BYTES + index);
+        view.limit(CONTROL_BYTES + index + length);
+        return view.slice();
+    }
+
+    private long acquire(int control) {
+        return UNSAFE.getLongVolatile(null, address + control);
+    }
+
+    private void release(int control, long position) {
+        UNSAFE.putOrderedLong(null, address + control, position);
+    }
+
+    static final class Record {
+        private final ByteBuffer payload;
+        private final long end;
+
+        Record(ByteBuffer payload, long end) {
+            this.payload = payload;
+            this.end = end;
+        }
+
+        ByteBuffer getPayload() {
+            return payload;
+        }
+
+        /**
+         * Position after the record
+         */
+        long getEnd() {
+            return end;
+        }
+    }
+}
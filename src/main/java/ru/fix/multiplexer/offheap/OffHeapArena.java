@@ -0,0 +1,71 @@
+package ru.fix.multiplexer.offheap;
+
+import ru.fix.multiplexer.MessageType;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Direct memory for payloads of {@link OffHeapByteMultiplexer}. Every message type has its own ring segment,
+ * so a backlog of one type can not take the memory of others. Segment of each type is allocated at once
+ * and limited by {@link Integer#MAX_VALUE} bytes.
+ */
+public class OffHeapArena {
+
+    private final Map<MessageType, RingSegment> segments;
+
+    /**
+     * @param segmentBytes size of the segment of each message type in bytes
+     */
+    public OffHeapArena(Map<MessageType, Integer> segmentBytes) {
+        Map<MessageType, RingSegment> segments = new HashMap<>();
+        segmentBytes.forEach((messageType, bytes) -> {
+            if (bytes == null || bytes <= 0) {
+                throw new IllegalArgumentException(
+                        "Segment size of type " + messageType + " must be positive, but was " + bytes
+                );
+            }
+            segments.put(messageType, new RingSegment(ByteBuffer.allocateDirect(bytes)));
+        });
+        this.segments = Collections.unmodifiableMap(segments);
+    }
+
+    /**
+     * Copy remaining bytes of {@code payload} to the segment of the type
+     *
+     * @return handle of the copy or {@code null} if the segment is full
+     * @throws IllegalArgumentException if there is no segment for the type
+     */
+    OffHeapPayload write(MessageType messageType, ByteBuffer payload) {
+        RingSegment segment = segmentOf(messageType);
+        if (!payload.hasRemaining()) {
+            return new OffHeapPayload(messageType, segment, -1, 0);
+        }
+        int offset = segment.write(payload);
+        return offset < 0 ? null : new OffHeapPayload(messageType, segment, offset, payload.remaining());
+    }
+
+    public long getUsedBytes(MessageType messageType) {
+        return segmentOf(messageType).getUsedBytes();
+    }
+
+    public long getUsedBytes() {
+        return segments.values().stream().mapToLong(RingSegment::getUsedBytes).sum();
+    }
+
+    public int getCapacity(MessageType messageType) {
+        return segmentOf(messageType).getCapacity();
+    }
+
+    private RingSegment segmentOf(MessageType messageType) {
+        RingSegment segment = segments.get(messageType);
+        if (segment == null) {
+            throw new IllegalArgumentException(String.format(
+                    "There is no off-heap segment for type %s. Segments are %s", messageType, segments.keySet()
+            ));
+        }
+        return segment;
+    }
+}
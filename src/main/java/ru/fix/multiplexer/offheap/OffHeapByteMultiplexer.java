@@ -0,0 +1,193 @@
+package ru.fix.multiplexer.offheap;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.commons.profiler.Profiler;
+import ru.fix.multiplexer.CapacityNotifyingOutputChannel;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.Multiplexer;
+import ru.fix.multiplexer.MultiplexerConfig;
+import ru.fix.multiplexer.MultiplexerOutputChannel;
+import ru.fix.multiplexer.MultiplexerProcessorable;
+import ru.fix.multiplexer.MultiplexerWithPriority;
+import ru.fix.multiplexer.SendOptions;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Multiplexer of serialized payloads which keeps buffered bytes in {@link OffHeapArena} instead of the heap,
+ * so a large backlog does not load garbage collector. Only small {@link OffHeapPayload} handles and promises
+ * stay on heap.
+ * <p>
+ * Payload is copied to the segment of its type once on {@link #send}. Output channel receives read-only
+ * views of direct memory without copying and must not use them after its future is completed:
+ * space of the payload is returned to the arena when the promise of the message is completed.
+ * Message which does not fit into the segment of its type is completed with
+ * {@link MultiplexedMessageSendingResult#rejected()}.
+ */
+@Slf4j
+public class OffHeapByteMultiplexer<ReturnType> implements Multiplexer<ByteBuffer, ReturnType> {
+
+    private final String name;
+    private final OffHeapArena arena;
+    private final Multiplexer<OffHeapPayload, ReturnType> multiplexer;
+    private final Profiler profiler;
+
+    /**
+     * @param arena segments for every registered message type
+     */
+    public OffHeapByteMultiplexer(
+            String name,
+            MultiplexerOutputChannel<ByteBuffer, ReturnType> outputChannel,
+            MultiplexerConfig multiplexerConfig,
+            OffHeapArena arena,
+            Profiler profiler
+    ) {
+        Objects.requireNonNull(arena, "Arena must be presented");
+        for (MessageType messageType : multiplexerConfig.registeredMessages().keySet()) {
+            arena.getCapacity(messageType);
+        }
+        this.name = name;
+        this.arena = arena;
+        this.profiler = profiler;
+        this.multiplexer = MultiplexerWithPriority.createInstance(
+                name, viewChannel(outputChannel), multiplexerConfig, profiler
+        );
+        profiler.attachIndicator(name + ".off_heap_used_bytes", arena::getUsedBytes);
+    }
+
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            ByteBuffer msg, MessageType messageType, ExpirationDate expirationDate
+    ) {
+        return send(msg, messageType, expirationDate, SendOptions.defaults());
+    }
+
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            ByteBuffer msg, MessageType messageType, Date expirationDate
+    ) {
+        return send(msg, messageType, ExpirationDate.expiresOn(expirationDate.toInstant()));
+    }
+
+    /**
+     * Copy remaining bytes of {@code msg} to direct memory and send them, position of {@code msg} does not change
+     */
+    @Override
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            ByteBuffer msg, MessageType messageType, ExpirationDate expirationDate, SendOptions options
+    ) {
+        Objects.requireNonNull(msg, "Message must be present");
+        Objects.requireNonNull(messageType, "MessageType must be presented");
+        OffHeapPayload payload = arena.write(messageType, msg);
+        if (payload == null) {
+            log.debug("Off-heap segment of type {} is full, {} bytes used. Message of {} bytes is rejected",
+                    messageType, arena.getUsedBytes(messageType), msg.remaining());
+            profiler.call(name + ".off_heap_segment_full");
+            return CompletableFuture.completedFuture(MultiplexedMessageSendingResult.rejected());
+        }
+        CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise;
+        try {
+            promise = multiplexer.send(payload, messageType, expirationDate, options);
+        } catch (RuntimeException e) {
+            payload.release();
+            throw e;
+        }
+        promise.whenComplete((result, error) -> payload.release());
+        return promise;
+    }
+
+    public CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> send(
+            byte[] msg, MessageType messageType, ExpirationDate expirationDate
+    ) {
+        return send(ByteBuffer.wrap(msg), messageType, expirationDate);
+    }
+
+    public OffHeapArena getArena() {
+        return arena;
+    }
+
+    @Override
+    public int countMessagesWaitingToProcessing() {
+        return multiplexer.countMessagesWaitingToProcessing();
+    }
+
+    @Override
+    public void onOutputChannelHasFreeSlot() {
+        multiplexer.onOutputChannelHasFreeSlot();
+    }
+
+    @Override
+    public void reconfigure(MultiplexerConfig multiplexerConfig) {
+        multiplexer.reconfigure(multiplexerConfig);
+    }
+
+    @Override
+    public void shutdown() {
+        multiplexer.shutdown();
+    }
+
+    @Override
+    public void shutdownNow() {
+        multiplexer.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        multiplexer.close();
+        profiler.detachIndicator(name + ".off_heap_used_bytes");
+    }
+
+    private static <ReturnType> MultiplexerOutputChannel<OffHeapPayload, ReturnType> viewChannel(
+            MultiplexerOutputChannel<ByteBuffer, ReturnType> outputChannel
+    ) {
+        if (outputChannel instanceof CapacityNotifyingOutputChannel) {
+            return new CapacityNotifyingViewChannel<>((CapacityNotifyingOutputChannel<ByteBuffer, ReturnType>) outputChannel);
+        }
+        return new ViewChannel<>(outputChannel);
+    }
+
+    /**
+     * Passes views of direct memory to the channel of byte buffers
+     */
+    private static class ViewChannel<ReturnType> implements MultiplexerOutputChannel<OffHeapPayload, ReturnType> {
+
+        final MultiplexerOutputChannel<ByteBuffer, ReturnType> outputChannel;
+
+        ViewChannel(MultiplexerOutputChannel<ByteBuffer, ReturnType> outputChannel) {
+            this.outputChannel = outputChannel;
+        }
+
+        @Override
+        public CompletableFuture<ReturnType> send(OffHeapPayload message, ExpirationDate expirationTime) {
+            return outputChannel.send(message.view(), expirationTime);
+        }
+
+        @Override
+        public boolean hasFreeSlot() {
+            return outputChannel.hasFreeSlot();
+        }
+    }
+
+    private static class CapacityNotifyingViewChannel<ReturnType> extends ViewChannel<ReturnType>
+            implements CapacityNotifyingOutputChannel<OffHeapPayload, ReturnType> {
+
+        CapacityNotifyingViewChannel(CapacityNotifyingOutputChannel<ByteBuffer, ReturnType> outputChannel) {
+            super(outputChannel);
+        }
+
+        @Override
+        public void addCapacityListener(MultiplexerProcessorable listener) {
+            ((CapacityNotifyingOutputChannel<ByteBuffer, ReturnType>) outputChannel).addCapacityListener(listener);
+        }
+
+        @Override
+        public void removeCapacityListener(MultiplexerProcessorable listener) {
+            ((CapacityNotifyingOutputChannel<ByteBuffer, ReturnType>) outputChannel).removeCapacityListener(listener);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.fix.multiplexer.offheap;
+
+import ru.fix.multiplexer.MessageType;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Small on-heap handle of a payload stored in {@link OffHeapArena}
+ */
+public final class OffHeapPayload {
+
+    private final MessageType messageType;
+    private final RingSegment segment;
+    /**
+     * -1 for empty payload which does not take space in the segment
+     */
+    private final int offset;
+    private final int length;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    OffHeapPayload(MessageType messageType, RingSegment segment, int offset, int length) {
+        this.messageType = messageType;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Read-only view of the payload in direct memory, bytes are not copied.
+     * The view must not be used after the future returned by the output channel is completed
+     */
+    public ByteBuffer view() {
+        if (released.get()) {
+            throw new IllegalStateException("Payload of type " + messageType + " is released");
+        }
+        return offset < 0 ? ByteBuffer.allocate(0).asReadOnlyBuffer() : segment.view(offset, length);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * Return the space to the segment, repeated calls do nothing
+     */
+    void release() {
+        if (released.compareAndSet(false, true) && offset >= 0) {
+            segment.release(offset);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapPayload{" +
+                "messageType=" + messageType +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+package ru.fix.multiplexer.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ring allocator over a region of direct memory. Space is allocated after the newest allocation and
+ * reclaimed from the oldest one, so allocations released out of order free their space when all older
+ * allocations are released too. Payloads of one message type are released almost in order of sending,
+ * which keeps the ring compact. All operations are guarded by the segment monitor.
+ */
+class RingSegment {
+
+    private final ByteBuffer memory;
+    private final int capacity;
+    /**
+     * Live allocations from the oldest to the newest
+     */
+    private final ArrayDeque<Allocation> allocations = new ArrayDeque<>();
+    private final Map<Integer, Allocation> allocationsByOffset = new HashMap<>();
+    /**
+     * Position after the newest allocation
+     */
+    private int head;
+    /**
+     * The newest allocation is placed before the oldest one
+     */
+    private boolean wrapped;
+    private long usedBytes;
+
+    RingSegment(ByteBuffer memory) {
+        this.memory = memory;
+        this.capacity = memory.capacity();
+    }
+
+    /**
+     * Copy remaining bytes of {@code payload} into the segment, position of {@code payload} does not change
+     *
+     * @return offset of the copy or -1 if the segment has no contiguous free space for it
+     */
+    synchronized int write(ByteBuffer payload) {
+        int length = payload.remaining();
+        int offset = allocate(length);
+        if (offset < 0) {
+            return -1;
+        }
+        ByteBuffer target = memory.duplicate();
+        target.position(offset);
+        target.put(payload.duplicate());
+        Allocation allocation = new Allocation(offset, length);
+        allocations.addLast(allocation);
+        allocationsByOffset.put(offset, allocation);
+        usedBytes += length;
+        return offset;
+    }
+
+    /**
+     * Read-only view of the allocation, content is not copied
+     */
+    ByteBuffer view(int offset, int length) {
+        ByteBuffer view = memory.asReadOnlyBuffer();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    synchronized void release(int offset) {
+        Allocation allocation = allocationsByOffset.remove(offset);
+        if (allocation == null) {
+            throw new IllegalStateException("There is no allocation at offset " + offset);
+        }
+        allocation.released = true;
+        usedBytes -= allocation.length;
+
+        int oldTail = allocations.peekFirst().offset;
+        while (!allocations.isEmpty() && allocations.peekFirst().released) {
+            allocations.pollFirst();
+        }
+        if (allocations.isEmpty()) {
+            head = 0;
+            wrapped = false;
+        } else if (wrapped && allocations.peekFirst().offset < oldTail) {
+            // all allocations at the end of the ring are released
+            wrapped = false;
+        }
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private int allocate(int length) {
+        if (allocations.isEmpty()) {
+            head = 0;
+            wrapped = false;
+        }
+        int tail = allocations.isEmpty() ? 0 : allocations.peekFirst().offset;
+        if (wrapped) {
+            if (tail - head < length) {
+                return -1;
+            }
+        } else if (capacity - head < length) {
+            if (tail < length) {
+                return -1;
+            }
+            head = 0;
+            wrapped = true;
+        }
+        int offset = head;
+        head += length;
+        return offset;
+    }
+
+    private static final class Allocation {
+        final int offset;
+        final int length;
+        boolean released;
+
+        Allocation(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
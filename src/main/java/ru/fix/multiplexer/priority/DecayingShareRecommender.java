@@ -0,0 +1,138 @@
+package ru.fix.multiplexer.priority;
+
+import ru.fix.multiplexer.MessageType;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Высчитывает рекомендации на основе экспоненциально затухающих счетчиков прошедших через канал сообщений.
+ * <p>
+ * Вклад каждого отправленного сообщения уменьшается в {@code e} раз за {@code decayHorizonMs} миллисекунд,
+ * поэтому распределение не зависит от масштаба весов, а стоимость рекомендации - только от количества типов.
+ * Первым рекомендуется тип с наименьшим отношением затухающего счетчика к весу.
+ * Если сообщения учитываются со стоимостью ({@link #add(MessageType, long)}), счетчики считают единицы канала,
+ * и веса задают доли емкости канала, а не количества сообщений.
+ */
+public class DecayingShareRecommender implements Recommender {
+
+    private final long decayHorizonMs;
+
+    private final LongSupplier clock;
+
+    /**
+     * тип сообщения к его весу, отсортированы по убыванию веса
+     */
+    private volatile LinkedHashMap<MessageType, Integer> expectedSpreading;
+
+    /**
+     * затухающее количество отправленных сообщений каждого типа на момент {@link #lastDecayTime}
+     */
+    private final Map<MessageType, Double> servedCounters = new HashMap<>();
+
+    private long lastDecayTime;
+
+    public DecayingShareRecommender(Map<MessageType, Integer> expectedSpreading, long decayHorizonMs) {
+        this(expectedSpreading, decayHorizonMs, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param clock источник текущего времени в миллисекундах
+     */
+    public DecayingShareRecommender(Map<MessageType, Integer> expectedSpreading,
+                                    long decayHorizonMs,
+                                    LongSupplier clock) {
+        if (decayHorizonMs <= 0) {
+            throw new IllegalArgumentException("Decay horizon must be positive, but was " + decayHorizonMs);
+        }
+        this.decayHorizonMs = decayHorizonMs;
+        this.clock = clock;
+        this.expectedSpreading = sortByPriority(expectedSpreading);
+        this.lastDecayTime = clock.getAsLong();
+    }
+
+    @Override
+    public DecayingShareRecommender add(MessageType messageType) {
+        return add(messageType, 1);
+    }
+
+    @Override
+    public synchronized DecayingShareRecommender add(MessageType messageType, long cost) {
+        decay();
+        servedCounters.merge(messageType, (double) cost, Double::sum);
+        return this;
+    }
+
+    /**
+     * Отдает рекомендации о том, какие сообщения должны быть отправлены.
+     * Типы сортированы по отношению отправленных сообщений к весу, при равенстве - по весу
+     */
+    @Override
+    public synchronized List<MessageType> makeRecommendation() {
+        decay();
+        List<MessageType> recommendation = new ArrayList<>(expectedSpreading.keySet());
+        // сортировка стабильна, поэтому при равном отношении сохраняется порядок по убыванию веса
+        recommendation.sort(Comparator.comparingDouble(this::servedPerWeight));
+        return recommendation;
+    }
+
+    /**
+     * Атомарно заменяет веса. Накопленные счетчики сохраняются, счетчики удаленных типов отбрасываются
+     */
+    @Override
+    public synchronized boolean reconfigure(Map<MessageType, Integer> expectedSpreading) {
+        this.expectedSpreading = sortByPriority(expectedSpreading);
+        servedCounters.keySet().retainAll(this.expectedSpreading.keySet());
+        return true;
+    }
+
+    @Override
+    public boolean typeIsRegistered(MessageType messageType) {
+        return expectedSpreading.containsKey(messageType);
+    }
+
+    /**
+     * Затухающее количество отправленных сообщений типа на текущий момент
+     */
+    public synchronized double getServedCounter(MessageType messageType) {
+        decay();
+        return servedCounters.getOrDefault(messageType, 0.0);
+    }
+
+    public Map<MessageType, Integer> getExpectedSpreading() {
+        return expectedSpreading;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecayingShareRecommender{" +
+                "decayHorizonMs=" + decayHorizonMs +
+                ", servedCounters=" + Arrays.toString(servedCounters.entrySet().toArray()) +
+                ", expectedSpreading=" + Arrays.toString(expectedSpreading.entrySet().toArray()) +
+                '}';
+    }
+
+    private double servedPerWeight(MessageType messageType) {
+        return servedCounters.getOrDefault(messageType, 0.0) / Math.max(1, expectedSpreading.get(messageType));
+    }
+
+    private void decay() {
+        long now = clock.getAsLong();
+        long elapsed = now - lastDecayTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        lastDecayTime = now;
+        double factor = Math.exp(-(double) elapsed / decayHorizonMs);
+        servedCounters.replaceAll((messageType, counter) -> counter * factor);
+    }
+
+    private static LinkedHashMap<MessageType, Integer> sortByPriority(Map<MessageType, Integer> expectedSpreading) {
+        return expectedSpreading.entrySet()
+                .stream()
+                .sorted(Collections.reverseOrder(Map.Entry.comparingByValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+    }
+}
@@ -3,10 +3,37 @@ package ru.fix.multiplexer.priority;
 import ru.fix.multiplexer.MessageType;
 
 import java.util.List;
+import java.util.Map;
 
 public interface Recommender {
 
+    /**
+     * Account message which has been sent to the channel.
+     * Recommenders which do not depend on sent messages ignore it
+     */
+    default Recommender add(MessageType messageType) {
+        return this;
+    }
+
+    /**
+     * Account message which has taken {@code cost} units of the channel.
+     * Recommenders which count messages ignore the cost
+     */
+    default Recommender add(MessageType messageType, long cost) {
+        return add(messageType);
+    }
+
     List<MessageType> makeRecommendation();
 
     boolean typeIsRegistered(MessageType messageType);
+
+    /**
+     * Replace registered types and their priorities without losing collected statistics.
+     * Recommenders which do not support it are replaced by new ones created for the new types
+     *
+     * @return {@code false} if the recommender has not been reconfigured and must be replaced
+     */
+    default boolean reconfigure(Map<MessageType, Integer> registeredMessages) {
+        return false;
+    }
 }
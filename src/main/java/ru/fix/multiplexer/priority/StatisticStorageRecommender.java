@@ -15,30 +15,20 @@ public class StatisticStorageRecommender implements Recommender {
     /**
      * Прошедшие через канал сообщения.
      */
-    private CircularFifoQueue<MessageType> statistics;
+    private volatile CircularFifoQueue<MessageType> statistics;
 
     /**
      * идеальное распределение тип сообщения к их количеству в канале
      */
-    private LinkedHashMap<MessageType, Integer> expectedSpreading;
+    private volatile LinkedHashMap<MessageType, Integer> expectedSpreading;
 
     public StatisticStorageRecommender(final Map<MessageType, Integer> expectedSpreading) {
-        this.expectedSpreading = expectedSpreading.entrySet()
-                .stream()
-                .sorted(Collections.reverseOrder(Map.Entry.comparingByValue()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
-
-        int countOfElements = this.expectedSpreading
-                .values()
-                .stream()
-                .reduce((sum, element) -> sum += element)
-                .orElseThrow(() -> new RuntimeException("Cant calculate statistic capacity. "
-                        + "May be registered types are not present. Registered types are " + expectedSpreading.size())
-                );
-        statistics = new CircularFifoQueue<>(countOfElements);
+        this.expectedSpreading = sortByPriority(expectedSpreading);
+        statistics = new CircularFifoQueue<>(calculateStatisticCapacity(this.expectedSpreading));
     }
 
-    public StatisticStorageRecommender add(MessageType messageType) {
+    @Override
+    public synchronized StatisticStorageRecommender add(MessageType messageType) {
         statistics.add(messageType);
         return this;
     }
@@ -48,7 +38,7 @@ public class StatisticStorageRecommender implements Recommender {
      * Сообщения сортированы по важности. Первым идет самое приоритетное для отправки, последним - наименее приоритетное
      */
     @Override
-    public List<MessageType> makeRecommendation() {
+    public synchronized List<MessageType> makeRecommendation() {
         Map<MessageType, Integer> classifiedStatistics = new ClassifiedStatistic(statistics)
                 .calculateClassifiedStatistics();
         LinkedHashMap<MessageType, Integer> recommendations = new StatisticMatcher(expectedSpreading, classifiedStatistics)
@@ -57,6 +47,22 @@ public class StatisticStorageRecommender implements Recommender {
         return new ArrayList<>(recommendations.keySet());
     }
 
+    /**
+     * Атомарно заменяет ожидаемое распределение. Статистика прошедших сообщений сохраняется
+     * в пределах нового размера окна.
+     */
+    @Override
+    public synchronized boolean reconfigure(Map<MessageType, Integer> expectedSpreading) {
+        LinkedHashMap<MessageType, Integer> newExpectedSpreading = sortByPriority(expectedSpreading);
+        CircularFifoQueue<MessageType> newStatistics =
+                new CircularFifoQueue<>(calculateStatisticCapacity(newExpectedSpreading));
+        newStatistics.addAll(statistics);
+
+        this.statistics = newStatistics;
+        this.expectedSpreading = newExpectedSpreading;
+        return true;
+    }
+
     @Override
     public boolean typeIsRegistered(MessageType messageType) {
         return expectedSpreading.keySet().contains(messageType);
@@ -77,4 +83,21 @@ public class StatisticStorageRecommender implements Recommender {
                 ", expectedSpreading=" + Arrays.toString(expectedSpreading.entrySet().toArray()) +
                 '}';
     }
+
+    private static LinkedHashMap<MessageType, Integer> sortByPriority(Map<MessageType, Integer> expectedSpreading) {
+        return expectedSpreading.entrySet()
+                .stream()
+                .sorted(Collections.reverseOrder(Map.Entry.comparingByValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+    }
+
+    private static int calculateStatisticCapacity(Map<MessageType, Integer> expectedSpreading) {
+        return expectedSpreading
+                .values()
+                .stream()
+                .reduce((sum, element) -> sum += element)
+                .orElseThrow(() -> new RuntimeException("Cant calculate statistic capacity. "
+                        + "May be registered types are not present. Registered types are " + expectedSpreading.size())
+                );
+    }
 }
@@ -0,0 +1,200 @@
+package ru.fix.multiplexer.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.Multiplexer;
+import ru.fix.multiplexer.MultiplexerInput;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Input adapter which subscribes multiplexer to a publisher of messages with the same {@link MessageType}.
+ * <p>
+ * Messages are requested from upstream for free capacity of the multiplexer buffer: {@code bufferCapacity}
+ * minus messages waiting in the buffer and messages requested but not received yet. Capacity is evaluated
+ * on subscription and whenever a received message is completed, so the demand of output channel
+ * is propagated to the publisher without unbounded buffering. When the buffer is filled by other producers,
+ * the subscriber still keeps one message requested or pending, so it is not starved.
+ * <p>
+ * Plain {@link MultiplexerInput} does not report its buffer, so for it only received messages which are
+ * not completed yet are counted as buffered.
+ */
+@Slf4j
+public class MultiplexerSubscriber<MsgType, ReturnType> implements Subscriber<MsgType> {
+
+    private final MultiplexerInput<MsgType, ReturnType> input;
+    private final MessageType messageType;
+    private final long messageTtlMs;
+    private final int bufferCapacity;
+    private final IntSupplier bufferedMessages;
+    private final BiConsumer<MsgType, MultiplexedMessageSendingResult<ReturnType>> resultHandler;
+
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    /**
+     * Requested from upstream and not received yet
+     */
+    private final AtomicLong requestedMessages = new AtomicLong();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private volatile Subscription subscription;
+    private volatile boolean upstreamCompleted;
+    /**
+     * Guarded by this
+     */
+    private boolean cancelled;
+
+    /**
+     * @param messageTtlMs   expiration timeout of every received message
+     * @param bufferCapacity how many messages can wait in the multiplexer buffer, including messages of
+     *                       other producers, before this subscriber stops requesting new ones
+     * @param resultHandler  receives result of every message, failed messages are completed with
+     *                       {@link MultiplexedMessageSendingResult#notSent()}
+     */
+    public MultiplexerSubscriber(
+            Multiplexer<MsgType, ReturnType> multiplexer,
+            MessageType messageType,
+            long messageTtlMs,
+            int bufferCapacity,
+            BiConsumer<MsgType, MultiplexedMessageSendingResult<ReturnType>> resultHandler
+    ) {
+        this(multiplexer, multiplexer::countMessagesWaitingToProcessing,
+                messageType, messageTtlMs, bufferCapacity, resultHandler);
+    }
+
+    /**
+     * @param messageTtlMs       expiration timeout of every received message
+     * @param maxPendingMessages how many messages can be sent to the input and not completed yet
+     * @param resultHandler      receives result of every message, failed messages are completed with
+     *                           {@link MultiplexedMessageSendingResult#notSent()}
+     */
+    public MultiplexerSubscriber(
+            MultiplexerInput<MsgType, ReturnType> input,
+            MessageType messageType,
+            long messageTtlMs,
+            int maxPendingMessages,
+            BiConsumer<MsgType, MultiplexedMessageSendingResult<ReturnType>> resultHandler
+    ) {
+        this(input, null, messageType, messageTtlMs, maxPendingMessages, resultHandler);
+    }
+
+    private MultiplexerSubscriber(
+            MultiplexerInput<MsgType, ReturnType> input,
+            IntSupplier bufferedMessages,
+            MessageType messageType,
+            long messageTtlMs,
+            int bufferCapacity,
+            BiConsumer<MsgType, MultiplexedMessageSendingResult<ReturnType>> resultHandler
+    ) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive, but was " + bufferCapacity);
+        }
+        this.input = input;
+        this.bufferedMessages = bufferedMessages != null ? bufferedMessages : pendingMessages::get;
+        this.messageType = messageType;
+        this.messageTtlMs = messageTtlMs;
+        this.bufferCapacity = bufferCapacity;
+        this.resultHandler = resultHandler;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        Objects.requireNonNull(subscription, "Subscription must be presented");
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        requestFreeCapacity();
+    }
+
+    @Override
+    public void onNext(MsgType msg) {
+        Objects.requireNonNull(msg, "Message must be presented");
+        requestedMessages.decrementAndGet();
+        pendingMessages.incrementAndGet();
+        CompletableFuture<MultiplexedMessageSendingResult<ReturnType>> promise;
+        try {
+            promise = input.send(msg, messageType, ExpirationDate.expiresIn(messageTtlMs));
+        } catch (RuntimeException e) {
+            log.error("Failed to send message {} with type {} to multiplexer", msg, messageType, e);
+            pendingMessages.decrementAndGet();
+            cancel();
+            onError(e);
+            return;
+        }
+        promise.whenComplete((result, ex) -> {
+            try {
+                resultHandler.accept(msg, ex == null ? result : MultiplexedMessageSendingResult.notSent());
+            } catch (RuntimeException e) {
+                log.error("Result handler failure for message {}", msg, e);
+            }
+            pendingMessages.decrementAndGet();
+            if (upstreamCompleted) {
+                tryComplete();
+            } else {
+                requestFreeCapacity();
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamCompleted = true;
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamCompleted = true;
+        tryComplete();
+    }
+
+    /**
+     * Completes when upstream is completed and all received messages are processed by multiplexer
+     */
+    public CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    public int countPendingMessages() {
+        return pendingMessages.get();
+    }
+
+    private void tryComplete() {
+        if (pendingMessages.get() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Requests are signaled from completion threads, but Subscription requires serial calls
+     */
+    private synchronized void requestFreeCapacity() {
+        if (cancelled) {
+            return;
+        }
+        long requested = requestedMessages.get();
+        long free = bufferCapacity - (long) bufferedMessages.getAsInt() - requested;
+        if (free <= 0 && requested <= 0 && pendingMessages.get() == 0) {
+            free = 1;
+        }
+        if (free > 0) {
+            requestedMessages.addAndGet(free);
+            subscription.request(free);
+        }
+    }
+
+    private synchronized void cancel() {
+        cancelled = true;
+        subscription.cancel();
+    }
+}
@@ -0,0 +1,116 @@
+package ru.fix.multiplexer.reactive;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import ru.fix.multiplexer.CapacityNotifyingOutputChannel;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MultiplexerProcessorable;
+import ru.fix.multiplexer.exception.MessageSendingException;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Output channel which publishes messages to a single downstream subscriber.
+ * <p>
+ * Channel has free slot only when the subscriber requested more messages than it has received,
+ * so {@link Subscription#request(long)} of the subscriber drives multiplexer sending instead of polling.
+ * Message is completed as soon as it is passed to {@link Subscriber#onNext(Object)}.
+ */
+public class PublisherOutputChannel<MsgType> implements CapacityNotifyingOutputChannel<MsgType, Void>, Publisher<MsgType> {
+
+    private final AtomicReference<Subscriber<? super MsgType>> subscriber = new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final List<MultiplexerProcessorable> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean terminated;
+
+    @Override
+    public void subscribe(Subscriber<? super MsgType> newSubscriber) {
+        Objects.requireNonNull(newSubscriber, "Subscriber must be presented");
+        if (!subscriber.compareAndSet(null, newSubscriber)) {
+            newSubscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            newSubscriber.onError(new IllegalStateException("Publisher output channel supports only one subscriber"));
+            return;
+        }
+        newSubscriber.onSubscribe(new DemandSubscription());
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> send(MsgType message, ExpirationDate expirationTime) {
+        Subscriber<? super MsgType> currentSubscriber = subscriber.get();
+        if (currentSubscriber == null || terminated || demand.getAndUpdate(n -> n > 0 ? n - 1 : 0) == 0) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new MessageSendingException(
+                    "Downstream subscriber did not request message " + message, null
+            ));
+            return failed;
+        }
+        currentSubscriber.onNext(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public boolean hasFreeSlot() {
+        return !terminated && demand.get() > 0;
+    }
+
+    @Override
+    public void addCapacityListener(MultiplexerProcessorable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeCapacityListener(MultiplexerProcessorable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Signal downstream subscriber there will be no more messages
+     */
+    public synchronized void complete() {
+        Subscriber<? super MsgType> currentSubscriber = subscriber.get();
+        if (!terminated && currentSubscriber != null) {
+            terminated = true;
+            currentSubscriber.onComplete();
+        }
+    }
+
+    private class DemandSubscription implements Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (PublisherOutputChannel.this) {
+                    if (!terminated) {
+                        terminated = true;
+                        subscriber.get().onError(new IllegalArgumentException(
+                                "Requested count must be positive, but was " + n
+                        ));
+                    }
+                }
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            listeners.forEach(MultiplexerProcessorable::onOutputChannelHasFreeSlot);
+        }
+
+        @Override
+        public void cancel() {
+            terminated = true;
+        }
+    }
+}
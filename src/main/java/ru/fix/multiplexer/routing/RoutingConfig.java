@@ -0,0 +1,39 @@
+package ru.fix.multiplexer.routing;
+
+/**
+ * Settings of {@link RoutingOutputChannel}
+ */
+public interface RoutingConfig {
+
+    default RoutingStrategy getStrategy() {
+        return RoutingStrategy.LEAST_OUTSTANDING;
+    }
+
+    /**
+     * Weight of the last measured latency in the moving average of channel latency, between 0 and 1
+     */
+    default double getLatencySmoothingFactor() {
+        return 0.2;
+    }
+
+    /**
+     * Share of failed requests after which the channel is ejected, between 0 and 1
+     */
+    default double getEjectionFailureRate() {
+        return 0.5;
+    }
+
+    /**
+     * Count of completed requests in the window to calculate failure rate
+     */
+    default int getEjectionMinimumRequests() {
+        return 20;
+    }
+
+    /**
+     * How long ejected channel does not receive messages
+     */
+    default long getEjectionTimeMs() {
+        return 30_000L;
+    }
+}
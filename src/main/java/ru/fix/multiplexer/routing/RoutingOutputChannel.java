@@ -0,0 +1,264 @@
+package ru.fix.multiplexer.routing;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.multiplexer.CapacityNotifyingOutputChannel;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MultiplexerOutputChannel;
+import ru.fix.multiplexer.MultiplexerProcessorable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Output channel which routes every message to one of several interchangeable channels.
+ * <p>
+ * Channel is chosen by count of outstanding requests weighted by measured latency, see {@link RoutingStrategy}.
+ * Channels with high failure rate are ejected for {@link RoutingConfig#getEjectionTimeMs()}.
+ * If all channels are ejected, messages are routed between all of them.
+ * <p>
+ * Channel has free slot when any of available channels has it and notifies multiplexer about every completed request
+ * and about every channel which returns after ejection.
+ */
+@Slf4j
+public class RoutingOutputChannel<MsgType, ReturnType> implements CapacityNotifyingOutputChannel<MsgType, ReturnType> {
+
+    /**
+     * Notifies listeners when ejection time is over, shared by all routing channels
+     */
+    private static final ScheduledExecutorService EJECTION_TIMER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "routing-ejection-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    private final List<RoutedChannel> channels = new ArrayList<>();
+    private final RoutingConfig config;
+    private final List<MultiplexerProcessorable> listeners = new CopyOnWriteArrayList<>();
+    private final MultiplexerProcessorable notifyListeners = this::notifyListeners;
+    private final LongSupplier nanoClock;
+
+    public RoutingOutputChannel(
+            List<? extends MultiplexerOutputChannel<MsgType, ReturnType>> channels,
+            RoutingConfig config
+    ) {
+        this(channels, config, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock source of {@link System#nanoTime()} like time for latencies and ejection
+     */
+    public RoutingOutputChannel(
+            List<? extends MultiplexerOutputChannel<MsgType, ReturnType>> channels,
+            RoutingConfig config,
+            LongSupplier nanoClock
+    ) {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("Required at least one output channel for routing");
+        }
+        channels.forEach(channel -> this.channels.add(new RoutedChannel(channel)));
+        this.config = config;
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public CompletableFuture<ReturnType> send(MsgType message, ExpirationDate expirationTime) {
+        RoutedChannel routedChannel = chooseChannel();
+        routedChannel.outstanding.incrementAndGet();
+        long startNanos = nanoClock.getAsLong();
+
+        CompletableFuture<ReturnType> promise;
+        try {
+            promise = routedChannel.channel.send(message, expirationTime);
+        } catch (RuntimeException e) {
+            routedChannel.onCompleted(nanoClock.getAsLong() - startNanos, false);
+            throw e;
+        }
+        return promise.whenComplete((result, ex) -> routedChannel.onCompleted(nanoClock.getAsLong() - startNanos, ex == null));
+    }
+
+    @Override
+    public boolean hasFreeSlot() {
+        List<RoutedChannel> available = availableChannels();
+        for (RoutedChannel routedChannel : available) {
+            if (routedChannel.channel.hasFreeSlot()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void addCapacityListener(MultiplexerProcessorable listener) {
+        if (listeners.isEmpty()) {
+            forEachNotifyingChannel(channel -> channel.addCapacityListener(notifyListeners));
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeCapacityListener(MultiplexerProcessorable listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            forEachNotifyingChannel(channel -> channel.removeCapacityListener(notifyListeners));
+        }
+    }
+
+    /**
+     * Count of requests sent to each channel and not completed yet, in order of channels passed to constructor
+     */
+    public List<Integer> getOutstandingRequests() {
+        List<Integer> outstandingRequests = new ArrayList<>(channels.size());
+        channels.forEach(routedChannel -> outstandingRequests.add(routedChannel.outstanding.get()));
+        return outstandingRequests;
+    }
+
+    /**
+     * Whether channel with index {@code channelIndex} is temporary ejected due to failures
+     */
+    public boolean isEjected(int channelIndex) {
+        return channels.get(channelIndex).isEjected(nanoClock.getAsLong());
+    }
+
+    private RoutedChannel chooseChannel() {
+        List<RoutedChannel> available = availableChannels();
+        List<RoutedChannel> candidates = new ArrayList<>(available.size());
+        for (RoutedChannel routedChannel : available) {
+            if (routedChannel.channel.hasFreeSlot()) {
+                candidates.add(routedChannel);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = available;
+        }
+        double defaultLatency = averageMeasuredLatency();
+
+        if (config.getStrategy() == RoutingStrategy.POWER_OF_TWO_CHOICES && candidates.size() > 2) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            RoutedChannel firstChannel = candidates.get(first);
+            RoutedChannel secondChannel = candidates.get(second);
+            return firstChannel.load(defaultLatency) <= secondChannel.load(defaultLatency) ? firstChannel : secondChannel;
+        }
+
+        RoutedChannel leastLoaded = candidates.get(0);
+        for (int i = 1; i < candidates.size(); i++) {
+            if (candidates.get(i).load(defaultLatency) < leastLoaded.load(defaultLatency)) {
+                leastLoaded = candidates.get(i);
+            }
+        }
+        return leastLoaded;
+    }
+
+    /**
+     * Latency for channels which did not complete any request yet
+     */
+    private double averageMeasuredLatency() {
+        double sum = 0;
+        int measured = 0;
+        for (RoutedChannel routedChannel : channels) {
+            double latency = routedChannel.latencyNanos;
+            if (latency > 0) {
+                sum += latency;
+                measured++;
+            }
+        }
+        return measured == 0 ? 1.0 : sum / measured;
+    }
+
+    /**
+     * Not ejected channels, or all channels if every channel is ejected
+     */
+    private List<RoutedChannel> availableChannels() {
+        long now = nanoClock.getAsLong();
+        List<RoutedChannel> available = new ArrayList<>(channels.size());
+        for (RoutedChannel routedChannel : channels) {
+            if (!routedChannel.isEjected(now)) {
+                available.add(routedChannel);
+            }
+        }
+        return available.isEmpty() ? channels : available;
+    }
+
+    private void notifyListeners() {
+        listeners.forEach(MultiplexerProcessorable::onOutputChannelHasFreeSlot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEachNotifyingChannel(Consumer<CapacityNotifyingOutputChannel<MsgType, ReturnType>> action) {
+        channels.stream()
+                .map(routedChannel -> routedChannel.channel)
+                .filter(channel -> channel instanceof CapacityNotifyingOutputChannel)
+                .forEach(channel -> action.accept((CapacityNotifyingOutputChannel<MsgType, ReturnType>) channel));
+    }
+
+    private class RoutedChannel {
+        final MultiplexerOutputChannel<MsgType, ReturnType> channel;
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        final AtomicInteger windowRequests = new AtomicInteger();
+        final AtomicInteger windowFailures = new AtomicInteger();
+
+        volatile double latencyNanos;
+        volatile boolean wasEjected;
+        volatile long ejectedAtNanos;
+
+        RoutedChannel(MultiplexerOutputChannel<MsgType, ReturnType> channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Outstanding requests including the new one multiplied by moving average of latency
+         */
+        double load(double defaultLatency) {
+            double latency = latencyNanos;
+            return (outstanding.get() + 1) * (latency > 0 ? latency : defaultLatency);
+        }
+
+        boolean isEjected(long nowNanos) {
+            return wasEjected
+                    && nowNanos - ejectedAtNanos < TimeUnit.MILLISECONDS.toNanos(config.getEjectionTimeMs());
+        }
+
+        void onCompleted(long latency, boolean success) {
+            outstanding.decrementAndGet();
+            double smoothingFactor = config.getLatencySmoothingFactor();
+            latencyNanos = latencyNanos == 0
+                    ? latency
+                    : smoothingFactor * latency + (1 - smoothingFactor) * latencyNanos;
+
+            if (!success) {
+                windowFailures.incrementAndGet();
+            }
+            if (windowRequests.incrementAndGet() >= config.getEjectionMinimumRequests()) {
+                int requests = windowRequests.getAndSet(0);
+                int failures = windowFailures.getAndSet(0);
+                if (requests > 0 && (double) failures / requests >= config.getEjectionFailureRate()) {
+                    ejectedAtNanos = nanoClock.getAsLong();
+                    wasEjected = true;
+                    log.warn("Output channel {} is ejected for {} ms: {} of {} requests failed",
+                            channel, config.getEjectionTimeMs(), failures, requests);
+                    // nothing may complete until the channel returns, so its capacity is announced by timer
+                    EJECTION_TIMER.schedule(
+                            RoutingOutputChannel.this::notifyListeners, config.getEjectionTimeMs(), TimeUnit.MILLISECONDS
+                    );
+                }
+            }
+            notifyListeners();
+        }
+    }
+}
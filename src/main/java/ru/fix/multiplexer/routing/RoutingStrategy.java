@@ -0,0 +1,16 @@
+package ru.fix.multiplexer.routing;
+
+/**
+ * How {@link RoutingOutputChannel} chooses a channel for the next message.
+ * Both strategies compare channels by count of outstanding requests weighted by measured latency.
+ */
+public enum RoutingStrategy {
+    /**
+     * All available channels are compared, the least loaded one is chosen
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * Two random available channels are compared, the least loaded of them is chosen
+     */
+    POWER_OF_TWO_CHOICES
+}
@@ -0,0 +1,90 @@
+package ru.fix.multiplexer.simulation;
+
+import java.util.Random;
+
+/**
+ * Synthetic process of message arrivals in virtual time
+ */
+public interface ArrivalProcess {
+
+    /**
+     * Virtual time in milliseconds of the next arrival after {@code nowMs}
+     */
+    double nextArrivalAfter(double nowMs, Random random);
+
+    /**
+     * Count of messages which arrive at the same moment
+     */
+    default int batchSize(Random random) {
+        return 1;
+    }
+
+    /**
+     * Arrivals with exponentially distributed intervals
+     */
+    static ArrivalProcess poisson(double messagesPerSecond) {
+        requirePositive(messagesPerSecond);
+        return (nowMs, random) -> nowMs + exponential(1_000 / messagesPerSecond, random);
+    }
+
+    /**
+     * Bursts of {@code burstSize} messages arrive as a poisson process,
+     * so the mean rate is still {@code messagesPerSecond}
+     */
+    static ArrivalProcess bursty(double messagesPerSecond, int burstSize) {
+        requirePositive(messagesPerSecond);
+        if (burstSize <= 0) {
+            throw new IllegalArgumentException("Burst size must be positive, but was " + burstSize);
+        }
+        double meanBurstIntervalMs = 1_000.0 * burstSize / messagesPerSecond;
+        return new ArrivalProcess() {
+            @Override
+            public double nextArrivalAfter(double nowMs, Random random) {
+                return nowMs + exponential(meanBurstIntervalMs, random);
+            }
+
+            @Override
+            public int batchSize(Random random) {
+                return burstSize;
+            }
+        };
+    }
+
+    /**
+     * Poisson arrivals with the rate {@code meanMessagesPerSecond * (1 + amplitude * sin(2 * PI * t / periodMs))}
+     *
+     * @param amplitude relative deviation of the rate, between 0 and 1
+     */
+    static ArrivalProcess diurnal(double meanMessagesPerSecond, double amplitude, long periodMs) {
+        requirePositive(meanMessagesPerSecond);
+        if (amplitude < 0 || amplitude > 1) {
+            throw new IllegalArgumentException("Amplitude must be in [0, 1], but was " + amplitude);
+        }
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Period must be positive, but was " + periodMs);
+        }
+        double maxRatePerMs = meanMessagesPerSecond * (1 + amplitude) / 1_000;
+        return (nowMs, random) -> {
+            // thinning: candidates of the max rate process are accepted with probability rate(t) / max rate
+            double candidate = nowMs;
+            while (true) {
+                candidate += exponential(1 / maxRatePerMs, random);
+                double ratePerMs = meanMessagesPerSecond * (1 + amplitude * Math.sin(2 * Math.PI * candidate / periodMs))
+                        / 1_000;
+                if (random.nextDouble() * maxRatePerMs <= ratePerMs) {
+                    return candidate;
+                }
+            }
+        };
+    }
+
+    static double exponential(double meanMs, Random random) {
+        return -meanMs * Math.log(1 - random.nextDouble());
+    }
+
+    static void requirePositive(double messagesPerSecond) {
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive, but was " + messagesPerSecond);
+        }
+    }
+}
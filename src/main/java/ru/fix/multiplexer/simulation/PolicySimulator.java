@@ -0,0 +1,184 @@
+package ru.fix.multiplexer.simulation;
+
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.priority.Recommender;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Deterministic discrete event simulation of the multiplexer dispatch loop in virtual time.
+ * <p>
+ * Messages of every {@link SimulatedType} arrive into per type FIFO queues. While the simulated channel
+ * has a free slot the {@link Recommender} under test chooses the type to send, exactly as
+ * {@link ru.fix.multiplexer.MultiplexerWithPriority} does: the first recommended type with a buffered message wins,
+ * expired messages are dropped when they are polled and are not accounted by the recommender.
+ * The channel serves {@code channelCapacity} messages in parallel, each for a {@link ServiceTime} sample.
+ * <p>
+ * No threads and no sleeps are involved, so hours of traffic take seconds and the same seed gives the same report.
+ */
+public class PolicySimulator {
+
+    private final List<SimulatedType> types;
+    private final int channelCapacity;
+    private final ServiceTime serviceTime;
+    private final long seed;
+
+    public PolicySimulator(List<SimulatedType> types, int channelCapacity, ServiceTime serviceTime, long seed) {
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Required at least one simulated type");
+        }
+        if (channelCapacity <= 0) {
+            throw new IllegalArgumentException("Channel capacity must be positive, but was " + channelCapacity);
+        }
+        this.types = new ArrayList<>(types);
+        this.channelCapacity = channelCapacity;
+        this.serviceTime = serviceTime;
+        this.seed = seed;
+    }
+
+    /**
+     * @param policy     creates the recommender under test, receives virtual clock in milliseconds
+     * @param durationMs virtual time of the simulation, messages which are still buffered in the end
+     *                   are not dispatched and expired ones are counted as expired
+     */
+    public SimulationReport run(Function<LongSupplier, Recommender> policy, long durationMs) {
+        return new Run(policy, durationMs).execute();
+    }
+
+    private final class Run {
+
+        private final long durationMs;
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private final Map<MessageType, Deque<SimulatedMessage>> queues = new LinkedHashMap<>();
+        private final Map<MessageType, SimulationReport.TypeReport> typeReports = new LinkedHashMap<>();
+        private final Random[] arrivalRandoms = new Random[types.size()];
+        private final Random serviceRandom = new Random(seed);
+        private final Recommender recommender;
+
+        private double now;
+        private long eventSequence;
+        private int inService;
+
+        Run(Function<LongSupplier, Recommender> policy, long durationMs) {
+            this.durationMs = durationMs;
+            this.recommender = policy.apply(() -> (long) now);
+            for (int i = 0; i < types.size(); i++) {
+                // every type has its own random, so adding a type does not change arrivals of others
+                arrivalRandoms[i] = new Random(seed * 31 + i + 1);
+                MessageType messageType = types.get(i).getMessageType();
+                queues.put(messageType, new ArrayDeque<>());
+                typeReports.put(messageType, new SimulationReport.TypeReport());
+            }
+        }
+
+        SimulationReport execute() {
+            for (int i = 0; i < types.size(); i++) {
+                scheduleArrival(i);
+            }
+            Event event;
+            while ((event = events.poll()) != null && event.timeMs <= durationMs) {
+                now = event.timeMs;
+                if (event.typeIndex >= 0) {
+                    onArrival(event.typeIndex);
+                } else {
+                    inService--;
+                }
+                dispatch();
+            }
+            now = durationMs;
+            queues.forEach((messageType, queue) -> queue.forEach(message -> {
+                if (message.expirationMs < now) {
+                    typeReports.get(messageType).onExpired();
+                }
+            }));
+            return new SimulationReport(durationMs, typeReports);
+        }
+
+        private void onArrival(int typeIndex) {
+            SimulatedType type = types.get(typeIndex);
+            int batchSize = type.getArrivalProcess().batchSize(arrivalRandoms[typeIndex]);
+            Deque<SimulatedMessage> queue = queues.get(type.getMessageType());
+            for (int i = 0; i < batchSize; i++) {
+                queue.addLast(new SimulatedMessage(now, now + type.getTtlMs()));
+            }
+            typeReports.get(type.getMessageType()).onArrived(batchSize);
+            scheduleArrival(typeIndex);
+        }
+
+        private void dispatch() {
+            while (inService < channelCapacity) {
+                MessageType messageType = findTypeForProcessing();
+                if (messageType == null) {
+                    return;
+                }
+                SimulatedMessage message = queues.get(messageType).pollFirst();
+                SimulationReport.TypeReport typeReport = typeReports.get(messageType);
+                if (message.expirationMs < now) {
+                    typeReport.onExpired();
+                    continue;
+                }
+                typeReport.onDispatched(now - message.arrivalMs);
+                recommender.add(messageType);
+                inService++;
+                events.add(new Event(now + serviceTime.sampleMs(serviceRandom), -1, eventSequence++));
+            }
+        }
+
+        private MessageType findTypeForProcessing() {
+            for (MessageType messageType : recommender.makeRecommendation()) {
+                Deque<SimulatedMessage> queue = queues.get(messageType);
+                if (queue != null && !queue.isEmpty()) {
+                    return messageType;
+                }
+            }
+            // types which the policy does not know are sent after recommended ones
+            for (Map.Entry<MessageType, Deque<SimulatedMessage>> queue : queues.entrySet()) {
+                if (!queue.getValue().isEmpty()) {
+                    return queue.getKey();
+                }
+            }
+            return null;
+        }
+
+        private void scheduleArrival(int typeIndex) {
+            double arrivalMs = types.get(typeIndex).getArrivalProcess().nextArrivalAfter(now, arrivalRandoms[typeIndex]);
+            if (arrivalMs <= durationMs) {
+                events.add(new Event(arrivalMs, typeIndex, eventSequence++));
+            }
+        }
+    }
+
+    private static final class SimulatedMessage {
+        final double arrivalMs;
+        final double expirationMs;
+
+        SimulatedMessage(double arrivalMs, double expirationMs) {
+            this.arrivalMs = arrivalMs;
+            this.expirationMs = expirationMs;
+        }
+    }
+
+    /**
+     * Arrival of a message of the type with index {@code typeIndex} or completion of a message by channel if the
+     * index is negative
+     */
+    private static final class Event implements Comparable<Event> {
+        final double timeMs;
+        final int typeIndex;
+        final long sequence;
+
+        Event(double timeMs, int typeIndex, long sequence) {
+            this.timeMs = timeMs;
+            this.typeIndex = typeIndex;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Double.compare(timeMs, other.timeMs);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.fix.multiplexer.simulation;
+
+import java.util.Random;
+
+/**
+ * Distribution of time in milliseconds which the simulated channel spends on a message
+ */
+public interface ServiceTime {
+
+    double sampleMs(Random random);
+
+    static ServiceTime fixed(double ms) {
+        return random -> ms;
+    }
+
+    static ServiceTime exponential(double meanMs) {
+        return random -> ArrivalProcess.exponential(meanMs, random);
+    }
+}
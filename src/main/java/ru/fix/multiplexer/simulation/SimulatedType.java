@@ -0,0 +1,45 @@
+package ru.fix.multiplexer.simulation;
+
+import ru.fix.multiplexer.MessageType;
+
+/**
+ * Traffic of one message type in the simulation
+ */
+public final class SimulatedType {
+
+    private final MessageType messageType;
+    private final ArrivalProcess arrivalProcess;
+    private final long ttlMs;
+
+    /**
+     * @param ttlMs how long a message can wait in buffer before it expires
+     */
+    public SimulatedType(MessageType messageType, ArrivalProcess arrivalProcess, long ttlMs) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("TTL must be positive, but was " + ttlMs);
+        }
+        this.messageType = messageType;
+        this.arrivalProcess = arrivalProcess;
+        this.ttlMs = ttlMs;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
+    }
+
+    public ArrivalProcess getArrivalProcess() {
+        return arrivalProcess;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedType{" +
+                "messageType=" + messageType +
+                ", ttlMs=" + ttlMs +
+                '}';
+    }
+}
@@ -0,0 +1,163 @@
+package ru.fix.multiplexer.simulation;
+
+import ru.fix.multiplexer.MessageType;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a {@link PolicySimulator} run
+ */
+public final class SimulationReport {
+
+    private final long durationMs;
+    private final Map<MessageType, TypeReport> typeReports;
+
+    SimulationReport(long durationMs, Map<MessageType, TypeReport> typeReports) {
+        this.durationMs = durationMs;
+        this.typeReports = Collections.unmodifiableMap(new LinkedHashMap<>(typeReports));
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public TypeReport of(MessageType messageType) {
+        TypeReport typeReport = typeReports.get(messageType);
+        if (typeReport == null) {
+            throw new IllegalArgumentException("Type " + messageType + " was not simulated");
+        }
+        return typeReport;
+    }
+
+    /**
+     * Share of all dispatched messages which belongs to the type
+     */
+    public double getShare(MessageType messageType) {
+        long total = typeReports.values().stream().mapToLong(TypeReport::getDispatched).sum();
+        return total == 0 ? 0 : (double) of(messageType).getDispatched() / total;
+    }
+
+    public Map<MessageType, TypeReport> getTypeReports() {
+        return typeReports;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("SimulationReport{durationMs=").append(durationMs);
+        typeReports.forEach((messageType, typeReport) -> result
+                .append(", ").append(messageType)
+                .append("={share=").append(String.format("%.3f", getShare(messageType)))
+                .append(", ").append(typeReport)
+                .append('}'));
+        return result.append('}').toString();
+    }
+
+    /**
+     * Counters and queue waits of one message type
+     */
+    public static final class TypeReport {
+
+        /**
+         * Waits below {@code 2 * SUB_BUCKETS} ms are counted exactly, every longer power of two range
+         * is split into {@code SUB_BUCKETS} buckets, so reported waits are at most 1/32 below the real ones
+         */
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+        private long arrived;
+        private long dispatched;
+        private long expired;
+        /**
+         * count of dispatched messages by bucket of queue wait in whole milliseconds
+         */
+        private final long[] waitHistogram = new long[BUCKETS];
+
+        TypeReport() {
+        }
+
+        void onArrived(int count) {
+            arrived += count;
+        }
+
+        void onExpired() {
+            expired++;
+        }
+
+        void onDispatched(double waitMs) {
+            dispatched++;
+            waitHistogram[bucket(Math.max(0, Math.round(waitMs)))]++;
+        }
+
+        private static int bucket(long waitMs) {
+            if (waitMs < 2 * SUB_BUCKETS) {
+                return (int) waitMs;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(waitMs) - SUB_BUCKET_BITS;
+            return shift * SUB_BUCKETS + (int) (waitMs >>> shift);
+        }
+
+        /**
+         * The shortest wait counted in the bucket
+         */
+        private static long bucketLowerBound(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+            return subBucket << shift;
+        }
+
+        public long getArrived() {
+            return arrived;
+        }
+
+        public long getDispatched() {
+            return dispatched;
+        }
+
+        public long getExpired() {
+            return expired;
+        }
+
+        /**
+         * Share of arrived messages which expired in buffer
+         */
+        public double getExpiryLoss() {
+            return arrived == 0 ? 0 : (double) expired / arrived;
+        }
+
+        /**
+         * Queue wait in milliseconds which {@code percentile} of dispatched messages did not exceed,
+         * -1 if no message was dispatched. Waits from 64 ms are rounded down by at most 1/32
+         *
+         * @param percentile between 0 and 1, e.g. 0.99
+         */
+        public long getWaitPercentile(double percentile) {
+            if (dispatched == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile * dispatched));
+            long seen = 0;
+            for (int bucket = 0; bucket < waitHistogram.length; bucket++) {
+                seen += waitHistogram[bucket];
+                if (seen >= rank) {
+                    return bucketLowerBound(bucket);
+                }
+            }
+            return bucketLowerBound(waitHistogram.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "arrived=" + arrived +
+                    ", dispatched=" + dispatched +
+                    ", expired=" + expired +
+                    ", p50=" + getWaitPercentile(0.5) +
+                    ", p99=" + getWaitPercentile(0.99);
+        }
+    }
+}
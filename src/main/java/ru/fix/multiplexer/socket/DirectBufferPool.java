@@ -0,0 +1,54 @@
+package ru.fix.multiplexer.socket;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable direct buffers of one size, allocation of direct memory is expensive and it is released
+ * only by garbage collector
+ */
+class DirectBufferPool {
+
+    private final int bufferBytes;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    DirectBufferPool(int bufferBytes, int maxPooled) {
+        this.bufferBytes = bufferBytes;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return cleared buffer of at least {@code bytes} capacity, heap buffer if it is larger than pooled ones
+     */
+    ByteBuffer acquire(int bytes) {
+        if (bytes > bufferBytes) {
+            return ByteBuffer.allocate(bytes);
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferBytes);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferBytes) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.add(buffer);
+    }
+
+    int getPooledCount() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,21 @@
+package ru.fix.multiplexer.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes body of the request frame, length prefix is written by {@link SocketOutputChannel}
+ */
+public interface FrameEncoder<MsgType> {
+
+    /**
+     * @return exact count of bytes written by {@link #encode}
+     */
+    int size(MsgType message);
+
+    /**
+     * @param requestId id which the server should return in the response if responses are correlated by ids,
+     *                  see {@link ResponseCorrelator}
+     * @param frame     buffer positioned after the length prefix with at least {@link #size} bytes remaining
+     */
+    void encode(MsgType message, long requestId, ByteBuffer frame);
+}
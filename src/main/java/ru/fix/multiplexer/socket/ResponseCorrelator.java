@@ -0,0 +1,26 @@
+package ru.fix.multiplexer.socket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the request of a response frame and decodes the response.
+ * Called on the I/O thread of {@link SocketOutputChannel}, so it must not block
+ */
+public interface ResponseCorrelator<ReturnType> {
+
+    /**
+     * Response answers the oldest request without response, e.g. for protocols which answer requests in order
+     */
+    long OLDEST_REQUEST = -1;
+
+    /**
+     * @param response body of the response frame, its position must not be changed
+     * @return id passed to {@link FrameEncoder#encode} or {@link #OLDEST_REQUEST}
+     */
+    long requestId(ByteBuffer response);
+
+    /**
+     * @param response body of the response frame, the buffer is reused after the call
+     */
+    ReturnType decode(ByteBuffer response);
+}
@@ -0,0 +1,49 @@
+package ru.fix.multiplexer.socket;
+
+/**
+ * Settings of {@link SocketOutputChannel}
+ */
+public interface SocketConfig {
+
+    /**
+     * Count of requests written to the socket without responses after which the channel has no free slot
+     */
+    default int getMaxInFlight() {
+        return 1024;
+    }
+
+    /**
+     * Size of pooled direct buffers, frames which do not fit are encoded into heap buffers
+     */
+    default int getFrameBufferBytes() {
+        return 4096;
+    }
+
+    /**
+     * How many free frame buffers are kept for reuse
+     */
+    default int getMaxPooledBuffers() {
+        return 256;
+    }
+
+    /**
+     * How many frames are passed to one gathering write
+     */
+    default int getMaxFramesPerWrite() {
+        return 64;
+    }
+
+    /**
+     * Initial size of the read buffer, it grows for longer responses up to {@link #getMaxFrameBytes()}
+     */
+    default int getReadBufferBytes() {
+        return 64 * 1024;
+    }
+
+    /**
+     * Longer response is a protocol violation which closes the channel
+     */
+    default int getMaxFrameBytes() {
+        return 16 * 1024 * 1024;
+    }
+}
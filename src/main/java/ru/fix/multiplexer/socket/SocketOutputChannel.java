@@ -0,0 +1,344 @@
+package ru.fix.multiplexer.socket;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.fix.commons.profiler.Profiler;
+import ru.fix.multiplexer.CapacityNotifyingOutputChannel;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MultiplexerProcessorable;
+import ru.fix.multiplexer.exception.MessageSendingException;
+import ru.fix.stdlib.concurrency.threads.NamedExecutors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output channel over one TCP connection with length prefixed frames: big endian int length and body.
+ * <p>
+ * {@link #send} encodes the request into a pooled direct buffer and queues it, the I/O thread writes queued
+ * frames to the non-blocking socket by gathering writes of up to {@link SocketConfig#getMaxFramesPerWrite()}
+ * frames, reads response frames and completes promises of their requests found by {@link ResponseCorrelator}.
+ * Channel has free slot while the socket accepts writes and there are less than
+ * {@link SocketConfig#getMaxInFlight()} requests without responses. Multiplexer is notified about every response
+ * and about the socket becoming writable again.
+ * <p>
+ * Connection is not reestablished: after I/O failure or {@link #close()} promises of requests without
+ * responses are completed exceptionally and the channel has no free slot anymore.
+ */
+@Slf4j
+public class SocketOutputChannel<MsgType, ReturnType>
+        implements CapacityNotifyingOutputChannel<MsgType, ReturnType>, Closeable {
+
+    private static final int LENGTH_BYTES = 4;
+
+    private final String name;
+    private final SocketConfig config;
+    private final FrameEncoder<? super MsgType> encoder;
+    private final ResponseCorrelator<? extends ReturnType> correlator;
+    private final Profiler profiler;
+    private final DirectBufferPool bufferPool;
+    private final SocketChannel socket;
+    private final Selector selector;
+    private final ExecutorService ioThread;
+    private final List<MultiplexerProcessorable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Frames encoded by senders and not taken by the I/O thread yet
+     */
+    private final Queue<ByteBuffer> queuedFrames = new ConcurrentLinkedQueue<>();
+    /**
+     * Frames taken by the I/O thread and not written completely, used only by the I/O thread
+     */
+    private final ArrayDeque<ByteBuffer> writingFrames = new ArrayDeque<>();
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    /**
+     * Requests without responses by ids, ids grow in order of writing
+     */
+    private final ConcurrentNavigableMap<Long, CompletableFuture<ReturnType>> inFlight = new ConcurrentSkipListMap<>();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    /**
+     * Guarded by this, ids are queued in order of their frames
+     */
+    private long nextRequestId;
+    private ByteBuffer readBuffer;
+
+    private volatile boolean writeBlocked;
+    private volatile boolean closed;
+
+    /**
+     * Connect to {@code address} and start the I/O thread
+     */
+    public SocketOutputChannel(
+            String name,
+            InetSocketAddress address,
+            FrameEncoder<? super MsgType> encoder,
+            ResponseCorrelator<? extends ReturnType> correlator,
+            SocketConfig config,
+            Profiler profiler
+    ) throws IOException {
+        this.name = name;
+        this.config = config;
+        this.encoder = encoder;
+        this.correlator = correlator;
+        this.profiler = profiler;
+        this.bufferPool = new DirectBufferPool(config.getFrameBufferBytes(), config.getMaxPooledBuffers());
+        this.readBuffer = ByteBuffer.allocateDirect(config.getReadBufferBytes());
+        this.socket = SocketChannel.open(address);
+        try {
+            socket.configureBlocking(false);
+            socket.socket().setTcpNoDelay(true);
+            this.selector = Selector.open();
+            socket.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.ioThread = NamedExecutors.newSingleThreadPool(name, profiler);
+        ioThread.submit(this::runIoLoop);
+        ioThread.shutdown();
+        profiler.attachIndicator(name + ".in_flight", () -> (long) inFlightCount.get());
+        log.info("Socket output channel '{}' is connected to {}", name, address);
+    }
+
+    @Override
+    public CompletableFuture<ReturnType> send(MsgType message, ExpirationDate expirationTime) {
+        CompletableFuture<ReturnType> promise = new CompletableFuture<>();
+        if (closed) {
+            promise.completeExceptionally(closedException());
+            return promise;
+        }
+        int size = encoder.size(message);
+        ByteBuffer frame = bufferPool.acquire(LENGTH_BYTES + size);
+        frame.putInt(size);
+        synchronized (this) {
+            long requestId = nextRequestId++;
+            try {
+                encoder.encode(message, requestId, frame);
+            } catch (RuntimeException e) {
+                bufferPool.release(frame);
+                throw e;
+            }
+            if (frame.position() != LENGTH_BYTES + size) {
+                bufferPool.release(frame);
+                throw new IllegalStateException(
+                        "Encoder wrote " + (frame.position() - LENGTH_BYTES) + " bytes instead of " + size
+                );
+            }
+            frame.flip();
+            inFlight.put(requestId, promise);
+            inFlightCount.incrementAndGet();
+            queuedFrames.add(frame);
+            if (closed && inFlight.remove(requestId) != null) {
+                // the I/O thread may have failed requests already
+                inFlightCount.decrementAndGet();
+                promise.completeExceptionally(closedException());
+                return promise;
+            }
+        }
+        if (wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return promise;
+    }
+
+    @Override
+    public boolean hasFreeSlot() {
+        return !closed && !writeBlocked && inFlightCount.get() < config.getMaxInFlight();
+    }
+
+    @Override
+    public void addCapacityListener(MultiplexerProcessorable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeCapacityListener(MultiplexerProcessorable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Requests written or queued to the socket without responses
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            if (!ioThread.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.error("Failed to await I/O thread of socket channel '{}'", name);
+                ioThread.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ioThread.shutdownNow();
+        }
+        profiler.detachIndicator(name + ".in_flight");
+    }
+
+    private void runIoLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                wakeupRequested.set(false);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isReadable()) {
+                        read();
+                    }
+                }
+                selector.selectedKeys().clear();
+                write();
+            }
+            failInFlight(closedException());
+        } catch (Exception e) {
+            log.error("Socket channel '{}' failed", name, e);
+            closed = true;
+            failInFlight(new MessageSendingException("Socket channel '" + name + "' failed", e));
+        } finally {
+            try {
+                selector.close();
+                socket.close();
+            } catch (IOException e) {
+                log.error("Failed to close socket of channel '{}'", name, e);
+            }
+        }
+    }
+
+    /**
+     * Write queued frames while the socket accepts them
+     */
+    private void write() throws IOException {
+        ByteBuffer frame;
+        while ((frame = queuedFrames.poll()) != null) {
+            writingFrames.addLast(frame);
+        }
+        ByteBuffer[] batch = new ByteBuffer[Math.min(writingFrames.size(), config.getMaxFramesPerWrite())];
+        while (!writingFrames.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer writing : writingFrames) {
+                if (count == batch.length) {
+                    break;
+                }
+                batch[count++] = writing;
+            }
+            socket.write(batch, 0, count);
+            profiler.call(name + ".gathering_write");
+            boolean partial = batch[count - 1].hasRemaining();
+            while (!writingFrames.isEmpty() && !writingFrames.peekFirst().hasRemaining()) {
+                bufferPool.release(writingFrames.pollFirst());
+            }
+            if (partial) {
+                // socket buffer is full
+                break;
+            }
+        }
+        boolean blocked = !writingFrames.isEmpty();
+        socket.keyFor(selector).interestOps(
+                blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ
+        );
+        if (writeBlocked && !blocked) {
+            writeBlocked = false;
+            notifyListeners();
+        } else {
+            writeBlocked = blocked;
+        }
+    }
+
+    private void read() throws IOException {
+        if (socket.read(readBuffer) < 0) {
+            throw new IOException("Connection is closed by the server");
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= LENGTH_BYTES) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < 0 || length > config.getMaxFrameBytes()) {
+                throw new IOException("Response frame length " + length + " is out of bounds");
+            }
+            if (readBuffer.remaining() < LENGTH_BYTES + length) {
+                break;
+            }
+            ByteBuffer response = readBuffer.duplicate();
+            response.position(readBuffer.position() + LENGTH_BYTES);
+            response.limit(response.position() + length);
+            onResponse(response.slice());
+            readBuffer.position(readBuffer.position() + LENGTH_BYTES + length);
+        }
+        if (readBuffer.remaining() >= LENGTH_BYTES) {
+            int frameBytes = LENGTH_BYTES + readBuffer.getInt(readBuffer.position());
+            if (frameBytes > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(frameBytes);
+                larger.put(readBuffer);
+                readBuffer = larger;
+                return;
+            }
+        }
+        readBuffer.compact();
+    }
+
+    private void onResponse(ByteBuffer response) {
+        long requestId = correlator.requestId(response);
+        CompletableFuture<ReturnType> promise;
+        if (requestId == ResponseCorrelator.OLDEST_REQUEST) {
+            Map.Entry<Long, CompletableFuture<ReturnType>> oldest = inFlight.pollFirstEntry();
+            promise = oldest == null ? null : oldest.getValue();
+        } else {
+            promise = inFlight.remove(requestId);
+        }
+        if (promise == null) {
+            log.warn("Socket channel '{}' received response to unknown request {}", name, requestId);
+            return;
+        }
+        inFlightCount.decrementAndGet();
+        try {
+            promise.complete(correlator.decode(response));
+        } catch (RuntimeException e) {
+            promise.completeExceptionally(e);
+        }
+        notifyListeners();
+    }
+
+    private void failInFlight(Exception cause) {
+        writingFrames.forEach(bufferPool::release);
+        writingFrames.clear();
+        ByteBuffer frame;
+        while ((frame = queuedFrames.poll()) != null) {
+            bufferPool.release(frame);
+        }
+        Map.Entry<Long, CompletableFuture<ReturnType>> request;
+        while ((request = inFlight.pollFirstEntry()) != null) {
+            inFlightCount.decrementAndGet();
+            request.getValue().completeExceptionally(cause);
+        }
+    }
+
+    private MessageSendingException closedException() {
+        return new MessageSendingException("Socket channel '" + name + "' is closed", null);
+    }
+
+    private void notifyListeners() {
+        listeners.forEach(MultiplexerProcessorable::onOutputChannelHasFreeSlot);
+    }
+}
@@ -0,0 +1,146 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdmissionControllerTest {
+
+    private final MessageType otp = new MessageType("OTP");
+    private final MessageType bulk = new MessageType("BULK");
+    private final MessageTypeStatistics statistics = new MessageTypeStatistics();
+    private final AdmissionController controller = new AdmissionController("test", statistics);
+
+    @Test
+    public void rejectsMessageWhichExpiresBeforeEstimatedWait() throws Exception {
+        MultiplexerConfig config = config(Collections.emptySet());
+        buffer(otp, 10);
+        Assert.assertTrue("drain rate is not known yet", controller.admit(otp, ExpirationDate.expiresIn(1), config));
+
+        drainDuringRateInterval(otp, 5, config);
+
+        long estimatedWaitMs = controller.estimatedWaitMs(otp);
+        Assert.assertTrue("estimated wait " + estimatedWaitMs, estimatedWaitMs >= 500 && estimatedWaitMs <= 1_000);
+        Assert.assertFalse(controller.admit(otp, ExpirationDate.expiresIn(100), config));
+        Assert.assertTrue(controller.admit(otp, ExpirationDate.expiresIn(60_000), config));
+        Assert.assertTrue("type without buffered messages", controller.admit(bulk, ExpirationDate.expiresIn(1), config));
+    }
+
+    @Test
+    public void pausedTypeIsAcceptedAndShedTypeIsRejected() throws Exception {
+        MultiplexerConfig config = config(Collections.emptySet());
+
+        controller.pause(otp);
+        Assert.assertTrue(controller.isPaused(otp, config));
+        Assert.assertTrue(controller.admit(otp, ExpirationDate.expiresIn(60_000), config));
+
+        controller.shed(bulk);
+        Assert.assertTrue(controller.isPaused(bulk, config));
+        Assert.assertFalse(controller.admit(bulk, ExpirationDate.expiresIn(60_000), config));
+        Assert.assertEquals(2, controller.pausedTypes().size());
+
+        controller.resume(otp);
+        controller.resume(bulk);
+        Assert.assertFalse(controller.isPaused(otp, config));
+        Assert.assertTrue(controller.admit(bulk, ExpirationDate.expiresIn(60_000), config));
+        Assert.assertTrue(controller.pausedTypes().isEmpty());
+    }
+
+    @Test
+    public void sheddableTypeIsShedWhileChannelIsSaturated() throws Exception {
+        MultiplexerConfig config = config(Collections.singleton(bulk));
+        buffer(otp, 10);
+        buffer(bulk, 100);
+
+        drainDuringRateInterval(otp, 5, config);
+
+        Assert.assertTrue(controller.isSaturated());
+        Assert.assertTrue(controller.isPaused(bulk, config));
+        Assert.assertFalse(controller.admit(bulk, ExpirationDate.expiresIn(60_000), config));
+        Assert.assertFalse(controller.isPaused(otp, config));
+
+        drainDuringRateInterval(otp, 5, config);
+
+        Assert.assertFalse(controller.isSaturated());
+        Assert.assertFalse(controller.isPaused(bulk, config));
+        Assert.assertTrue(controller.admit(bulk, ExpirationDate.expiresIn(60_000), config));
+    }
+
+    @Test
+    public void burstAfterIdlePeriodIsAdmittedByRateOfLastBacklog() {
+        AtomicLong nanoClock = new AtomicLong();
+        AdmissionController controller = new AdmissionController("idle", statistics, nanoClock::get);
+        MultiplexerConfig config = config(Collections.emptySet());
+        for (int i = 0; i < 10; i++) {
+            controller.onBuffered(otp);
+        }
+        for (int interval = 0; interval < 2; interval++) {
+            for (int i = 0; i < 5; i++) {
+                controller.onLeftBuffer(otp);
+                statistics.onDispatched(otp, 0);
+            }
+            nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+            controller.tickIfDue(config);
+        }
+
+        for (int idleInterval = 0; idleInterval < 20; idleInterval++) {
+            nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+            controller.tickIfDue(config);
+        }
+        for (int i = 0; i < 5; i++) {
+            controller.onBuffered(otp);
+        }
+
+        Assert.assertEquals("5 messages drained by 10 per second", 500, controller.estimatedWaitMs(otp));
+        Assert.assertTrue(controller.admit(otp, ExpirationDate.expiresIn(1_000), config));
+    }
+
+    private void buffer(MessageType messageType, int count) {
+        for (int i = 0; i < count; i++) {
+            controller.onBuffered(messageType);
+        }
+    }
+
+    private void drainDuringRateInterval(MessageType messageType, int count, MultiplexerConfig config)
+            throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            controller.onLeftBuffer(messageType);
+            statistics.onDispatched(messageType, 0);
+        }
+        Thread.sleep(600);
+        controller.tickIfDue(config);
+    }
+
+    private MultiplexerConfig config(Set<MessageType> sheddableTypes) {
+        Map<MessageType, Integer> weights = new HashMap<>();
+        weights.put(otp, 10);
+        weights.put(bulk, 1);
+        return new MultiplexerConfig() {
+            @Override
+            public Map<MessageType, Integer> registeredMessages() {
+                return weights;
+            }
+
+            @Override
+            public boolean isAdmissionControlEnabled() {
+                return true;
+            }
+
+            @Override
+            public Set<MessageType> sheddableTypes() {
+                return sheddableTypes;
+            }
+
+            @Override
+            public long getSaturationWaitThreshold() {
+                return 100;
+            }
+        };
+    }
+}
@@ -113,6 +113,21 @@ public class BufferTest {
         Assert.assertTrue(buffer.isEmpty());
     }
 
+    @Test
+    public void pollNextWithPredicateSkipsMessagesWhichCanNotBeSentAndKeepsTheirOrder() {
+        Buffer<String, String> buffer = new Buffer<>("BufferTest", new SimpleProfiler());
+        MessageType msgType = new MessageType("SimpleMessage");
+        buffer.add(new MessageContainer<>("blocked 1", msgType, new CompletableFuture<>(), expireInAnHour()));
+        buffer.add(new MessageContainer<>("blocked 2", msgType, new CompletableFuture<>(), expireInAnHour()));
+        buffer.add(new MessageContainer<>("free", msgType, new CompletableFuture<>(), expireInAnHour()));
+
+        Assert.assertEquals("free", buffer.pollNext(msgType, msg -> !msg.getMessage().startsWith("blocked")).getMessage());
+        Assert.assertNull(buffer.pollNext(msgType, msg -> !msg.getMessage().startsWith("blocked")));
+        Assert.assertEquals("blocked 1", buffer.pollNext(msgType, msg -> true).getMessage());
+        Assert.assertEquals("blocked 2", buffer.pollNext(msgType).getMessage());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
     private ExpirationDate expireInAnHour() {
         return ExpirationDate.expiresIn(1, ChronoUnit.HOURS);
     }
@@ -0,0 +1,70 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", clock::get);
+    private final MultiplexerConfig config = new MultiplexerConfig() {
+        @Override
+        public Map<MessageType, Integer> registeredMessages() {
+            return Collections.singletonMap(new MessageType("simple"), 1);
+        }
+
+        @Override
+        public Integer getCircuitBreakerFailureThreshold() {
+            return 3;
+        }
+
+        @Override
+        public long getCircuitBreakerOpenInterval() {
+            return 1_000;
+        }
+    };
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        Assert.assertFalse(circuitBreaker.onFailure(config));
+        Assert.assertFalse(circuitBreaker.onFailure(config));
+        circuitBreaker.onSuccess();
+        Assert.assertFalse(circuitBreaker.onFailure(config));
+        Assert.assertFalse(circuitBreaker.onFailure(config));
+        Assert.assertTrue(circuitBreaker.allowsDispatch(config));
+        Assert.assertTrue(circuitBreaker.isClosed());
+
+        Assert.assertTrue(circuitBreaker.onFailure(config));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertFalse(circuitBreaker.isClosed());
+        Assert.assertFalse(circuitBreaker.allowsDispatch(config));
+    }
+
+    @Test
+    public void probeMessageClosesOrReopensBreaker() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(config);
+        }
+        clock.set(999);
+        Assert.assertFalse(circuitBreaker.allowsDispatch(config));
+
+        clock.set(1_000);
+        Assert.assertTrue(circuitBreaker.allowsDispatch(config));
+        circuitBreaker.onDispatched(config);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertFalse("only one probe is sent", circuitBreaker.allowsDispatch(config));
+
+        Assert.assertTrue(circuitBreaker.onFailure(config));
+        Assert.assertFalse(circuitBreaker.allowsDispatch(config));
+
+        clock.set(2_000);
+        circuitBreaker.onDispatched(config);
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.allowsDispatch(config));
+    }
+}
@@ -0,0 +1,96 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class InFlightLimiterTest {
+
+    private static final MessageType BULK = new MessageType("bulk");
+    private static final MessageType OTP = new MessageType("otp");
+
+    @Test
+    public void whenNoLimitsConfiguredEverythingCanBeDispatched() {
+        InFlightLimiter limiter = new InFlightLimiter(config(Collections.emptyMap(), Collections.emptyMap(), null));
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(BULK);
+        }
+
+        Assert.assertFalse(limiter.isEnabled());
+        Assert.assertTrue(limiter.canDispatch(BULK));
+        Assert.assertEquals(100, limiter.totalInFlight());
+    }
+
+    @Test
+    public void whenTypeReachedLimitItCanNotBeDispatchedUntilRelease() {
+        InFlightLimiter limiter = new InFlightLimiter(
+                config(Collections.singletonMap(BULK, 2), Collections.emptyMap(), null)
+        );
+        limiter.acquire(BULK);
+        limiter.acquire(BULK);
+
+        Assert.assertFalse(limiter.canDispatch(BULK));
+        Assert.assertTrue(limiter.canDispatch(OTP));
+
+        limiter.release(BULK);
+        Assert.assertTrue(limiter.canDispatch(BULK));
+    }
+
+    @Test
+    public void reservedSlotsAreNotAvailableForOtherTypes() {
+        InFlightLimiter limiter = new InFlightLimiter(
+                config(Collections.emptyMap(), Collections.singletonMap(OTP, 1), 3)
+        );
+        limiter.acquire(BULK);
+        limiter.acquire(BULK);
+
+        Assert.assertFalse(limiter.canDispatch(BULK));
+        Assert.assertTrue(limiter.canDispatch(OTP));
+
+        limiter.acquire(OTP);
+        Assert.assertFalse(limiter.canDispatch(OTP));
+        Assert.assertFalse(limiter.canDispatch(BULK));
+    }
+
+    @Test
+    public void expensiveMessageTakesSeveralUnitsOfCapacity() {
+        InFlightLimiter limiter = new InFlightLimiter(config(Collections.emptyMap(), Collections.emptyMap(), 3));
+        limiter.acquire(BULK, 3);
+        Assert.assertFalse(limiter.canDispatch(BULK));
+
+        limiter.release(BULK, 3);
+        limiter.acquire(BULK, 2);
+        Assert.assertTrue("one unit is still free", limiter.canDispatch(BULK));
+        Assert.assertEquals(2, limiter.totalInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reservedSlotsRequireChannelCapacity() {
+        new InFlightLimiter(config(Collections.emptyMap(), Collections.singletonMap(OTP, 1), null));
+    }
+
+    private static MultiplexerConfig config(
+            Map<MessageType, Integer> inFlightLimits,
+            Map<MessageType, Integer> reservedSlots,
+            Integer channelCapacity
+    ) {
+        return new SimpleMultiplexerConfig(Collections.singletonMap(BULK, 1)) {
+            @Override
+            public Map<MessageType, Integer> inFlightLimits() {
+                return inFlightLimits;
+            }
+
+            @Override
+            public Map<MessageType, Integer> reservedSlots() {
+                return reservedSlots;
+            }
+
+            @Override
+            public Integer getChannelCapacity() {
+                return channelCapacity;
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MultiplexerControlTest {
+
+    private static final MessageType OLD = new MessageType("old");
+    private static final MessageType NEW = new MessageType("new");
+
+    @Test(timeout = 2000)
+    public void reconfigurationKeepsBufferedMessagesOfRemovedTypes() throws Exception {
+        AtomicBoolean hasFreeSlot = new AtomicBoolean(false);
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                channel(hasFreeSlot), new SimpleMultiplexerConfig(Collections.singletonMap(OLD, 1))
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> oldPromise =
+                multiplexer.send("old message", OLD, ExpirationDate.expiresIn(2000));
+
+        multiplexer.reconfigure(new SimpleMultiplexerConfig(Collections.singletonMap(NEW, 1)));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> newPromise =
+                multiplexer.send("new message", NEW, ExpirationDate.expiresIn(2000));
+        try {
+            multiplexer.send("rejected message", OLD, ExpirationDate.expiresIn(2000));
+            Assert.fail("Removed type must not be accepted");
+        } catch (IllegalArgumentException expected) {
+            // type is removed
+        }
+
+        hasFreeSlot.set(true);
+        multiplexer.onOutputChannelHasFreeSlot();
+
+        Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, oldPromise.get().getStatus());
+        Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, newPromise.get().getStatus());
+        multiplexer.close();
+    }
+
+    @Test
+    public void settingsAreChangedThroughJmx() throws Exception {
+        MultiplexerConfig config = new SimpleMultiplexerConfig(Collections.singletonMap(OLD, 1)) {
+            @Override
+            public boolean isJmxEnabled() {
+                return true;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = (MultiplexerWithPriority<String, String>)
+                MultiplexerWithPriority.createInstance("jmx-test", channel(new AtomicBoolean(true)), config,
+                        new SimpleProfiler());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("ru.fix.multiplexer:type=Multiplexer,name=" + ObjectName.quote("jmx-test"));
+
+        server.invoke(objectName, "setWeight", new Object[]{"new", 10}, new String[]{"java.lang.String", "int"});
+        server.invoke(objectName, "setInFlightLimit", new Object[]{"new", 3}, new String[]{"java.lang.String", "int"});
+        server.setAttribute(objectName, new Attribute("SendingWaitingInterval", 50));
+
+        Assert.assertEquals(Integer.valueOf(10), multiplexer.getMultiplexerConfig().registeredMessages().get(NEW));
+        Assert.assertEquals(Integer.valueOf(1), multiplexer.getMultiplexerConfig().registeredMessages().get(OLD));
+        Assert.assertEquals(Integer.valueOf(3), multiplexer.getMultiplexerConfig().inFlightLimits().get(NEW));
+        Assert.assertEquals(50, server.getAttribute(objectName, "SendingWaitingInterval"));
+        Assert.assertEquals(
+                MultiplexedMessageSendingResult.Status.SENT,
+                multiplexer.send("new message", NEW, ExpirationDate.expiresIn(1000)).get().getStatus()
+        );
+
+        multiplexer.close();
+        Assert.assertFalse(server.isRegistered(objectName));
+    }
+
+    @Test
+    public void removedTypeLosesAllItsSettings() {
+        MultiplexerConfig config = new SimpleMultiplexerConfig(Collections.singletonMap(OLD, 1)) {
+            @Override
+            public Map<MessageType, SlaTarget> slaTargets() {
+                return Collections.singletonMap(OLD, new SlaTarget(100, 0.99, 1, 10));
+            }
+
+            @Override
+            public Map<MessageType, RetryPolicy> retryPolicies() {
+                return Collections.singletonMap(OLD, new RetryPolicy(3, 10, 100));
+            }
+
+            @Override
+            public Map<MessageType, Long> bufferWeightLimits() {
+                return Collections.singletonMap(OLD, 1000L);
+            }
+
+            @Override
+            public Set<MessageType> sheddableTypes() {
+                return Collections.singleton(OLD);
+            }
+        };
+
+        ImmutableMultiplexerConfig removed = new ImmutableMultiplexerConfig(config)
+                .withInFlightLimit(OLD, 5)
+                .withWeight(NEW, 1)
+                .withoutMessageType(OLD);
+
+        Assert.assertEquals(Collections.singletonMap(NEW, 1), removed.registeredMessages());
+        Assert.assertTrue(removed.inFlightLimits().isEmpty());
+        Assert.assertTrue(removed.slaTargets().isEmpty());
+        Assert.assertTrue(removed.retryPolicies().isEmpty());
+        Assert.assertTrue(removed.bufferWeightLimits().isEmpty());
+        Assert.assertTrue(removed.sheddableTypes().isEmpty());
+    }
+
+    private static MultiplexerOutputChannel<String, String> channel(AtomicBoolean hasFreeSlot) {
+        return new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return hasFreeSlot.get();
+            }
+        };
+    }
+}
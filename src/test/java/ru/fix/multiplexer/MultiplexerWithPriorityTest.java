@@ -2,15 +2,28 @@ package ru.fix.multiplexer;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.exception.MessageSendingException;
 import ru.fix.multiplexer.util.ConfigBuilder;
 import ru.fix.multiplexer.util.OutputChannelBuilder;
 
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -111,6 +124,914 @@ public class MultiplexerWithPriorityTest {
         assertFalse(promise1.isDone()); //does not sent
     }
 
+    @Test(timeout = 1000)
+    public void whenNotifyingChannelReleasesCapacityMessageIsSentWithoutWaitingInterval() throws Exception {
+        OutputChannelBuilder.NotifyingChannel outputChannel = OutputChannelBuilder.notifyingAddWordReceived();
+
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                outputChannel,
+                ConfigBuilder.simpleWith100PriorityAndLongWaitingInterval()
+        );
+        assertEquals(1, outputChannel.countListeners());
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send("hello", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+        Thread.sleep(50);
+        assertFalse(promise.isDone());
+
+        outputChannel.release();
+
+        assertEquals("hello received", promise.get().getResult());
+
+        multiplexer.close();
+        assertEquals(0, outputChannel.countListeners());
+    }
+
+    @Test(timeout = 2000)
+    public void drainWithDeadlineWaitsForFullChannel() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "drain", OutputChannelBuilder.addWordReceived(hasFreeSlotBoolean::get), ConfigBuilder.simpleWith100Priority(),
+                new SimpleProfiler()
+        );
+        multiplexer.start();
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send("buffered", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+        multiplexer.shutdown(1000);
+        Thread.sleep(100);
+        assertFalse(promise.isDone());
+
+        hasFreeSlotBoolean.set(true);
+
+        assertEquals("buffered received", promise.get().getResult());
+        assertTrue(multiplexer.awaitTermination(1000));
+    }
+
+    @Test(timeout = 2000)
+    public void messagesLeftAfterDrainDeadlineAreNotSent() throws Exception {
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "drain", OutputChannelBuilder.addWordReceived(() -> false), ConfigBuilder.simpleWith100Priority(),
+                new SimpleProfiler()
+        );
+        multiplexer.start();
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send("buffered", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+        multiplexer.shutdown(100);
+
+        assertEquals(MultiplexedMessageSendingResult.Status.NOT_SENT_SHUTTING_DOWN, promise.get().getStatus());
+        assertTrue(multiplexer.awaitTermination(1000));
+    }
+
+    @Test(timeout = 2000)
+    public void handOffPassesBufferedAndNewMessagesToSuccessor() throws Exception {
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "old", OutputChannelBuilder.addWordReceived(() -> false), ConfigBuilder.simpleWith100Priority(),
+                new SimpleProfiler()
+        );
+        multiplexer.start();
+        Multiplexer<String, String> successor = MultiplexerWithPriority.createInstance(
+                OutputChannelBuilder.addWordReceived(() -> true), ConfigBuilder.simpleWith100Priority()
+        );
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> buffered =
+                multiplexer.send("buffered", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+        multiplexer.handOff(successor, 0);
+        CompletableFuture<MultiplexedMessageSendingResult<String>> sentAfterHandOff =
+                multiplexer.send("new", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+
+        assertEquals("buffered received", buffered.get().getResult());
+        assertEquals("new received", sentAfterHandOff.get().getResult());
+        assertTrue(multiplexer.awaitTermination(1000));
+        assertEquals(0, multiplexer.countMessagesWaitingToProcessing());
+        successor.close();
+    }
+
+    @Test(timeout = 2000)
+    public void failedMessageIsRetriedWithinExpiration() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                if (attempts.incrementAndGet() < 3) {
+                    channelPromise.completeExceptionally(new IllegalStateException("busy"));
+                } else {
+                    channelPromise.complete(message + " received");
+                }
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MessageType simple = new MessageType("simple");
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Map<MessageType, RetryPolicy> retryPolicies() {
+                return Collections.singletonMap(simple, new RetryPolicy(
+                        3, 10, 50, failure -> failure instanceof IllegalStateException
+                ));
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(outputChannel, config);
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send("hello", simple, ExpirationDate.expiresIn(1000));
+
+        assertEquals("hello received", promise.get().getResult());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test(timeout = 2000)
+    public void failureIsNotRetriedWhenBackoffExceedsExpiration() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                attempts.incrementAndGet();
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                channelPromise.completeExceptionally(new IllegalStateException("busy"));
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MessageType simple = new MessageType("simple");
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Map<MessageType, RetryPolicy> retryPolicies() {
+                return Collections.singletonMap(simple, new RetryPolicy(5, 10_000, 10_000));
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(outputChannel, config);
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send("hello", simple, ExpirationDate.expiresIn(1000));
+
+        try {
+            promise.get();
+            fail("Message must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MessageSendingException);
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test(timeout = 2000)
+    public void messagesAboveWeightLimitAreRejectedUntilRetainedWeightIsReleased() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Long getBufferWeightLimit() {
+                return 10L;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "weight", OutputChannelBuilder.addWordReceived(hasFreeSlotBoolean::get), config, new SimpleProfiler()
+        );
+        multiplexer.setWeigher(String::length);
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> first =
+                multiplexer.send("12345", simple, ExpirationDate.expiresIn(1000));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> tooHeavy =
+                multiplexer.send("123456", simple, ExpirationDate.expiresIn(1000));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> second =
+                multiplexer.send("12345", simple, ExpirationDate.expiresIn(1000));
+
+        assertEquals(MultiplexedMessageSendingResult.Status.REJECTED, tooHeavy.get().getStatus());
+        assertEquals(10, multiplexer.getRetainedWeight());
+        assertEquals(10, multiplexer.getRetainedWeight(simple));
+
+        hasFreeSlotBoolean.set(true);
+        assertEquals("12345 received", first.get().getResult());
+        assertEquals("12345 received", second.get().getResult());
+        // weight is released by a callback of the promise, which can run after the result is returned
+        while (multiplexer.getRetainedWeight() != 0) {
+            Thread.sleep(10);
+        }
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void mergedAndLazyMessagesAreWeighedByTheirContent() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Long getBufferWeightLimit() {
+                return 20L;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "content weight", OutputChannelBuilder.addWordReceived(hasFreeSlotBoolean::get), config, new SimpleProfiler()
+        );
+        MessageType simple = new MessageType("simple");
+        multiplexer.setWeigher(String::length);
+        multiplexer.setMergeFunction(simple, (buffered, newer) -> buffered + "+" + newer);
+        multiplexer.start();
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        SendOptions order = SendOptions.defaults().withCoalescingKey("order");
+        promises.add(multiplexer.send("paid", simple, ExpirationDate.expiresIn(1000), order));
+        promises.add(multiplexer.send("shipped", simple, ExpirationDate.expiresIn(1000), order));
+        assertEquals("paid+shipped".length(), multiplexer.getRetainedWeight());
+
+        promises.add(multiplexer.send(() -> "12345678", simple, ExpirationDate.expiresIn(1000)));
+        assertEquals("lazy message is weighed when it is built", 12, multiplexer.getRetainedWeight());
+        multiplexer.setPreparationExecutor(Runnable::run, 2);
+        while (multiplexer.getRetainedWeight() != 20) {
+            Thread.sleep(10);
+        }
+        assertEquals(MultiplexedMessageSendingResult.Status.REJECTED,
+                multiplexer.send("1", simple, ExpirationDate.expiresIn(1000)).get().getStatus());
+
+        hasFreeSlotBoolean.set(true);
+        for (CompletableFuture<MultiplexedMessageSendingResult<String>> promise : promises) {
+            assertEquals(MultiplexedMessageSendingResult.Status.SENT, promise.get().getStatus());
+        }
+        while (multiplexer.getRetainedWeight() != 0) {
+            Thread.sleep(10);
+        }
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void typesShareChannelUnitsWhenCostFunctionIsSet() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(true);
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return hasFreeSlotBoolean.get();
+            }
+        };
+        Map<MessageType, Integer> priority = new LinkedHashMap<>();
+        MessageType big = new MessageType("big");
+        MessageType small = new MessageType("small");
+        priority.put(big, 1);
+        priority.put(small, 1);
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "units", outputChannel, new SimpleMultiplexerConfig(priority), new SimpleProfiler()
+        );
+        multiplexer.start();
+        // the tenant and its recommender exist before the cost function is set
+        multiplexer.send("warm up", small, ExpirationDate.expiresIn(1000)).get();
+        hasFreeSlotBoolean.set(false);
+        multiplexer.setCostFunction(message -> message.startsWith("big") ? 10 : 1);
+        sentMessages.clear();
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            promises.add(multiplexer.send("big " + i, big, ExpirationDate.expiresIn(1000)));
+            promises.add(multiplexer.send("small " + i, small, ExpirationDate.expiresIn(1000)));
+        }
+        hasFreeSlotBoolean.set(true);
+        multiplexer.onOutputChannelHasFreeSlot();
+        CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0])).get();
+
+        // a big message takes as many units as ten small ones, costs are larger than the window of two messages
+        long bigAmongFirstEleven = sentMessages.subList(0, 11).stream()
+                .filter(message -> message.startsWith("big"))
+                .count();
+        assertTrue("sent " + sentMessages, bigAmongFirstEleven <= 2);
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void bufferedMessagesWithTheSameCoalescingKeyAreMerged() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return hasFreeSlotBoolean.get();
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "coalescing", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        MessageType simple = new MessageType("simple");
+        multiplexer.setMergeFunction(simple, (buffered, newer) -> buffered + "+" + newer);
+        multiplexer.start();
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> paid = multiplexer.send(
+                "paid", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 1")
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> other = multiplexer.send(
+                "other", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 2")
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> shipped = multiplexer.send(
+                "shipped", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 1")
+        );
+        assertEquals(2, multiplexer.countMessagesWaitingToProcessing());
+
+        hasFreeSlotBoolean.set(true);
+
+        assertEquals("paid+shipped received", paid.get().getResult());
+        assertEquals("paid+shipped received", shipped.get().getResult());
+        assertEquals("other received", other.get().getResult());
+        assertEquals(Arrays.asList("paid+shipped", "other"), sentMessages);
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> delivered = multiplexer.send(
+                "delivered", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 1")
+        );
+        assertEquals("sent message is not merged", "delivered received", delivered.get().getResult());
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void identicalRequestsAreAttachedToTheRequestInFlight() throws Exception {
+        Map<String, CompletableFuture<String>> channelPromises = new ConcurrentHashMap<>();
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                return channelPromises.computeIfAbsent(message, key -> new CompletableFuture<>());
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "single-flight", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+        SendOptions moscow = SendOptions.defaults().withRequestKey("tariff moscow");
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> first =
+                multiplexer.send("moscow", simple, ExpirationDate.expiresIn(1000), moscow);
+        while (sentMessages.isEmpty()) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<MultiplexedMessageSendingResult<String>> second =
+                multiplexer.send("moscow", simple, ExpirationDate.expiresIn(1000), moscow);
+        CompletableFuture<MultiplexedMessageSendingResult<String>> other = multiplexer.send(
+                "kazan", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withRequestKey("tariff kazan")
+        );
+        while (sentMessages.size() < 2) {
+            Thread.sleep(10);
+        }
+
+        channelPromises.get("moscow").complete("10 rub");
+        channelPromises.get("kazan").complete("8 rub");
+        assertEquals("10 rub", first.get().getResult());
+        assertEquals("10 rub", second.get().getResult());
+        assertEquals("8 rub", other.get().getResult());
+        assertEquals(Arrays.asList("moscow", "kazan"), sentMessages);
+        assertEquals(1, multiplexer.getCollapsedRequestCount());
+
+        // the key is released by a callback of the promise, which can run after the result is returned
+        Thread.sleep(50);
+        channelPromises.clear();
+        CompletableFuture<MultiplexedMessageSendingResult<String>> afterCompletion =
+                multiplexer.send("moscow", simple, ExpirationDate.expiresIn(1000), moscow);
+        while (sentMessages.size() < 3) {
+            Thread.sleep(10);
+        }
+        channelPromises.get("moscow").complete("11 rub");
+        assertEquals("11 rub", afterCompletion.get().getResult());
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void requestsOfOtherTenantsAreNotAttachedAndFollowersExpireInTime() throws Exception {
+        List<CompletableFuture<String>> channelPromises = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                CompletableFuture<String> promise = new CompletableFuture<>();
+                channelPromises.add(promise);
+                return promise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "tenant single-flight", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+        SendOptions tariff = SendOptions.defaults().withRequestKey("tariff");
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> leader =
+                multiplexer.send("tariff", simple, ExpirationDate.expiresIn(1500), tariff.withTenant("A"));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> follower =
+                multiplexer.send("tariff", simple, ExpirationDate.expiresIn(100), tariff.withTenant("A"));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> otherTenant =
+                multiplexer.send("tariff", simple, ExpirationDate.expiresIn(1500), tariff.withTenant("B"));
+        while (channelPromises.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, multiplexer.getCollapsedRequestCount());
+
+        assertEquals(MultiplexedMessageSendingResult.Status.NOT_SENT, follower.get().getStatus());
+        assertFalse(leader.isDone());
+
+        channelPromises.get(0).complete("for A");
+        channelPromises.get(1).complete("for B");
+        assertEquals("for A", leader.get().getResult());
+        assertEquals("for B", otherTenant.get().getResult());
+        multiplexer.close();
+    }
+
+    @Test(timeout = 1000)
+    public void whenTypeReachedInFlightLimitNextMessageIsSentAfterCompletionOfPrevious() throws Exception {
+        List<CompletableFuture<String>> channelPromises = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                channelPromises.add(channelPromise);
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Map<MessageType, Integer> inFlightLimits() {
+                return Collections.singletonMap(new MessageType("simple"), 1);
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(outputChannel, config);
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise1 =
+                multiplexer.send("first", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise2 =
+                multiplexer.send("second", new MessageType("simple"), ExpirationDate.expiresIn(1000));
+
+        Thread.sleep(400);
+        assertEquals(1, channelPromises.size());
+
+        channelPromises.get(0).complete("first received");
+        assertEquals("first received", promise1.get().getResult());
+
+        while (channelPromises.size() < 2) {
+            Thread.sleep(10);
+        }
+        channelPromises.get(1).complete("second received");
+        assertEquals("second received", promise2.get().getResult());
+    }
+
+    @Test(timeout = 1000)
+    public void messagesWithTheSameOrderingKeyAreSentOneByOneAndOtherKeysAreNotBlocked() throws Exception {
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        Map<String, CompletableFuture<String>> channelPromises = new ConcurrentHashMap<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                channelPromises.put(message, channelPromise);
+                sentMessages.add(message);
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                outputChannel, ConfigBuilder.simpleWith100Priority()
+        );
+
+        MessageType simple = new MessageType("simple");
+        multiplexer.send("a1", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withOrderingKey("a"));
+        multiplexer.send("a2", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withOrderingKey("a"));
+        multiplexer.send("b1", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withOrderingKey("b"));
+        multiplexer.send("c1", simple, ExpirationDate.expiresIn(1000));
+
+        while (sentMessages.size() < 3) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("a1", "b1", "c1"), sentMessages);
+
+        channelPromises.get("a1").complete("a1 received");
+        while (sentMessages.size() < 4) {
+            Thread.sleep(10);
+        }
+        assertEquals("a2", sentMessages.get(3));
+    }
+
+    @Test(timeout = 2000)
+    public void orderingKeyKeepsOrderOfSourceAndSerializesAllSources() throws Exception {
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        Map<String, CompletableFuture<String>> channelPromises = new ConcurrentHashMap<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                channelPromises.put(message, channelPromise);
+                sentMessages.add(message);
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                outputChannel, ConfigBuilder.simpleWith100Priority()
+        );
+        MessageType simple = new MessageType("simple");
+        SendOptions first = SendOptions.defaults().withOrderingKey("account").withSource("first");
+        SendOptions second = SendOptions.defaults().withOrderingKey("account").withSource("second");
+
+        multiplexer.send("first 1", simple, ExpirationDate.expiresIn(1500), first);
+        multiplexer.send("first 2", simple, ExpirationDate.expiresIn(1500), first);
+        multiplexer.send("second 1", simple, ExpirationDate.expiresIn(1500), second);
+
+        for (int sent = 1; sent <= 3; sent++) {
+            while (sentMessages.size() < sent) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertEquals("key is in flight", sent, sentMessages.size());
+            channelPromises.get(sentMessages.get(sent - 1)).complete("received");
+        }
+        assertTrue(sentMessages.indexOf("first 1") < sentMessages.indexOf("first 2"));
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void lazyMessageIsBuiltOnlyWhenItIsSent() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "lazy", OutputChannelBuilder.addWordReceived(hasFreeSlotBoolean::get),
+                ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        MessageType simple = new MessageType("simple");
+        multiplexer.setMergeFunction(simple, (buffered, newer) -> buffered + "+" + newer);
+        multiplexer.start();
+        List<String> built = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> expired = multiplexer.send(
+                () -> {
+                    built.add("expired");
+                    return "expired";
+                }, simple, ExpirationDate.expiresIn(50)
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> paid = multiplexer.send(
+                () -> {
+                    built.add("paid");
+                    return "paid";
+                }, simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 1")
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> shipped = multiplexer.send(
+                "shipped", simple, ExpirationDate.expiresIn(1000), SendOptions.defaults().withCoalescingKey("order 1")
+        );
+        Thread.sleep(100);
+        assertTrue(built.isEmpty());
+
+        hasFreeSlotBoolean.set(true);
+
+        assertEquals(MultiplexedMessageSendingResult.Status.NOT_SENT, expired.get().getStatus());
+        assertEquals("paid+shipped received", paid.get().getResult());
+        assertEquals("paid+shipped received", shipped.get().getResult());
+        assertEquals(Collections.singletonList("paid"), built);
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void lazyMessagesAreBuiltOnPreparationExecutor() throws Exception {
+        List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sendingThreads.add(Thread.currentThread());
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "preparation", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        ExecutorService preparationPool = Executors.newFixedThreadPool(2);
+        multiplexer.setPreparationExecutor(preparationPool, 2);
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+        List<Thread> buildingThreads = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> rendered = multiplexer.send(
+                () -> {
+                    buildingThreads.add(Thread.currentThread());
+                    return "rendered";
+                }, simple, ExpirationDate.expiresIn(1000)
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> broken = multiplexer.send(
+                () -> {
+                    throw new IllegalStateException("template is broken");
+                }, simple, ExpirationDate.expiresIn(1000)
+        );
+
+        assertEquals("rendered received", rendered.get().getResult());
+        try {
+            broken.get();
+            fail("Message must not be sent");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MessageSendingException);
+        }
+        assertEquals(1, sendingThreads.size());
+        assertNotEquals(sendingThreads.get(0), buildingThreads.get(0));
+        multiplexer.close();
+        preparationPool.shutdown();
+    }
+
+    @Test(timeout = 2000)
+    public void notMoreThanMaxPreparingMessagesAreBuiltAtOnce() throws Exception {
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "bounded preparation",
+                OutputChannelBuilder.addWordReceived(() -> true),
+                ConfigBuilder.simpleWith100Priority(),
+                new SimpleProfiler()
+        );
+        Queue<Runnable> preparationTasks = new ConcurrentLinkedQueue<>();
+        multiplexer.setPreparationExecutor(preparationTasks::add, 2);
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String message = "message " + i;
+            promises.add(multiplexer.send(() -> message, simple, ExpirationDate.expiresIn(1000)));
+        }
+        while (preparationTasks.size() < 2) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(2, preparationTasks.size());
+        assertEquals(5, multiplexer.countMessagesWaitingToProcessing());
+
+        while (!promises.stream().allMatch(CompletableFuture::isDone)) {
+            Runnable task = preparationTasks.poll();
+            if (task != null) {
+                task.run();
+            } else {
+                Thread.sleep(10);
+            }
+            assertTrue(preparationTasks.size() <= 2);
+        }
+        for (CompletableFuture<MultiplexedMessageSendingResult<String>> promise : promises) {
+            assertEquals(MultiplexedMessageSendingResult.Status.SENT, promise.get().getStatus());
+        }
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void messagesArePreparedAheadOfBusyChannel() throws Exception {
+        AtomicBoolean hasFreeSlotBoolean = new AtomicBoolean(false);
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return hasFreeSlotBoolean.get();
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "pipeline", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        ExecutorService preparationPool = Executors.newFixedThreadPool(2);
+        List<String> preparedMessages = new CopyOnWriteArrayList<>();
+        multiplexer.setPreparer(message -> {
+            preparedMessages.add(message);
+            return message + " signed";
+        });
+        multiplexer.setPreparationExecutor(preparationPool, 2);
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        for (String message : Arrays.asList("first", "second", "third")) {
+            promises.add(multiplexer.send(message, simple, ExpirationDate.expiresIn(1000)));
+        }
+        while (preparedMessages.size() < 2) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals("only the window is prepared",
+                new HashSet<>(Arrays.asList("first", "second")), new HashSet<>(preparedMessages));
+        assertTrue(sentMessages.isEmpty());
+        assertEquals(3, multiplexer.countMessagesWaitingToProcessing());
+
+        hasFreeSlotBoolean.set(true);
+
+        assertEquals("third signed received", promises.get(2).get().getResult());
+        assertEquals(Arrays.asList("first signed", "second signed", "third signed"), sentMessages);
+        multiplexer.close();
+        preparationPool.shutdown();
+    }
+
+    @Test(timeout = 2000)
+    public void prefetchWindowFollowsWeightsOfTypes() throws Exception {
+        Map<MessageType, Integer> priority = new LinkedHashMap<>();
+        MessageType heavy = new MessageType("heavy");
+        MessageType light = new MessageType("light");
+        priority.put(heavy, 3);
+        priority.put(light, 1);
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "weighted pipeline",
+                OutputChannelBuilder.addWordReceived(() -> false),
+                new SimpleMultiplexerConfig(priority),
+                new SimpleProfiler()
+        );
+        ExecutorService preparationPool = Executors.newFixedThreadPool(2);
+        List<String> preparedMessages = new CopyOnWriteArrayList<>();
+        multiplexer.setPreparer(message -> {
+            preparedMessages.add(message);
+            return message;
+        });
+        multiplexer.setPreparationExecutor(preparationPool, 4);
+        for (int i = 0; i < 4; i++) {
+            multiplexer.send("heavy", heavy, ExpirationDate.expiresIn(1000));
+            multiplexer.send("light", light, ExpirationDate.expiresIn(1000));
+        }
+        multiplexer.start();
+
+        while (preparedMessages.size() < 4) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(4, preparedMessages.size());
+        assertEquals(3, Collections.frequency(preparedMessages, "heavy"));
+        assertEquals(1, Collections.frequency(preparedMessages, "light"));
+        multiplexer.shutdownNow();
+        preparationPool.shutdown();
+    }
+
+    @Test(timeout = 3000)
+    public void openCircuitBreakerSendsSinglePrefetchedProbe() throws Exception {
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> probeResult = new CompletableFuture<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                if (sentMessages.size() == 1) {
+                    CompletableFuture<String> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IllegalStateException("channel is down"));
+                    return failed;
+                }
+                return sentMessages.size() == 2 ? probeResult : CompletableFuture.completedFuture(message);
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        MultiplexerConfig config = new SimpleMultiplexerConfig(ConfigBuilder.simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Integer getCircuitBreakerFailureThreshold() {
+                return 1;
+            }
+
+            @Override
+            public long getCircuitBreakerOpenInterval() {
+                return 200;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<>(
+                "probing pipeline", outputChannel, config, new SimpleProfiler()
+        );
+        Queue<Runnable> preparationTasks = new ConcurrentLinkedQueue<>();
+        multiplexer.setPreparer(message -> message);
+        multiplexer.setPreparationExecutor(preparationTasks::add, 3);
+        multiplexer.start();
+        MessageType simple = new MessageType("simple");
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> failed =
+                multiplexer.send("failed", simple, ExpirationDate.expiresIn(2000));
+        while (!failed.isDone()) {
+            Runnable task = preparationTasks.poll();
+            if (task != null) {
+                task.run();
+            } else {
+                Thread.sleep(10);
+            }
+        }
+        try {
+            failed.get();
+            fail("Message must not be sent");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MessageSendingException);
+        }
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        for (String message : Arrays.asList("probe", "second", "third")) {
+            promises.add(multiplexer.send(message, simple, ExpirationDate.expiresIn(2000)));
+        }
+        while (preparationTasks.isEmpty()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals("only the probe is prefetched", 1, preparationTasks.size());
+        preparationTasks.poll().run();
+        while (sentMessages.size() < 2) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals("other messages wait for the probe", Arrays.asList("failed", "probe"), sentMessages);
+        assertTrue(preparationTasks.isEmpty());
+
+        probeResult.complete("probe received");
+
+        while (!promises.stream().allMatch(CompletableFuture::isDone)) {
+            Runnable task = preparationTasks.poll();
+            if (task != null) {
+                task.run();
+            } else {
+                Thread.sleep(10);
+            }
+        }
+        for (CompletableFuture<MultiplexedMessageSendingResult<String>> promise : promises) {
+            assertEquals(MultiplexedMessageSendingResult.Status.SENT, promise.get().getStatus());
+        }
+        assertEquals(Arrays.asList("failed", "probe", "second", "third"), sentMessages);
+        multiplexer.close();
+    }
+
+    @Test(timeout = 2000)
+    public void delayedMessageIsSentNotBeforeItsTime() throws Exception {
+        List<String> sentMessages = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<String, String> outputChannel = new MultiplexerOutputChannel<String, String>() {
+            @Override
+            public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                sentMessages.add(message);
+                return CompletableFuture.completedFuture(message + " received");
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                outputChannel, ConfigBuilder.simpleWith100Priority()
+        );
+        MessageType simple = new MessageType("simple");
+        Instant notBefore = Instant.now().plusMillis(300);
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> delayed = multiplexer.send(
+                "delayed", simple, ExpirationDate.expiresIn(1500), SendOptions.defaults().withNotBefore(notBefore)
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> tooLate = multiplexer.send(
+                "too late", simple, ExpirationDate.expiresIn(100), SendOptions.defaults().withNotBefore(notBefore)
+        );
+        CompletableFuture<MultiplexedMessageSendingResult<String>> immediate = multiplexer.send(
+                "immediate", simple, ExpirationDate.expiresIn(1500)
+        );
+
+        assertEquals(MultiplexedMessageSendingResult.Status.NOT_SENT, tooLate.getNow(null).getStatus());
+        assertEquals("immediate received", immediate.get().getResult());
+        assertFalse(delayed.isDone());
+
+        assertEquals("delayed received", delayed.get().getResult());
+        assertFalse(Instant.now().isBefore(notBefore));
+        assertEquals(Arrays.asList("immediate", "delayed"), sentMessages);
+        multiplexer.close();
+    }
+
     @Test(expected = RuntimeException.class)
     public void multiplexerDoesNotAllowToSendUnregisteredMessage() {
         Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
@@ -0,0 +1,66 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class PrefetchWindowTest {
+
+    private final PrefetchWindow<String, String> window = new PrefetchWindow<>();
+
+    @Test
+    public void messagesLeaveWindowInOrderTheyWereChosen() throws Exception {
+        MessageContainer<String, String> high = message("high");
+        MessageContainer<String, String> low = message("low");
+        window.add(high, false);
+        window.add(low, false);
+
+        window.onPrepared(low);
+        Assert.assertFalse("low priority message does not overtake high one", window.hasReady());
+        Assert.assertNull(window.pollReady());
+
+        window.onPrepared(high);
+        Assert.assertSame(high, window.pollReady());
+        Assert.assertSame(low, window.pollReady());
+        Assert.assertTrue(window.isEmpty());
+    }
+
+    @Test
+    public void failedMessageLeavesWindow() throws Exception {
+        MessageContainer<String, String> broken = message("broken");
+        MessageContainer<String, String> ready = message("ready");
+        window.add(broken, false);
+        window.add(ready, true);
+        Assert.assertTrue(window.isPreparing());
+
+        window.remove(broken);
+        Assert.assertFalse(window.isPreparing());
+        Assert.assertSame(ready, window.pollReady());
+    }
+
+    @Test
+    public void pollAllReadyKeepsMessagesBeingPrepared() throws Exception {
+        MessageContainer<String, String> first = message("first");
+        MessageContainer<String, String> preparing = message("preparing");
+        MessageContainer<String, String> third = message("third");
+        window.add(first, true);
+        window.add(preparing, false);
+        window.add(third, true);
+
+        List<String> polled = new ArrayList<>();
+        window.pollAllReady(message -> polled.add(message.getMessage()));
+        Assert.assertEquals(Arrays.asList("first", "third"), polled);
+        Assert.assertEquals(1, window.size());
+        Assert.assertTrue(window.isPreparing());
+    }
+
+    private static MessageContainer<String, String> message(String message) {
+        return new MessageContainer<>(
+                message, new MessageType("simple"), new CompletableFuture<>(), ExpirationDate.expiresIn(1000)
+        );
+    }
+}
@@ -0,0 +1,95 @@
+package ru.fix.multiplexer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.util.OutputChannelBuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SlaWeightControllerTest {
+
+    private static final MessageType OTP = new MessageType("otp");
+    private static final MessageType BULK = new MessageType("bulk");
+
+    private MultiplexerWithPriority<String, String> multiplexer;
+    private MessageTypeStatistics statistics;
+    private SlaWeightController controller;
+
+    @Before
+    public void setUp() {
+        Map<MessageType, Integer> weights = new LinkedHashMap<>();
+        weights.put(OTP, 10);
+        weights.put(BULK, 10);
+        MultiplexerConfig config = new SimpleMultiplexerConfig(weights) {
+            @Override
+            public Map<MessageType, SlaTarget> slaTargets() {
+                return Collections.singletonMap(OTP, new SlaTarget(100, 0.9, 2, 20));
+            }
+        };
+        multiplexer = new MultiplexerWithPriority<>(
+                "sla", OutputChannelBuilder.addWordReceived(() -> true), config, new SimpleProfiler()
+        );
+        multiplexer.start();
+        statistics = new MessageTypeStatistics();
+        controller = new SlaWeightController("sla", new SimpleProfiler(), statistics, multiplexer);
+    }
+
+    @After
+    public void tearDown() {
+        controller.close();
+        multiplexer.close();
+    }
+
+    @Test
+    public void whenPercentileMissesTargetWeightIsIncreasedUpToMaxWeight() {
+        for (int tick = 0; tick < 10; tick++) {
+            for (int i = 0; i < 100; i++) {
+                statistics.onDispatched(OTP, 500);
+            }
+            controller.tick(multiplexer.getMultiplexerConfig());
+        }
+
+        Assert.assertEquals(Integer.valueOf(20), weightOf(OTP));
+        Assert.assertEquals(Integer.valueOf(10), weightOf(BULK));
+        Assert.assertEquals(500, controller.lastWaitPercentile(OTP));
+    }
+
+    @Test
+    public void whenMessagesExpireWeightIsIncreased() {
+        controller.tick(multiplexer.getMultiplexerConfig());
+        statistics.onExpired(OTP);
+        controller.tick(multiplexer.getMultiplexerConfig());
+
+        Assert.assertTrue(weightOf(OTP) > 10);
+    }
+
+    @Test
+    public void whenPercentileIsFarBelowTargetWeightIsDecreasedDownToMinWeight() {
+        for (int tick = 0; tick < 20; tick++) {
+            for (int i = 0; i < 100; i++) {
+                statistics.onDispatched(OTP, i < 95 ? 1 : 1_000);
+            }
+            controller.tick(multiplexer.getMultiplexerConfig());
+        }
+
+        Assert.assertEquals(Integer.valueOf(2), weightOf(OTP));
+    }
+
+    @Test
+    public void withoutNewMeasurementsWeightIsNotChanged() {
+        controller.tick(multiplexer.getMultiplexerConfig());
+        controller.tick(multiplexer.getMultiplexerConfig());
+
+        Assert.assertEquals(Integer.valueOf(10), weightOf(OTP));
+        Assert.assertEquals(-1, controller.lastWaitPercentile(OTP));
+    }
+
+    private Integer weightOf(MessageType messageType) {
+        return multiplexer.getMultiplexerConfig().registeredMessages().get(messageType);
+    }
+}
@@ -0,0 +1,55 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SourceFairQueueTest {
+
+    /**
+     * Source of element is the part before the colon, elements without colon have no source
+     */
+    private final SourceFairQueue<String> queue = new SourceFairQueue<>(
+            element -> element.contains(":") ? element.substring(0, element.indexOf(':')) : null
+    );
+
+    @Test
+    public void sourcesGetTurnsOneByOne() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            queue.add("bulk:" + i);
+        }
+        queue.add("otp:0");
+        queue.add("no source");
+        queue.add("otp:1");
+
+        List<String> polled = new ArrayList<>();
+        queue.pollAll(polled::add);
+
+        Assert.assertEquals(
+                Arrays.asList("bulk:0", "otp:0", "no source", "bulk:1", "otp:1", "bulk:2", "bulk:3", "bulk:4"),
+                polled
+        );
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.sourceCount());
+    }
+
+    @Test
+    public void pollWithPredicateKeepsOrderOfSkippedElements() throws Exception {
+        queue.add("bulk:blocked");
+        queue.add("bulk:0");
+        queue.add("otp:blocked");
+        queue.add("otp:0");
+
+        Assert.assertEquals("bulk:0", queue.poll(element -> !element.endsWith("blocked")));
+        Assert.assertEquals("otp:0", queue.poll(element -> !element.endsWith("blocked")));
+        Assert.assertNull(queue.poll(element -> !element.endsWith("blocked")));
+
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("bulk:blocked", queue.poll());
+        Assert.assertEquals("otp:blocked", queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+}
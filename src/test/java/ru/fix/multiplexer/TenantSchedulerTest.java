@@ -0,0 +1,208 @@
+package ru.fix.multiplexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.priority.Recommender;
+import ru.fix.multiplexer.priority.StatisticStorageRecommender;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TenantSchedulerTest {
+
+    private final MessageType otp = new MessageType("OTP");
+    private final MessageType bulk = new MessageType("BULK");
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void tenantsGetEqualTurnsRegardlessOfTraffic() throws Exception {
+        TenantScheduler<String, String> scheduler = scheduler(weights(1, 1), 60_000);
+        for (int i = 0; i < 100; i++) {
+            scheduler.add(message("heavy " + i, otp, "heavy"));
+        }
+        scheduler.add(message("light 0", otp, "light"));
+        scheduler.add(message("light 1", otp, "light"));
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            sent.add(pollAndDispatch(scheduler).getMessage());
+        }
+
+        Assert.assertEquals("heavy 0", sent.get(0));
+        Assert.assertEquals("light 0", sent.get(1));
+        Assert.assertEquals("heavy 1", sent.get(2));
+        Assert.assertEquals("light 1", sent.get(3));
+        Assert.assertEquals("heavy 2", sent.get(4));
+        Assert.assertEquals("heavy 3", sent.get(5));
+        Assert.assertEquals(96, scheduler.size());
+    }
+
+    @Test
+    public void typeWeightsSplitShareOfEachTenant() throws Exception {
+        TenantScheduler<String, String> scheduler = scheduler(weights(3, 1), 60_000);
+        for (int i = 0; i < 40; i++) {
+            scheduler.add(message("bulk", bulk, "first"));
+            scheduler.add(message("otp", otp, "first"));
+            scheduler.add(message("bulk", bulk, null));
+            scheduler.add(message("otp", otp, null));
+        }
+
+        Map<Object, Map<MessageType, Integer>> sentByTenant = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            MessageContainer<String, String> message = pollAndDispatch(scheduler);
+            sentByTenant.computeIfAbsent(message.getOptions().getTenant(), tenant -> new HashMap<>())
+                    .merge(message.getMessageType(), 1, Integer::sum);
+        }
+
+        for (Object tenant : new Object[]{"first", null}) {
+            int otpSent = sentByTenant.get(tenant).get(otp);
+            int bulkSent = sentByTenant.get(tenant).get(bulk);
+            Assert.assertEquals(20, otpSent + bulkSent);
+            Assert.assertTrue(otpSent + " of 20 OTP messages", otpSent >= 15 && otpSent <= 16);
+        }
+    }
+
+    @Test
+    public void idleTenantIsReclaimedAfterTimeout() throws Exception {
+        TenantScheduler<String, String> scheduler = scheduler(weights(1, 1), 1_000);
+        scheduler.add(message("first", otp, "first"));
+        scheduler.add(message("second", otp, "second"));
+        scheduler.add(message("second again", otp, "second"));
+        Assert.assertEquals(2, scheduler.tenantCount());
+
+        pollAndDispatch(scheduler);
+        pollAndDispatch(scheduler);
+        clock.set(999);
+        pollAndDispatch(scheduler);
+        Assert.assertEquals(2, scheduler.tenantCount());
+
+        clock.set(1_000);
+        Assert.assertNull(scheduler.poll((buffer, recommender) -> null));
+        Assert.assertEquals(1, scheduler.tenantCount());
+
+        clock.set(2_000);
+        scheduler.add(message("first again", otp, "first"));
+        Assert.assertEquals("first again", pollAndDispatch(scheduler).getMessage());
+        Assert.assertEquals(1, scheduler.tenantCount());
+        Assert.assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    public void recommenderWithoutReconfigurationIsReplaced() throws Exception {
+        MultiplexerConfig otpOnly = () -> Collections.singletonMap(otp, 1);
+        TenantScheduler<String, String> scheduler = new TenantScheduler<>(
+                "test", new SimpleProfiler(), otpOnly, FixedOrderRecommender::new, clock::get
+        );
+        scheduler.add(message("bulk", bulk, null));
+        Assert.assertNull(pollAndDispatch(scheduler));
+
+        scheduler.reconfigure(() -> Collections.singletonMap(bulk, 1));
+
+        Assert.assertEquals("bulk", pollAndDispatch(scheduler).getMessage());
+    }
+
+    @Test(timeout = 2000)
+    public void producersAreNotBlockedByDecisionOfWorker() throws Exception {
+        TenantScheduler<String, String> scheduler = scheduler(weights(1, 1), 60_000);
+        scheduler.add(message("first", otp, "first"));
+        CountDownLatch deciding = new CountDownLatch(1);
+        CountDownLatch decided = new CountDownLatch(1);
+        CompletableFuture<MessageContainer<String, String>> polled = CompletableFuture.supplyAsync(
+                () -> scheduler.poll((buffer, recommender) -> {
+                    deciding.countDown();
+                    try {
+                        decided.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return buffer.pollNext(otp);
+                })
+        );
+        deciding.await();
+
+        scheduler.add(message("second", otp, "second"));
+        scheduler.add(message("third", bulk, "first"));
+        Assert.assertEquals(3, scheduler.size());
+
+        decided.countDown();
+        Assert.assertEquals("first", polled.get().getMessage());
+        // the second tenant joins the line when the worker takes activations, after the first one
+        Assert.assertEquals("third", pollAndDispatch(scheduler).getMessage());
+        Assert.assertEquals("second", pollAndDispatch(scheduler).getMessage());
+        Assert.assertTrue(scheduler.isEmpty());
+    }
+
+    private MessageContainer<String, String> pollAndDispatch(TenantScheduler<String, String> scheduler) {
+        MessageContainer<String, String> message = scheduler.poll((buffer, recommender) -> {
+            for (MessageType messageType : recommender.makeRecommendation()) {
+                MessageContainer<String, String> next = buffer.pollNext(messageType);
+                if (next != null) {
+                    return next;
+                }
+            }
+            return null;
+        });
+        if (message != null) {
+            scheduler.onDispatched(message);
+        }
+        return message;
+    }
+
+    private TenantScheduler<String, String> scheduler(Map<MessageType, Integer> weights, long idleTimeout) {
+        MultiplexerConfig config = new MultiplexerConfig() {
+            @Override
+            public Map<MessageType, Integer> registeredMessages() {
+                return weights;
+            }
+
+            @Override
+            public long getTenantIdleTimeout() {
+                return idleTimeout;
+            }
+        };
+        return new TenantScheduler<>("test", new SimpleProfiler(), config, StatisticStorageRecommender::new, clock::get);
+    }
+
+    private MessageContainer<String, String> message(String message, MessageType messageType, Object tenant) {
+        return new MessageContainer<>(
+                message, messageType, new CompletableFuture<>(), ExpirationDate.expiresIn(60_000),
+                SendOptions.defaults().withTenant(tenant)
+        );
+    }
+
+    private Map<MessageType, Integer> weights(int otpWeight, int bulkWeight) {
+        Map<MessageType, Integer> weights = new HashMap<>();
+        weights.put(otp, otpWeight);
+        weights.put(bulk, bulkWeight);
+        return weights;
+    }
+
+    /**
+     * Recommends registered types in order of registration and supports no reconfiguration,
+     * implements only methods of the original recommender contract
+     */
+    private static class FixedOrderRecommender implements Recommender {
+        private final List<MessageType> registeredTypes;
+
+        FixedOrderRecommender(Map<MessageType, Integer> registeredMessages) {
+            this.registeredTypes = new ArrayList<>(registeredMessages.keySet());
+        }
+
+        @Override
+        public List<MessageType> makeRecommendation() {
+            return registeredTypes;
+        }
+
+        @Override
+        public boolean typeIsRegistered(MessageType messageType) {
+            return registeredTypes.contains(messageType);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package ru.fix.multiplexer.capture;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class TrafficCaptureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MessageType otp = new MessageType("OTP");
+    private final MessageType bulk = new MessageType("BULK");
+
+    @Test
+    public void recordsAreReadBackAcrossMappedRegions() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        int count = 10_000;
+        try (MappedTrafficCapture<String> capture = new MappedTrafficCapture<>(file, String::length, 64 * 1024)) {
+            for (int i = 0; i < count; i++) {
+                MessageType messageType = i % 2 == 0 ? otp : bulk;
+                capture.record("message " + i, messageType, 1_000 + i, 6_000 + i, i, CapturedMessage.Outcome.SENT);
+            }
+            capture.record("late", bulk, 20_000, 19_000, -1, CapturedMessage.Outcome.EXPIRED);
+        }
+
+        List<CapturedMessage> messages = TrafficCaptureReader.readAll(file);
+
+        Assert.assertEquals(count + 1, messages.size());
+        // header, definitions of OTP and BULK types, messages
+        Assert.assertEquals(6 + 10 + 11 + 26L * (count + 1), Files.size(file));
+        CapturedMessage third = messages.get(3);
+        Assert.assertEquals(bulk, third.getMessageType());
+        Assert.assertEquals(1_003, third.getArrivalMs());
+        Assert.assertEquals(6_003, third.getExpirationMs());
+        Assert.assertEquals("message 3".length(), third.getPayloadSize());
+        Assert.assertEquals(3, third.getChannelLatencyMicros());
+        CapturedMessage last = messages.get(count);
+        Assert.assertEquals(CapturedMessage.Outcome.EXPIRED, last.getOutcome());
+        Assert.assertEquals(-1, last.getChannelLatencyMicros());
+    }
+
+    @Test(timeout = 10_000)
+    public void multiplexerTrafficIsCapturedAndReplayed() throws Exception {
+        Path file = folder.newFile("multiplexer.bin").toPath();
+        Map<MessageType, Integer> weights = new HashMap<>();
+        weights.put(otp, 3);
+        weights.put(bulk, 1);
+        SimpleMultiplexerConfig config = new SimpleMultiplexerConfig(weights);
+
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<String, String>(
+                "capture",
+                new MultiplexerOutputChannel<String, String>() {
+                    @Override
+                    public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                        return message.startsWith("fail")
+                                ? failed(new IllegalStateException(message))
+                                : CompletableFuture.completedFuture(message);
+                    }
+
+                    @Override
+                    public boolean hasFreeSlot() {
+                        return true;
+                    }
+                },
+                config,
+                new SimpleProfiler()
+        ) {
+            // constructor is protected, capture is set before start to record all messages
+        };
+        try (MappedTrafficCapture<String> capture = new MappedTrafficCapture<>(file, String::length)) {
+            multiplexer.setTrafficCapture(capture);
+            multiplexer.start();
+            List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = Arrays.asList(
+                    multiplexer.send("first", otp, ExpirationDate.expiresIn(1_000)),
+                    multiplexer.send("second", bulk, ExpirationDate.expiresIn(1_000)),
+                    multiplexer.send("fail", bulk, ExpirationDate.expiresIn(1_000))
+            );
+            CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0])).handle((ignored, ex) -> null).join();
+            multiplexer.close();
+        }
+
+        List<CapturedMessage> captured = TrafficCaptureReader.readAll(file);
+        Assert.assertEquals(3, captured.size());
+        Map<Integer, CapturedMessage.Outcome> outcomeBySize = captured.stream()
+                .collect(Collectors.toMap(CapturedMessage::getPayloadSize, CapturedMessage::getOutcome));
+        Assert.assertEquals(CapturedMessage.Outcome.SENT, outcomeBySize.get("first".length()));
+        Assert.assertEquals(CapturedMessage.Outcome.SENT, outcomeBySize.get("second".length()));
+        Assert.assertEquals(CapturedMessage.Outcome.FAILED, outcomeBySize.get("fail".length()));
+
+        ReplayOutputChannel channel = new ReplayOutputChannel(1, 10, 1_000);
+        Multiplexer<CapturedMessage, CapturedMessage> replayed = MultiplexerWithPriority.createInstance(
+                "replay", channel, config
+        );
+        List<CompletableFuture<MultiplexedMessageSendingResult<CapturedMessage>>> replayPromises =
+                new TrafficReplay(captured, 10).replay(replayed);
+        long failed = replayPromises.stream()
+                .map(promise -> promise.handle((result, ex) -> ex != null).join())
+                .filter(isFailed -> isFailed)
+                .count();
+        Assert.assertEquals(3, replayPromises.size());
+        Assert.assertEquals(1, failed);
+        replayed.close();
+        channel.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void arrivalsWhichAreNotSentAreCaptured() throws Exception {
+        Path file = folder.newFile("overload.bin").toPath();
+        SimpleMultiplexerConfig config = new SimpleMultiplexerConfig(Collections.singletonMap(otp, 1)) {
+            @Override
+            public Long getBufferWeightLimit() {
+                return 10L;
+            }
+        };
+        MultiplexerWithPriority<String, String> multiplexer = new MultiplexerWithPriority<String, String>(
+                "overload",
+                new MultiplexerOutputChannel<String, String>() {
+                    @Override
+                    public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                        return CompletableFuture.completedFuture(message);
+                    }
+
+                    @Override
+                    public boolean hasFreeSlot() {
+                        return false;
+                    }
+                },
+                config,
+                new SimpleProfiler()
+        ) {
+        };
+        Multiplexer<String, String> successor = MultiplexerWithPriority.createInstance(
+                new MultiplexerOutputChannel<String, String>() {
+                    @Override
+                    public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+                        return CompletableFuture.completedFuture(message);
+                    }
+
+                    @Override
+                    public boolean hasFreeSlot() {
+                        return true;
+                    }
+                },
+                config
+        );
+        try (MappedTrafficCapture<String> capture = new MappedTrafficCapture<>(file, String::length)) {
+            multiplexer.setTrafficCapture(capture);
+            multiplexer.setWeigher(String::length);
+            multiplexer.start();
+            SendOptions coalesced = SendOptions.defaults().withCoalescingKey("order");
+            List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+            promises.add(multiplexer.send("first", otp, ExpirationDate.expiresIn(5_000), coalesced));
+            promises.add(multiplexer.send("update", otp, ExpirationDate.expiresIn(5_000), coalesced));
+            promises.add(multiplexer.send("too heavy!", otp, ExpirationDate.expiresIn(5_000)));
+            multiplexer.handOff(successor, 0);
+            promises.add(multiplexer.send("late", otp, ExpirationDate.expiresIn(5_000)));
+            CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0])).join();
+            Assert.assertTrue(multiplexer.awaitTermination(5_000));
+        }
+        successor.close();
+
+        List<CapturedMessage.Outcome> outcomes = TrafficCaptureReader.readAll(file).stream()
+                .map(CapturedMessage::getOutcome)
+                .sorted()
+                .collect(Collectors.toList());
+        // buffered message with merged update is handed off after the drain deadline
+        Assert.assertEquals(Arrays.asList(
+                CapturedMessage.Outcome.REJECTED,
+                CapturedMessage.Outcome.MERGED,
+                CapturedMessage.Outcome.HANDED_OFF,
+                CapturedMessage.Outcome.HANDED_OFF
+        ), outcomes);
+    }
+
+    @Test(timeout = 10_000)
+    public void trafficIsReplayedFasterThanRealTime() throws Exception {
+        List<CapturedMessage> captured = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            captured.add(new CapturedMessage(
+                    otp, 500L * i, 500L * i + 1_000, 10, 20_000, CapturedMessage.Outcome.SENT
+            ));
+        }
+        ReplayOutputChannel channel = new ReplayOutputChannel(1, 10, 1_000);
+        Multiplexer<CapturedMessage, CapturedMessage> replayed = MultiplexerWithPriority.createInstance(
+                "fast-replay", channel, new SimpleMultiplexerConfig(Collections.singletonMap(otp, 1))
+        );
+
+        long startNanos = System.nanoTime();
+        List<CompletableFuture<MultiplexedMessageSendingResult<CapturedMessage>>> promises =
+                new TrafficReplay(captured, 10).replay(replayed);
+        CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0])).join();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        // captured traffic lasted 4.5 s, scaled TTLs of 100 ms are shorter than the worker waiting interval
+        Assert.assertTrue("replay took " + elapsedMs + " ms", elapsedMs < 2_000);
+        for (CompletableFuture<MultiplexedMessageSendingResult<CapturedMessage>> promise : promises) {
+            Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, promise.join().getStatus());
+        }
+        replayed.close();
+        channel.close();
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        promise.completeExceptionally(throwable);
+        return promise;
+    }
+}
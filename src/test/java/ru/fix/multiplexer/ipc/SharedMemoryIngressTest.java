@@ -0,0 +1,130 @@
+package ru.fix.multiplexer.ipc;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.Multiplexer;
+import ru.fix.multiplexer.MultiplexerOutputChannel;
+import ru.fix.multiplexer.MultiplexerWithPriority;
+import ru.fix.multiplexer.util.ConfigBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SharedMemoryIngressTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MessageType simple = new MessageType("simple");
+    private final List<String> sentMessages = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<String>> channelPromises = new ConcurrentHashMap<>();
+    private final MultiplexerOutputChannel<ByteBuffer, String> outputChannel =
+            new MultiplexerOutputChannel<ByteBuffer, String>() {
+                @Override
+                public CompletableFuture<String> send(ByteBuffer message, ExpirationDate expirationTime) {
+                    Assert.assertTrue("host receives a view of the ring", message.isReadOnly());
+                    String text = StandardCharsets.UTF_8.decode(message).toString();
+                    sentMessages.add(text);
+                    return channelPromises.computeIfAbsent(text, key -> new CompletableFuture<>());
+                }
+
+                @Override
+                public boolean hasFreeSlot() {
+                    return true;
+                }
+            };
+
+    @Test(timeout = 5000)
+    public void producersOfDifferentFilesShareOneMultiplexer() throws Exception {
+        Path firstFile = folder.newFile("first.ipc").toPath();
+        Path secondFile = folder.newFile("second.ipc").toPath();
+        SharedMemoryProducer first = SharedMemoryProducer.create(firstFile, 1024);
+        SharedMemoryProducer second = SharedMemoryProducer.create(secondFile, 1024);
+        Multiplexer<ByteBuffer, String> multiplexer = MultiplexerWithPriority.createInstance(
+                "ipc", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        SharedMemoryIngress ingress = new SharedMemoryIngress("ipc.ingress", multiplexer, new SimpleProfiler());
+        ingress.attach(firstFile);
+        ingress.attach(secondFile);
+
+        CompletableFuture<MultiplexedMessageSendingResult<Void>> hello = first.send(bytes("hello"), simple, expiresIn());
+        CompletableFuture<MultiplexedMessageSendingResult<Void>> world = second.send(bytes("world"), simple, expiresIn());
+        CompletableFuture<MultiplexedMessageSendingResult<Void>> unknown =
+                second.send(bytes("lost"), new MessageType("unknown"), expiresIn());
+        Assert.assertEquals(3, ingress.poll());
+        while (sentMessages.size() < 2) {
+            Thread.sleep(10);
+        }
+
+        channelPromises.get("world").complete("ok");
+        channelPromises.get("hello").complete("ok");
+        while (first.getPendingCount() + second.getPendingCount() > 0) {
+            ingress.poll();
+            first.pollResponses();
+            second.pollResponses();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, hello.get().getStatus());
+        Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, world.get().getStatus());
+        Assert.assertTrue(unknown.isCompletedExceptionally());
+
+        multiplexer.close();
+    }
+
+    @Test(timeout = 5000)
+    public void spaceOfRequestIsReusedAfterCompletion() throws Exception {
+        Path file = folder.newFile("producer.ipc").toPath();
+        SharedMemoryProducer producer = SharedMemoryProducer.create(file, 256);
+        Multiplexer<ByteBuffer, String> multiplexer = MultiplexerWithPriority.createInstance(
+                "ipc-reuse", outputChannel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+        SharedMemoryIngress ingress = new SharedMemoryIngress("ipc-reuse.ingress", multiplexer, new SimpleProfiler());
+        ingress.attach(file);
+        ingress.start();
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<Void>>> promises = new ArrayList<>();
+        for (int i = 0; promises.size() < 100; i++) {
+            String text = "message " + i;
+            channelPromises.put(text, CompletableFuture.completedFuture("ok"));
+            CompletableFuture<MultiplexedMessageSendingResult<Void>> promise =
+                    producer.send(bytes(text), simple, expiresIn());
+            if (promise.isDone() && promise.get().getStatus() == MultiplexedMessageSendingResult.Status.REJECTED) {
+                // ring is full, wait for the host
+                producer.pollResponses();
+                Thread.sleep(1);
+                continue;
+            }
+            promises.add(promise);
+        }
+        while (producer.getPendingCount() > 0) {
+            producer.pollResponses();
+            Thread.sleep(1);
+        }
+        for (CompletableFuture<MultiplexedMessageSendingResult<Void>> promise : promises) {
+            Assert.assertEquals(MultiplexedMessageSendingResult.Status.SENT, promise.get().getStatus());
+        }
+        ingress.close();
+        multiplexer.close();
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ExpirationDate expiresIn() {
+        return ExpirationDate.expiresIn(2000);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.fix.multiplexer.offheap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.MultiplexerOutputChannel;
+import ru.fix.multiplexer.SimpleMultiplexerConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class OffHeapByteMultiplexerTest {
+
+    private final MessageType frames = new MessageType("frames");
+
+    @Test
+    public void ringReusesSpaceReleasedOutOfOrder() throws Exception {
+        RingSegment segment = new RingSegment(ByteBuffer.allocateDirect(10));
+        int first = segment.write(bytes(4));
+        int second = segment.write(bytes(4));
+        Assert.assertEquals(-1, segment.write(bytes(4)));
+
+        segment.release(second);
+        Assert.assertEquals("space after the oldest allocation is not reclaimed yet", -1, segment.write(bytes(4)));
+        Assert.assertEquals(4, segment.getUsedBytes());
+
+        segment.release(first);
+        Assert.assertEquals(0, segment.write(bytes(4)));
+        Assert.assertEquals(4, segment.write(bytes(4)));
+    }
+
+    @Test
+    public void ringWrapsAroundWhenTheEndIsTooSmall() throws Exception {
+        RingSegment segment = new RingSegment(ByteBuffer.allocateDirect(10));
+        int first = segment.write(bytes(4));
+        int second = segment.write(bytes(4));
+        segment.release(first);
+
+        int wrapped = segment.write(bytes(3));
+        Assert.assertEquals(0, wrapped);
+        Assert.assertEquals("wrapped allocation must not overlap the oldest one", -1, segment.write(bytes(2)));
+
+        segment.release(second);
+        Assert.assertEquals(3, segment.write(bytes(5)));
+        Assert.assertEquals(8, segment.getUsedBytes());
+    }
+
+    @Test(timeout = 2000)
+    public void channelReceivesViewOfDirectMemoryAndSpaceIsFreedAfterCompletion() throws Exception {
+        List<ByteBuffer> received = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<String>> channelPromises = new CopyOnWriteArrayList<>();
+        MultiplexerOutputChannel<ByteBuffer, String> outputChannel = new MultiplexerOutputChannel<ByteBuffer, String>() {
+            @Override
+            public CompletableFuture<String> send(ByteBuffer message, ExpirationDate expirationTime) {
+                received.add(message);
+                CompletableFuture<String> channelPromise = new CompletableFuture<>();
+                channelPromises.add(channelPromise);
+                return channelPromise;
+            }
+
+            @Override
+            public boolean hasFreeSlot() {
+                return true;
+            }
+        };
+        OffHeapArena arena = new OffHeapArena(Collections.singletonMap(frames, 16));
+        OffHeapByteMultiplexer<String> multiplexer = new OffHeapByteMultiplexer<>(
+                "off-heap", outputChannel, new SimpleMultiplexerConfig(Collections.singletonMap(frames, 1)),
+                arena, new SimpleProfiler()
+        );
+
+        ByteBuffer payload = ByteBuffer.wrap("hello world".getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<MultiplexedMessageSendingResult<String>> promise =
+                multiplexer.send(payload, frames, ExpirationDate.expiresIn(1000));
+        Assert.assertEquals("caller buffer is not consumed", 11, payload.remaining());
+        Assert.assertEquals(11, arena.getUsedBytes(frames));
+
+        CompletableFuture<MultiplexedMessageSendingResult<String>> rejected =
+                multiplexer.send(ByteBuffer.allocate(8), frames, ExpirationDate.expiresIn(1000));
+        Assert.assertEquals(MultiplexedMessageSendingResult.Status.REJECTED, rejected.get().getStatus());
+
+        while (channelPromises.isEmpty()) {
+            Thread.sleep(10);
+        }
+        ByteBuffer view = received.get(0);
+        Assert.assertTrue(view.isDirect());
+        Assert.assertTrue(view.isReadOnly());
+        byte[] content = new byte[view.remaining()];
+        view.get(content);
+        Assert.assertEquals("hello world", new String(content, StandardCharsets.UTF_8));
+
+        channelPromises.get(0).complete("ok");
+        Assert.assertEquals("ok", promise.get().getResult());
+        Assert.assertEquals(0, arena.getUsedBytes(frames));
+        multiplexer.close();
+    }
+
+    private static ByteBuffer bytes(int length) {
+        return ByteBuffer.allocate(length);
+    }
+}
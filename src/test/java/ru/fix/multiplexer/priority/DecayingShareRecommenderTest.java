@@ -0,0 +1,126 @@
+package ru.fix.multiplexer.priority;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.multiplexer.MessageType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DecayingShareRecommenderTest {
+
+    private final MessageType important = new MessageType("Important");
+    private final MessageType trivial = new MessageType("Trivial");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decayHorizonMustBePositive() throws Exception {
+        new DecayingShareRecommender(spreading(1, 1), 0);
+    }
+
+    @Test
+    public void withoutStatisticTypesAreRecommendedByPriority() throws Exception {
+        DecayingShareRecommender recommender = new DecayingShareRecommender(spreading(3, 1), 1_000, () -> 0L);
+
+        Assert.assertEquals(Arrays.asList(important, trivial), recommender.makeRecommendation());
+    }
+
+    @Test
+    public void typeWithLowestServedShareIsRecommendedFirst() throws Exception {
+        DecayingShareRecommender recommender = new DecayingShareRecommender(spreading(3, 1), 1_000, () -> 0L);
+
+        recommender.add(important).add(important);
+        Assert.assertEquals(Arrays.asList(trivial, important), recommender.makeRecommendation());
+
+        recommender.add(trivial);
+        Assert.assertEquals(Arrays.asList(important, trivial), recommender.makeRecommendation());
+    }
+
+    @Test
+    public void sharesDoNotDependOnWeightScale() throws Exception {
+        Assert.assertEquals(0.5, simulateImportantShare(1, 1), 0.01);
+        Assert.assertEquals(0.5, simulateImportantShare(1000, 1000), 0.01);
+        Assert.assertEquals(0.75, simulateImportantShare(3, 1), 0.01);
+        Assert.assertEquals(0.75, simulateImportantShare(3000, 1000), 0.01);
+    }
+
+    @Test
+    public void weightsDefineSharesOfChannelUnitsWhenMessagesHaveCost() throws Exception {
+        DecayingShareRecommender recommender = new DecayingShareRecommender(spreading(1, 1), 1_000, () -> 0L);
+        long importantUnits = 0;
+        long trivialUnits = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (recommender.makeRecommendation().get(0).equals(important)) {
+                recommender.add(important, 3);
+                importantUnits += 3;
+            } else {
+                recommender.add(trivial, 1);
+                trivialUnits += 1;
+            }
+        }
+
+        Assert.assertEquals(0.5, (double) importantUnits / (importantUnits + trivialUnits), 0.01);
+    }
+
+    @Test
+    public void servedCountersDecayOverHorizon() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        DecayingShareRecommender recommender = new DecayingShareRecommender(spreading(1, 1), 1_000, clock::get);
+
+        recommender.add(important).add(important);
+        Assert.assertEquals(2.0, recommender.getServedCounter(important), 1e-9);
+
+        clock.set(1_000);
+        Assert.assertEquals(2.0 / Math.E, recommender.getServedCounter(important), 1e-9);
+
+        clock.set(20_000);
+        recommender.add(trivial);
+        Assert.assertEquals(Arrays.asList(important, trivial), recommender.makeRecommendation());
+    }
+
+    @Test
+    public void reconfigureKeepsCountersOfRegisteredTypes() throws Exception {
+        DecayingShareRecommender recommender = new DecayingShareRecommender(spreading(1, 1), 1_000, () -> 0L);
+        recommender.add(important).add(trivial);
+
+        Map<MessageType, Integer> onlyImportant = new HashMap<>();
+        onlyImportant.put(important, 5);
+        recommender.reconfigure(onlyImportant);
+
+        Assert.assertTrue(recommender.typeIsRegistered(important));
+        Assert.assertFalse(recommender.typeIsRegistered(trivial));
+        Assert.assertEquals(1.0, recommender.getServedCounter(important), 1e-9);
+        Assert.assertEquals(0.0, recommender.getServedCounter(trivial), 1e-9);
+    }
+
+    /**
+     * Both types always have messages, one message is sent per millisecond
+     */
+    private double simulateImportantShare(int importantWeight, int trivialWeight) {
+        AtomicLong clock = new AtomicLong();
+        DecayingShareRecommender recommender = new DecayingShareRecommender(
+                spreading(importantWeight, trivialWeight), 1_000, clock::get
+        );
+        int importantSent = 0;
+        int total = 10_000;
+        for (int i = 0; i < total; i++) {
+            clock.incrementAndGet();
+            List<MessageType> recommendation = recommender.makeRecommendation();
+            MessageType sent = recommendation.get(0);
+            recommender.add(sent);
+            if (sent.equals(important)) {
+                importantSent++;
+            }
+        }
+        return (double) importantSent / total;
+    }
+
+    private Map<MessageType, Integer> spreading(int importantWeight, int trivialWeight) {
+        Map<MessageType, Integer> spreading = new HashMap<>();
+        spreading.put(important, importantWeight);
+        spreading.put(trivial, trivialWeight);
+        return spreading;
+    }
+}
@@ -89,4 +89,30 @@ public class StatisticStorageRecommenderTest {
         Assert.assertEquals(new MessageType("NotVeryImportant"), recommendation.toArray()[1]);
         Assert.assertEquals(new MessageType("Trivial"), recommendation.toArray()[2]);
     }
+
+    @Test
+    public void reconfigureReplacesPrioritiesAndKeepsStatistics() throws Exception {
+        Map<MessageType, Integer> expectedSpreading = new HashMap<>();
+        expectedSpreading.put(new MessageType("VeryImportant"), 3);
+        expectedSpreading.put(new MessageType("Trivial"), 1);
+
+        StatisticStorageRecommender recommender = new StatisticStorageRecommender(expectedSpreading);
+        recommender
+                .add(new MessageType("VeryImportant"))
+                .add(new MessageType("Trivial"));
+
+        Map<MessageType, Integer> newSpreading = new HashMap<>();
+        newSpreading.put(new MessageType("Trivial"), 5);
+        newSpreading.put(new MessageType("New"), 2);
+        recommender.reconfigure(newSpreading);
+
+        Assert.assertFalse(recommender.typeIsRegistered(new MessageType("VeryImportant")));
+        Assert.assertTrue(recommender.typeIsRegistered(new MessageType("New")));
+        Assert.assertEquals(7, recommender.getStatistics().maxSize());
+        Assert.assertEquals(2, recommender.getStatistics().size());
+
+        List<MessageType> recommendation = recommender.makeRecommendation();
+        Assert.assertEquals(new MessageType("Trivial"), recommendation.get(0));
+        Assert.assertEquals(new MessageType("New"), recommendation.get(1));
+    }
 }
@@ -0,0 +1,219 @@
+package ru.fix.multiplexer.reactive;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import ru.fix.multiplexer.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReactiveAdaptersTest {
+
+    private static final MessageType TYPE = new MessageType("reactive");
+
+    @Test(timeout = 5000)
+    public void demandOfDownstreamSubscriberIsPropagatedToUpstreamPublisher() throws Exception {
+        PublisherOutputChannel<Integer> outputChannel = new PublisherOutputChannel<>();
+        BatchSubscriber downstream = new BatchSubscriber(10);
+        outputChannel.subscribe(downstream);
+
+        Multiplexer<Integer, Void> multiplexer = MultiplexerWithPriority.createInstance(
+                outputChannel, new SimpleMultiplexerConfig(Collections.singletonMap(TYPE, 1))
+        );
+
+        AtomicInteger sentResults = new AtomicInteger();
+        MultiplexerSubscriber<Integer, Void> input = new MultiplexerSubscriber<>(
+                multiplexer, TYPE, 10_000, 5,
+                (msg, result) -> {
+                    if (result.getStatus() == MultiplexedMessageSendingResult.Status.SENT) {
+                        sentResults.incrementAndGet();
+                    }
+                }
+        );
+        RangePublisher upstream = new RangePublisher(100);
+        upstream.subscribe(input);
+
+        input.completion().get(4, TimeUnit.SECONDS);
+
+        Assert.assertEquals(100, downstream.received.size());
+        Assert.assertEquals(Integer.valueOf(0), downstream.received.get(0));
+        Assert.assertEquals(Integer.valueOf(99), downstream.received.get(99));
+        Assert.assertEquals(100, sentResults.get());
+        Assert.assertTrue("upstream requested " + upstream.maxOutstanding.get(), upstream.maxOutstanding.get() <= 5);
+        multiplexer.close();
+    }
+
+    @Test(timeout = 5000)
+    public void upstreamIsRequestedForFreeBufferCapacity() throws Exception {
+        AtomicBoolean hasFreeSlot = new AtomicBoolean(false);
+        Multiplexer<Integer, Void> multiplexer = MultiplexerWithPriority.createInstance(
+                new MultiplexerOutputChannel<Integer, Void>() {
+                    @Override
+                    public CompletableFuture<Void> send(Integer message, ExpirationDate expirationTime) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public boolean hasFreeSlot() {
+                        return hasFreeSlot.get();
+                    }
+                },
+                new SimpleMultiplexerConfig(Collections.singletonMap(TYPE, 1))
+        );
+        for (int i = 0; i < 3; i++) {
+            multiplexer.send(-1, TYPE, ExpirationDate.expiresIn(10_000));
+        }
+
+        MultiplexerSubscriber<Integer, Void> input = new MultiplexerSubscriber<>(
+                multiplexer, TYPE, 10_000, 5, (msg, result) -> {
+                }
+        );
+        RangePublisher upstream = new RangePublisher(20);
+        upstream.subscribe(input);
+
+        Assert.assertEquals("buffer is taken by another producer", 2, upstream.maxOutstanding.get());
+        Assert.assertEquals(5, multiplexer.countMessagesWaitingToProcessing());
+
+        hasFreeSlot.set(true);
+        multiplexer.onOutputChannelHasFreeSlot();
+        input.completion().get(4, TimeUnit.SECONDS);
+        Assert.assertTrue("upstream requested " + upstream.maxOutstanding.get(), upstream.maxOutstanding.get() <= 5);
+        multiplexer.close();
+    }
+
+    @Test
+    public void failedSendCancelsSubscription() {
+        MultiplexerInput<Integer, Void> input = new MultiplexerInput<Integer, Void>() {
+            @Override
+            public CompletableFuture<MultiplexedMessageSendingResult<Void>> send(
+                    Integer msg, MessageType messageType, ExpirationDate expirationDate
+            ) {
+                throw new IllegalStateException("multiplexer is broken");
+            }
+
+            @Override
+            public CompletableFuture<MultiplexedMessageSendingResult<Void>> send(
+                    Integer msg, MessageType messageType, Date expirationDate
+            ) {
+                throw new IllegalStateException("multiplexer is broken");
+            }
+        };
+        MultiplexerSubscriber<Integer, Void> subscriber = new MultiplexerSubscriber<>(
+                input, TYPE, 10_000, 5, (msg, result) -> {
+                }
+        );
+        RangePublisher upstream = new RangePublisher(20);
+        upstream.subscribe(subscriber);
+
+        Assert.assertTrue(upstream.cancelled.get());
+        Assert.assertEquals(0, subscriber.countPendingMessages());
+        Assert.assertTrue(subscriber.completion().isCompletedExceptionally());
+    }
+
+    @Test
+    public void channelHasNoFreeSlotWithoutDemand() {
+        PublisherOutputChannel<Integer> outputChannel = new PublisherOutputChannel<>();
+        Assert.assertFalse(outputChannel.hasFreeSlot());
+
+        BatchSubscriber downstream = new BatchSubscriber(1);
+        outputChannel.subscribe(downstream);
+        Assert.assertTrue(outputChannel.hasFreeSlot());
+
+        outputChannel.send(1, ExpirationDate.expiresIn(1000)).join();
+        downstream.autoRequest = false;
+        outputChannel.send(2, ExpirationDate.expiresIn(1000)).join();
+        Assert.assertFalse(outputChannel.hasFreeSlot());
+        Assert.assertTrue(outputChannel.send(3, ExpirationDate.expiresIn(1000)).isCompletedExceptionally());
+    }
+
+    /**
+     * Requests next batch after receiving the previous one
+     */
+    private static class BatchSubscriber implements Subscriber<Integer> {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final int batchSize;
+        volatile boolean autoRequest = true;
+        Subscription subscription;
+
+        BatchSubscriber(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batchSize);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            received.add(item);
+            if (autoRequest && received.size() % batchSize == 0) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Publishes integers from 0 until {@code count} respecting demand
+     */
+    private static class RangePublisher implements Publisher<Integer> {
+        final int count;
+        final AtomicLong maxOutstanding = new AtomicLong();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        RangePublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                final AtomicLong requested = new AtomicLong();
+                final AtomicInteger emitting = new AtomicInteger();
+                int next;
+
+                @Override
+                public void request(long n) {
+                    maxOutstanding.accumulateAndGet(requested.addAndGet(n), Math::max);
+                    if (emitting.getAndIncrement() != 0) {
+                        return;
+                    }
+                    do {
+                        while (requested.get() > 0 && next < count && !cancelled.get()) {
+                            requested.decrementAndGet();
+                            subscriber.onNext(next++);
+                        }
+                        if (next == count && !cancelled.get()) {
+                            subscriber.onComplete();
+                            next++;
+                        }
+                    } while (emitting.decrementAndGet() != 0);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled.set(true);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ru.fix.multiplexer.routing;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RoutingOutputChannelTest {
+
+    @Test
+    public void messagesAreSpreadByLeastOutstandingRequests() {
+        HeldChannel first = new HeldChannel();
+        HeldChannel second = new HeldChannel();
+        RoutingOutputChannel<String, String> routing = new RoutingOutputChannel<>(
+                Arrays.asList(first, second), new RoutingConfig() {}
+        );
+
+        for (int i = 0; i < 10; i++) {
+            routing.send("message " + i, ExpirationDate.expiresIn(1000));
+        }
+
+        Assert.assertEquals(5, first.promises.size());
+        Assert.assertEquals(5, second.promises.size());
+        Assert.assertEquals(Arrays.asList(5, 5), routing.getOutstandingRequests());
+
+        first.promises.forEach(promise -> promise.complete("done"));
+        routing.send("next", ExpirationDate.expiresIn(1000));
+        Assert.assertEquals(6, first.promises.size());
+    }
+
+    @Test
+    public void channelWithoutFreeSlotIsNotChosen() {
+        HeldChannel first = new HeldChannel();
+        HeldChannel second = new HeldChannel();
+        first.hasFreeSlot.set(false);
+        RoutingOutputChannel<String, String> routing = new RoutingOutputChannel<>(
+                Arrays.asList(first, second), new RoutingConfig() {}
+        );
+
+        Assert.assertTrue(routing.hasFreeSlot());
+        for (int i = 0; i < 3; i++) {
+            routing.send("message " + i, ExpirationDate.expiresIn(1000));
+        }
+        Assert.assertEquals(0, first.promises.size());
+        Assert.assertEquals(3, second.promises.size());
+
+        second.hasFreeSlot.set(false);
+        Assert.assertFalse(routing.hasFreeSlot());
+    }
+
+    @Test
+    public void failingChannelIsEjectedAndReturnsAfterEjectionTime() {
+        HeldChannel failing = new HeldChannel();
+        HeldChannel healthy = new HeldChannel();
+        AtomicLong nanoClock = new AtomicLong();
+        RoutingOutputChannel<String, String> routing = new RoutingOutputChannel<>(
+                Arrays.asList(failing, healthy),
+                new RoutingConfig() {
+                    @Override
+                    public int getEjectionMinimumRequests() {
+                        return 2;
+                    }
+
+                    @Override
+                    public long getEjectionTimeMs() {
+                        return 200;
+                    }
+                },
+                nanoClock::get
+        );
+        routing.send("first", ExpirationDate.expiresIn(1000));
+        routing.send("second", ExpirationDate.expiresIn(1000));
+        nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        failing.promises.get(0).completeExceptionally(new IllegalStateException("gateway is down"));
+        healthy.promises.get(0).complete("done");
+        healthy.hasFreeSlot.set(false);
+        routing.send("third", ExpirationDate.expiresIn(1000));
+        healthy.hasFreeSlot.set(true);
+        nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        failing.promises.get(1).completeExceptionally(new IllegalStateException("gateway is down"));
+
+        Assert.assertTrue(routing.isEjected(0));
+        for (int i = 0; i < 3; i++) {
+            routing.send("message " + i, ExpirationDate.expiresIn(1000));
+        }
+        Assert.assertEquals(2, failing.promises.size());
+
+        nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(199));
+        Assert.assertTrue(routing.isEjected(0));
+        nanoClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertFalse(routing.isEjected(0));
+        // both channels have the same latency, the returned one has no outstanding requests
+        routing.send("after ejection", ExpirationDate.expiresIn(1000));
+        Assert.assertEquals(3, failing.promises.size());
+    }
+
+    @Test(timeout = 1000)
+    public void listenersAreNotifiedWhenEjectionIsOver() throws Exception {
+        HeldChannel failing = new HeldChannel();
+        HeldChannel busy = new HeldChannel();
+        busy.hasFreeSlot.set(false);
+        RoutingOutputChannel<String, String> routing = new RoutingOutputChannel<>(
+                Arrays.asList(failing, busy),
+                new RoutingConfig() {
+                    @Override
+                    public int getEjectionMinimumRequests() {
+                        return 1;
+                    }
+
+                    @Override
+                    public long getEjectionTimeMs() {
+                        return 100;
+                    }
+                }
+        );
+        CountDownLatch notified = new CountDownLatch(1);
+        routing.send("first", ExpirationDate.expiresIn(1000));
+        failing.promises.get(0).completeExceptionally(new IllegalStateException("gateway is down"));
+        Assert.assertTrue(routing.isEjected(0));
+        Assert.assertFalse(routing.hasFreeSlot());
+        routing.addCapacityListener(notified::countDown);
+
+        notified.await();
+        Assert.assertFalse(routing.isEjected(0));
+        Assert.assertTrue(routing.hasFreeSlot());
+    }
+
+    @Test(timeout = 1000)
+    public void multiplexerSendsThroughAllChannels() {
+        HeldChannel first = new HeldChannel();
+        HeldChannel second = new HeldChannel();
+        List<HeldChannel> channels = Arrays.asList(first, second);
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                "routing",
+                channels,
+                new RoutingConfig() {
+                    @Override
+                    public RoutingStrategy getStrategy() {
+                        return RoutingStrategy.POWER_OF_TWO_CHOICES;
+                    }
+                },
+                new SimpleMultiplexerConfig(Collections.singletonMap(new MessageType("simple"), 1)),
+                new SimpleProfiler()
+        );
+        first.autoComplete = true;
+        second.autoComplete = true;
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            promises.add(multiplexer.send("message " + i, new MessageType("simple"), ExpirationDate.expiresIn(1000)));
+        }
+        CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0])).join();
+
+        Assert.assertEquals(20, first.promises.size() + second.promises.size());
+        multiplexer.close();
+    }
+
+    private static class HeldChannel implements MultiplexerOutputChannel<String, String> {
+        final List<CompletableFuture<String>> promises = new CopyOnWriteArrayList<>();
+        final AtomicBoolean hasFreeSlot = new AtomicBoolean(true);
+        volatile boolean autoComplete;
+
+        @Override
+        public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            promises.add(promise);
+            if (autoComplete) {
+                promise.complete(message + " received");
+            }
+            return promise;
+        }
+
+        @Override
+        public boolean hasFreeSlot() {
+            return hasFreeSlot.get();
+        }
+    }
+}
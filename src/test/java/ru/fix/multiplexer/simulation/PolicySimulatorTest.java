@@ -0,0 +1,106 @@
+package ru.fix.multiplexer.simulation;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.priority.DecayingShareRecommender;
+import ru.fix.multiplexer.priority.StatisticStorageRecommender;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class PolicySimulatorTest {
+
+    private final MessageType otp = new MessageType("OTP");
+    private final MessageType bulk = new MessageType("BULK");
+
+    /**
+     * Channel sends 100 messages per second, both types together offer 300 messages per second
+     */
+    private final List<SimulatedType> overload = Arrays.asList(
+            new SimulatedType(otp, ArrivalProcess.poisson(150), 5_000),
+            new SimulatedType(bulk, ArrivalProcess.bursty(150, 50), 60_000)
+    );
+
+    @Test
+    public void sameSeedGivesSameReport() throws Exception {
+        PolicySimulator simulator = new PolicySimulator(overload, 10, ServiceTime.exponential(100), 42);
+
+        SimulationReport first = simulator.run(clock -> new StatisticStorageRecommender(weights(3, 1)), 60_000);
+        SimulationReport second = simulator.run(clock -> new StatisticStorageRecommender(weights(3, 1)), 60_000);
+
+        Assert.assertEquals(first.toString(), second.toString());
+        Assert.assertEquals(first.of(otp).getArrived(), second.of(otp).getArrived());
+        Assert.assertEquals(first.of(bulk).getDispatched(), second.of(bulk).getDispatched());
+    }
+
+    @Test
+    public void sharesFollowWeightsWhenChannelIsOverloaded() throws Exception {
+        PolicySimulator simulator = new PolicySimulator(overload, 10, ServiceTime.fixed(100), 7);
+
+        SimulationReport window = simulator.run(clock -> new StatisticStorageRecommender(weights(3, 1)), 600_000);
+        SimulationReport decaying = simulator.run(
+                clock -> new DecayingShareRecommender(weights(3, 1), 1_000, clock), 600_000
+        );
+
+        // the window of the last 4 messages is full of OTP before BULK gets a deficit, so OTP sends 4 of 5
+        Assert.assertEquals(0.8, window.getShare(otp), 0.01);
+        Assert.assertEquals(0.75, decaying.getShare(otp), 0.01);
+        Assert.assertTrue(window.of(otp).getExpiryLoss() > 0.4);
+        Assert.assertTrue(window.of(otp).getWaitPercentile(0.99) <= 5_000);
+    }
+
+    @Test
+    public void nothingExpiresWhenChannelIsFastEnough() throws Exception {
+        PolicySimulator simulator = new PolicySimulator(
+                Arrays.asList(
+                        new SimulatedType(otp, ArrivalProcess.diurnal(20, 0.9, 60_000), 1_000),
+                        new SimulatedType(bulk, ArrivalProcess.poisson(20), 1_000)
+                ),
+                10, ServiceTime.fixed(10), 1
+        );
+
+        SimulationReport report = simulator.run(clock -> new StatisticStorageRecommender(weights(1, 1)), 600_000);
+
+        Assert.assertEquals(0, report.of(otp).getExpired());
+        Assert.assertEquals(0, report.of(bulk).getExpired());
+        Assert.assertEquals(0, report.of(otp).getWaitPercentile(0.99));
+        Assert.assertEquals(20.0, report.of(otp).getArrived() / 600.0, 2.0);
+    }
+
+    @Test(timeout = 30_000)
+    public void hourOfTrafficIsSimulatedQuickly() throws Exception {
+        PolicySimulator simulator = new PolicySimulator(overload, 10, ServiceTime.exponential(100), 3);
+
+        SimulationReport report = simulator.run(
+                clock -> new DecayingShareRecommender(weights(3, 1), 1_000, clock), TimeUnit.HOURS.toMillis(1)
+        );
+
+        Assert.assertEquals(TimeUnit.HOURS.toMillis(1), report.getDurationMs());
+        Assert.assertTrue(report.of(otp).getDispatched() > 0);
+    }
+
+    @Test
+    public void longWaitsAreReportedWithBoundedError() {
+        SimulationReport.TypeReport report = new SimulationReport.TypeReport();
+        report.onDispatched(5);
+        report.onDispatched(63.4);
+        report.onDispatched(TimeUnit.DAYS.toMillis(30));
+
+        Assert.assertEquals(5, report.getWaitPercentile(0.3));
+        Assert.assertEquals(63, report.getWaitPercentile(0.6));
+        long longWait = report.getWaitPercentile(1);
+        Assert.assertTrue(String.valueOf(longWait), longWait <= TimeUnit.DAYS.toMillis(30));
+        Assert.assertTrue(String.valueOf(longWait), longWait >= TimeUnit.DAYS.toMillis(30) * 31 / 32);
+    }
+
+    private Map<MessageType, Integer> weights(int otpWeight, int bulkWeight) {
+        Map<MessageType, Integer> weights = new HashMap<>();
+        weights.put(otp, otpWeight);
+        weights.put(bulk, bulkWeight);
+        return weights;
+    }
+}
@@ -0,0 +1,147 @@
+package ru.fix.multiplexer.socket;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.fix.commons.profiler.impl.SimpleProfiler;
+import ru.fix.multiplexer.ExpirationDate;
+import ru.fix.multiplexer.MessageType;
+import ru.fix.multiplexer.MultiplexedMessageSendingResult;
+import ru.fix.multiplexer.Multiplexer;
+import ru.fix.multiplexer.MultiplexerWithPriority;
+import ru.fix.multiplexer.util.ConfigBuilder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SocketOutputChannelTest {
+
+    private static final FrameEncoder<String> ENCODER = new FrameEncoder<String>() {
+        @Override
+        public int size(String message) {
+            return 8 + message.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void encode(String message, long requestId, ByteBuffer frame) {
+            frame.putLong(requestId).put(message.getBytes(StandardCharsets.UTF_8));
+        }
+    };
+
+    private ServerSocket server;
+    private final CountDownLatch echoAllowed = new CountDownLatch(1);
+
+    @Before
+    public void startEchoServer() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread echo = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                echoAllowed.await();
+                while (true) {
+                    byte[] frame = new byte[input.readInt()];
+                    input.readFully(frame);
+                    output.writeInt(frame.length);
+                    output.write(frame);
+                    output.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // connection is closed by the test
+            }
+        }, "echo-server");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @After
+    public void stopEchoServer() throws Exception {
+        server.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void responsesAreCorrelatedByRequestIds() throws Exception {
+        echoAllowed.countDown();
+        SocketOutputChannel<String, String> channel = new SocketOutputChannel<>(
+                "socket", address(), ENCODER, correlator(false), new SocketConfig() {}, new SimpleProfiler()
+        );
+        Multiplexer<String, String> multiplexer = MultiplexerWithPriority.createInstance(
+                "socket-multiplexer", channel, ConfigBuilder.simpleWith100Priority(), new SimpleProfiler()
+        );
+
+        List<CompletableFuture<MultiplexedMessageSendingResult<String>>> promises = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            promises.add(multiplexer.send("message " + i, new MessageType("simple"), ExpirationDate.expiresIn(5_000)));
+        }
+        for (int i = 0; i < promises.size(); i++) {
+            Assert.assertEquals("message " + i, promises.get(i).get().getResult());
+        }
+        Assert.assertEquals(0, channel.getInFlightCount());
+
+        multiplexer.close();
+        channel.close();
+        Assert.assertFalse(channel.hasFreeSlot());
+        Assert.assertTrue(channel.send("late", ExpirationDate.expiresIn(1_000)).isCompletedExceptionally());
+    }
+
+    @Test(timeout = 10_000)
+    public void channelHasNoFreeSlotWithMaxInFlightRequests() throws Exception {
+        SocketOutputChannel<String, String> channel = new SocketOutputChannel<>(
+                "socket-limited", address(), ENCODER, correlator(true), new SocketConfig() {
+                    @Override
+                    public int getMaxInFlight() {
+                        return 2;
+                    }
+                }, new SimpleProfiler()
+        );
+        CountDownLatch notified = new CountDownLatch(1);
+        channel.addCapacityListener(notified::countDown);
+
+        CompletableFuture<String> first = channel.send("first", ExpirationDate.expiresIn(1_000));
+        Assert.assertTrue(channel.hasFreeSlot());
+        CompletableFuture<String> second = channel.send("second", ExpirationDate.expiresIn(1_000));
+        Assert.assertFalse(channel.hasFreeSlot());
+
+        echoAllowed.countDown();
+        Assert.assertEquals("first", first.get());
+        Assert.assertEquals("second", second.get());
+        Assert.assertTrue(notified.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(channel.hasFreeSlot());
+        channel.close();
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    }
+
+    /**
+     * @param inOrder ignore ids and complete the oldest request
+     */
+    private static ResponseCorrelator<String> correlator(boolean inOrder) {
+        return new ResponseCorrelator<String>() {
+            @Override
+            public long requestId(ByteBuffer response) {
+                return inOrder ? OLDEST_REQUEST : response.getLong(response.position());
+            }
+
+            @Override
+            public String decode(ByteBuffer response) {
+                response.position(response.position() + 8);
+                return StandardCharsets.UTF_8.decode(response).toString();
+            }
+        };
+    }
+}
@@ -16,6 +16,18 @@ public class ConfigBuilder {
         return new SimpleMultiplexerConfig(priority);
     }
 
+    /**
+     * Worker practically never wakes up by timeout, so messages are sent only after notifications
+     */
+    public static MultiplexerConfig simpleWith100PriorityAndLongWaitingInterval() {
+        return new SimpleMultiplexerConfig(simpleWith100Priority().registeredMessages()) {
+            @Override
+            public Integer getSendingWaitingInterval() {
+                return 60_000;
+            }
+        };
+    }
+
     public static MultiplexerConfig highMediumTrivialPriority() {
         Map<MessageType, Integer> priority = new LinkedHashMap<>();
         priority.put(new MessageType("trivial"), 1);
@@ -1,9 +1,14 @@
 package ru.fix.multiplexer.util;
 
+import ru.fix.multiplexer.CapacityNotifyingOutputChannel;
 import ru.fix.multiplexer.ExpirationDate;
 import ru.fix.multiplexer.MultiplexerOutputChannel;
+import ru.fix.multiplexer.MultiplexerProcessorable;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 public class OutputChannelBuilder {
@@ -21,4 +26,46 @@ public class OutputChannelBuilder {
             }
         };
     }
+
+    /**
+     * Channel which is free only after {@link NotifyingChannel#release()} call
+     */
+    public static NotifyingChannel notifyingAddWordReceived() {
+        return new NotifyingChannel();
+    }
+
+    public static class NotifyingChannel implements CapacityNotifyingOutputChannel<String, String> {
+
+        private final AtomicBoolean hasFreeSlot = new AtomicBoolean(false);
+        private final List<MultiplexerProcessorable> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<String> send(String message, ExpirationDate expirationTime) {
+            return CompletableFuture.supplyAsync(() -> message + " received");
+        }
+
+        @Override
+        public boolean hasFreeSlot() {
+            return hasFreeSlot.get();
+        }
+
+        @Override
+        public void addCapacityListener(MultiplexerProcessorable listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeCapacityListener(MultiplexerProcessorable listener) {
+            listeners.remove(listener);
+        }
+
+        public void release() {
+            hasFreeSlot.set(true);
+            listeners.forEach(MultiplexerProcessorable::onOutputChannelHasFreeSlot);
+        }
+
+        public int countListeners() {
+            return listeners.size();
+        }
+    }
 }